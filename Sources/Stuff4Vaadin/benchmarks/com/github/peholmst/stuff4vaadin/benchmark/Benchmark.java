@@ -0,0 +1,75 @@
+/*
+ * Copyright (c) 2011 Petter Holmström
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.github.peholmst.stuff4vaadin.benchmark;
+
+/**
+ * Base class for benchmarks that are run by a {@link BenchmarkRunner}. The
+ * runner invokes {@link #setUp()} once, {@link #setUpThread()} once in every
+ * worker thread and then {@link #operation()} repeatedly in all the worker
+ * threads at the same time, until the measurement is over.
+ * 
+ * @author Petter Holmström
+ * @since 1.0
+ */
+public abstract class Benchmark {
+
+    private final String name;
+
+    /**
+     * Creates a new <code>Benchmark</code>.
+     * 
+     * @param name
+     *            the name of the benchmark as shown in the results (must not be
+     *            <code>null</code>).
+     */
+    protected Benchmark(String name) {
+        assert name != null : "name must not be null";
+        this.name = name;
+    }
+
+    /**
+     * Returns the name of the benchmark.
+     */
+    public final String getName() {
+        return name;
+    }
+
+    /**
+     * Prepares the benchmark before a run. A run is made for every thread
+     * count, so this method may be invoked several times.
+     */
+    protected void setUp() throws Exception {
+    }
+
+    /**
+     * Prepares the current worker thread before it starts invoking
+     * {@link #operation()}.
+     */
+    protected void setUpThread() throws Exception {
+    }
+
+    /**
+     * Cleans up after a run.
+     */
+    protected void tearDown() throws Exception {
+    }
+
+    /**
+     * Performs the operation to measure. The result is consumed by the runner
+     * so that the JIT compiler cannot eliminate the operation.
+     */
+    protected abstract long operation() throws Exception;
+}
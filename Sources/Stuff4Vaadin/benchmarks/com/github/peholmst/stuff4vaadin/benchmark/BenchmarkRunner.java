@@ -0,0 +1,385 @@
+/*
+ * Copyright (c) 2011 Petter Holmström
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.github.peholmst.stuff4vaadin.benchmark;
+
+import java.io.PrintStream;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicReference;
+
+import com.github.peholmst.stuff4vaadin.common.LatencyHistogram;
+import com.github.peholmst.stuff4vaadin.common.ThreadAllocation;
+
+/**
+ * This is a simple benchmark harness that measures the throughput and latency
+ * percentiles of {@link Benchmark}s with different numbers of threads.
+ * <p>
+ * Every run consists of a warm-up period, during which the JIT compiler is
+ * given time to compile the code, and a measurement period. During the
+ * measurement, every thread counts its operations and times every
+ * {@value #SAMPLE_INTERVAL}th operation, recording the latency in a
+ * {@link LatencyHistogram} of its own. Timing every operation would make the
+ * timer dominate the results of fast operations.
+ * <p>
+ * Like the GC profiler of JMH, the runner also reports the bytes allocated per
+ * operation, the allocation rate and the garbage collections during the
+ * measurement. The allocations are read from
+ * <code>com.sun.management.ThreadMXBean</code> and are only counted for the
+ * worker threads; they are reported as -1 on JVMs that cannot measure them.
+ * 
+ * @author Petter Holmström
+ * @since 1.0
+ */
+public class BenchmarkRunner {
+
+    public static final int SAMPLE_INTERVAL = 16;
+
+    private static final int WARMUP = 0;
+
+    private static final int MEASUREMENT = 1;
+
+    private static final int STOPPED = 2;
+
+    /**
+     * The result of a single run.
+     */
+    public static final class Result {
+
+        private final String name;
+
+        private final int threadCount;
+
+        private final double throughput;
+
+        private final LatencyHistogram latency;
+
+        private final double allocatedBytesPerOperation;
+
+        private final double allocationRate;
+
+        private final long gcCount;
+
+        private final long gcMillis;
+
+        Result(String name, int threadCount, double throughput,
+                LatencyHistogram latency, double allocatedBytesPerOperation,
+                double allocationRate, long gcCount, long gcMillis) {
+            this.name = name;
+            this.threadCount = threadCount;
+            this.throughput = throughput;
+            this.latency = latency;
+            this.allocatedBytesPerOperation = allocatedBytesPerOperation;
+            this.allocationRate = allocationRate;
+            this.gcCount = gcCount;
+            this.gcMillis = gcMillis;
+        }
+
+        /**
+         * Returns the name of the benchmark.
+         */
+        public String getName() {
+            return name;
+        }
+
+        /**
+         * Returns the number of threads that ran the benchmark.
+         */
+        public int getThreadCount() {
+            return threadCount;
+        }
+
+        /**
+         * Returns the total number of operations per second.
+         */
+        public double getThroughput() {
+            return throughput;
+        }
+
+        /**
+         * Returns the sampled latencies in nanoseconds.
+         */
+        public LatencyHistogram getLatency() {
+            return latency;
+        }
+
+        /**
+         * Returns the mean number of bytes allocated per operation, or -1 if
+         * the allocations could not be measured.
+         */
+        public double getAllocatedBytesPerOperation() {
+            return allocatedBytesPerOperation;
+        }
+
+        /**
+         * Returns the number of bytes allocated per second by all the
+         * threads, or -1 if the allocations could not be measured.
+         */
+        public double getAllocationRate() {
+            return allocationRate;
+        }
+
+        /**
+         * Returns the number of garbage collections during the measurement.
+         */
+        public long getGcCount() {
+            return gcCount;
+        }
+
+        /**
+         * Returns the time spent in garbage collections during the measurement
+         * in milliseconds.
+         */
+        public long getGcMillis() {
+            return gcMillis;
+        }
+    }
+
+    private final int[] threadCounts;
+
+    private final long warmupMillis;
+
+    private final long measurementMillis;
+
+    private final PrintStream out;
+
+    private volatile int phase;
+
+    /**
+     * Holds the results of the operations so that they are not optimized
+     * away.
+     */
+    private volatile long sink;
+
+    /**
+     * Creates a new <code>BenchmarkRunner</code>.
+     * 
+     * @param threadCounts
+     *            the numbers of threads to run every benchmark with (must not
+     *            be <code>null</code>).
+     * @param warmupMillis
+     *            the length of the warm-up period of every run.
+     * @param measurementMillis
+     *            the length of the measurement period of every run (must be
+     *            greater than zero).
+     * @param out
+     *            the stream to print the results to (must not be
+     *            <code>null</code>).
+     */
+    public BenchmarkRunner(int[] threadCounts, long warmupMillis,
+            long measurementMillis, PrintStream out) {
+        assert threadCounts != null : "threadCounts must not be null";
+        assert measurementMillis > 0 : "measurementMillis must be greater than zero";
+        assert out != null : "out must not be null";
+        this.threadCounts = threadCounts.clone();
+        this.warmupMillis = warmupMillis;
+        this.measurementMillis = measurementMillis;
+        this.out = out;
+    }
+
+    /**
+     * Prints the header of the result table.
+     */
+    public void printHeader() {
+        out.println(String.format(
+                "%-36s %7s %14s %10s %10s %10s %12s %12s %10s %6s %7s",
+                "Benchmark", "Threads", "ops/s", "p50 ns", "p99 ns",
+                "p99.9 ns", "max ns", "B/op", "MB/s", "GCs", "GC ms"));
+    }
+
+    /**
+     * Runs the specified benchmark once for every thread count and prints the
+     * results.
+     * 
+     * @return the results, one for every thread count.
+     */
+    public List<Result> run(Benchmark benchmark) throws Exception {
+        final List<Result> results = new ArrayList<Result>();
+        for (int threadCount : threadCounts) {
+            final Result result = run(benchmark, threadCount);
+            final LatencyHistogram latency = result.getLatency();
+            out.println(String.format(
+                    "%-36s %7d %14.0f %10d %10d %10d %12d %12.1f %10.1f %6d %7d",
+                    result.getName(), result.getThreadCount(),
+                    result.getThroughput(),
+                    latency.getValueAtPercentile(50.0),
+                    latency.getValueAtPercentile(99.0),
+                    latency.getValueAtPercentile(99.9), latency.getMax(),
+                    result.getAllocatedBytesPerOperation(),
+                    result.getAllocationRate() < 0 ? -1.0 : result
+                            .getAllocationRate() / (1024 * 1024),
+                    result.getGcCount(), result.getGcMillis()));
+            results.add(result);
+        }
+        return results;
+    }
+
+    private Result run(final Benchmark benchmark, int threadCount)
+            throws Exception {
+        benchmark.setUp();
+        try {
+            phase = WARMUP;
+            final CountDownLatch ready = new CountDownLatch(threadCount);
+            final AtomicReference<Throwable> failure = new AtomicReference<Throwable>();
+            final long[] operationCounts = new long[threadCount];
+            final LatencyHistogram[] latencies = new LatencyHistogram[threadCount];
+            final long[] allocatedBytes = new long[threadCount];
+            final List<Thread> threads = new ArrayList<Thread>();
+            for (int t = 0; t < threadCount; ++t) {
+                final int index = t;
+                latencies[index] = new LatencyHistogram();
+                threads.add(new Thread(benchmark.getName() + "-" + t) {
+                    @Override
+                    public void run() {
+                        boolean started = false;
+                        try {
+                            benchmark.setUpThread();
+                            ready.countDown();
+                            started = true;
+                            operationCounts[index] = runWorker(benchmark,
+                                    latencies[index], allocatedBytes, index);
+                        } catch (Throwable e) {
+                            failure.compareAndSet(null, e);
+                            phase = STOPPED;
+                        } finally {
+                            if (!started) {
+                                ready.countDown();
+                            }
+                        }
+                    }
+                });
+            }
+            for (Thread thread : threads) {
+                thread.start();
+            }
+            ready.await();
+            Thread.sleep(warmupMillis);
+            final long gcCountBefore = GcCounter.gcCount();
+            final long gcMillisBefore = GcCounter.gcMillis();
+            final long start = System.nanoTime();
+            phase = MEASUREMENT;
+            Thread.sleep(measurementMillis);
+            phase = STOPPED;
+            final long duration = System.nanoTime() - start;
+            final long gcCount = GcCounter.gcCount() - gcCountBefore;
+            final long gcMillis = GcCounter.gcMillis()
+                    - gcMillisBefore;
+            for (Thread thread : threads) {
+                thread.join();
+            }
+            if (failure.get() != null) {
+                throw new IllegalStateException("Benchmark "
+                        + benchmark.getName() + " failed", failure.get());
+            }
+            long totalCount = 0;
+            long totalAllocated = 0;
+            final LatencyHistogram latency = new LatencyHistogram();
+            for (int t = 0; t < threadCount; ++t) {
+                totalCount += operationCounts[t];
+                latency.add(latencies[t]);
+                if (totalAllocated >= 0) {
+                    totalAllocated = allocatedBytes[t] < 0 ? -1L
+                            : totalAllocated + allocatedBytes[t];
+                }
+            }
+            final boolean allocationsMeasured = totalAllocated >= 0
+                    && totalCount > 0;
+            return new Result(benchmark.getName(), threadCount, totalCount
+                    * 1000000000.0 / duration, latency,
+                    allocationsMeasured ? (double) totalAllocated / totalCount
+                            : -1.0, allocationsMeasured ? totalAllocated
+                            * 1000000000.0 / duration : -1.0, gcCount,
+                    gcMillis);
+        } finally {
+            benchmark.tearDown();
+        }
+    }
+
+    private long runWorker(Benchmark benchmark, LatencyHistogram latency,
+            long[] allocatedBytes, int index) throws Exception {
+        long count = 0;
+        long result = 0;
+        long allocatedBefore = -1L;
+        int p;
+        while ((p = phase) != STOPPED) {
+            if (p == WARMUP) {
+                result ^= benchmark.operation();
+            } else if (count % SAMPLE_INTERVAL == 0) {
+                if (count == 0) {
+                    allocatedBefore = ThreadAllocation
+                            .currentThreadAllocatedBytes();
+                }
+                final long start = System.nanoTime();
+                result ^= benchmark.operation();
+                latency.record(System.nanoTime() - start);
+                ++count;
+            } else {
+                result ^= benchmark.operation();
+                ++count;
+            }
+        }
+        final long allocatedAfter = ThreadAllocation
+                .currentThreadAllocatedBytes();
+        if (count == 0) {
+            allocatedBytes[index] = 0L;
+        } else {
+            allocatedBytes[index] = allocatedBefore < 0 || allocatedAfter < 0 ? -1L
+                    : allocatedAfter - allocatedBefore;
+        }
+        sink = result;
+        return count;
+    }
+
+    private static int[] parseThreadCounts(String threadCounts) {
+        final String[] parts = threadCounts.split(",");
+        final int[] result = new int[parts.length];
+        for (int i = 0; i < parts.length; ++i) {
+            result[i] = Integer.parseInt(parts[i].trim());
+        }
+        return result;
+    }
+
+    /**
+     * Runs the specified benchmarks (must not be <code>null</code>) and prints
+     * the results to {@link System#out}. The runner is configured using the
+     * following system properties:
+     * <ul>
+     * <li><code>benchmark.threads</code>: comma separated thread counts
+     * (default <code>1,4,16,64,128</code>),</li>
+     * <li><code>benchmark.warmup</code>: warm-up time of every run in
+     * milliseconds (default 2000),</li>
+     * <li><code>benchmark.time</code>: measurement time of every run in
+     * milliseconds (default 5000) and</li>
+     * <li><code>benchmark.filter</code>: a regular expression that the names
+     * of the benchmarks to run must contain (default: run all).</li>
+     * </ul>
+     */
+    public static void runFromSystemProperties(List<Benchmark> benchmarks)
+            throws Exception {
+        assert benchmarks != null : "benchmarks must not be null";
+        final BenchmarkRunner runner = new BenchmarkRunner(
+                parseThreadCounts(System.getProperty("benchmark.threads",
+                        "1,4,16,64,128")), Long.getLong("benchmark.warmup", 2000L),
+                Long.getLong("benchmark.time", 5000L), System.out);
+        final String filter = System.getProperty("benchmark.filter", "");
+        runner.printHeader();
+        for (Benchmark benchmark : benchmarks) {
+            if (benchmark.getName().matches(".*(" + filter + ").*")) {
+                runner.run(benchmark);
+            }
+        }
+    }
+}
@@ -0,0 +1,648 @@
+/*
+ * Copyright (c) 2011 Petter Holmström
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.github.peholmst.stuff4vaadin.benchmark;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.io.Serializable;
+import java.math.BigDecimal;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import com.github.peholmst.stuff4vaadin.clone.CloneStatistics;
+import com.github.peholmst.stuff4vaadin.clone.CloneThis;
+import com.github.peholmst.stuff4vaadin.clone.CloneUtil;
+import com.github.peholmst.stuff4vaadin.clone.CopyOnWriteCollections;
+
+/**
+ * Benchmarks of {@link CloneUtil#deepClone(Cloneable)}. The benchmarks must be
+ * compiled with the
+ * {@link com.github.peholmst.stuff4vaadin.clone.processor.ClonerProcessor}
+ * enabled, as the Ant build does, so that the generated cloners can be
+ * compared with reflection. The benchmarks are configured using system
+ * properties, see {@link BenchmarkRunner#runFromSystemProperties(List)}.
+ * <p>
+ * The benchmarks cover flat beans, deep class hierarchies, large arrays, lists
+ * and maps cloned shallowly and deeply, lazy and parallel cloning and the
+ * fallbacks for values without a <code>clone()</code> method. Together with the
+ * allocation figures reported by the {@link BenchmarkRunner}, they serve as the
+ * baseline for changes to the field walk and the clone method invocation.
+ * 
+ * @author Petter Holmström
+ * @since 1.0
+ */
+public class CloneBenchmarks {
+
+    /**
+     * A bean with a mix of annotated fields.
+     */
+    public static class Bean implements Cloneable {
+
+        @CloneThis
+        Date created = new Date();
+
+        @CloneThis
+        Date modified = new Date();
+
+        @CloneThis
+        List<String> tags = new ArrayList<String>();
+
+        @CloneThis
+        Map<String, String> properties = new HashMap<String, String>();
+
+        @CloneThis
+        int[] counters = new int[8];
+
+        @CloneThis(deepClone = true)
+        Date[] history = new Date[] { new Date(), new Date() };
+
+        @CloneThis(deepClone = true)
+        List<Date> events = new ArrayList<Date>();
+
+        @CloneThis
+        Bean parent;
+
+        String name = "bean";
+
+        public Bean() {
+            for (int i = 0; i < 4; ++i) {
+                tags.add("tag" + i);
+                properties.put("key" + i, "value" + i);
+                events.add(new Date(i));
+            }
+        }
+
+        @Override
+        public Bean clone() throws CloneNotSupportedException {
+            return CloneUtil.deepClone((Bean) super.clone());
+        }
+    }
+
+    /**
+     * A bean with annotated fields of simple types only.
+     */
+    public static class FlatBean implements Cloneable {
+
+        @CloneThis
+        Date created = new Date();
+
+        @CloneThis
+        Date modified = new Date();
+
+        @CloneThis
+        Date validFrom = new Date();
+
+        @CloneThis
+        Date validTo = new Date();
+
+        @CloneThis
+        int[] counters = new int[4];
+
+        @CloneThis
+        String name = "flat";
+
+        long version = 1;
+
+        String description = "A flat bean";
+
+        @Override
+        public FlatBean clone() throws CloneNotSupportedException {
+            return CloneUtil.deepClone((FlatBean) super.clone());
+        }
+    }
+
+    /**
+     * The root of a class hierarchy where every class declares an annotated
+     * field of its own.
+     */
+    public static class ChainLevel1 implements Cloneable {
+
+        @CloneThis
+        Date date1 = new Date();
+
+        @Override
+        public ChainLevel1 clone() throws CloneNotSupportedException {
+            return CloneUtil.deepClone((ChainLevel1) super.clone());
+        }
+    }
+
+    public static class ChainLevel2 extends ChainLevel1 {
+
+        @CloneThis
+        Date date2 = new Date();
+    }
+
+    public static class ChainLevel3 extends ChainLevel2 {
+
+        @CloneThis
+        Date date3 = new Date();
+    }
+
+    public static class ChainLevel4 extends ChainLevel3 {
+
+        @CloneThis
+        Date date4 = new Date();
+    }
+
+    public static class ChainLevel5 extends ChainLevel4 {
+
+        @CloneThis
+        Date date5 = new Date();
+    }
+
+    public static class ChainLevel6 extends ChainLevel5 {
+
+        @CloneThis
+        Date date6 = new Date();
+    }
+
+    public static class ChainLevel7 extends ChainLevel6 {
+
+        @CloneThis
+        Date date7 = new Date();
+    }
+
+    public static class ChainLevel8 extends ChainLevel7 {
+
+        @CloneThis
+        Date date8 = new Date();
+    }
+
+    /**
+     * A bean with arrays, lists and maps that are cloned shallowly or deeply.
+     * Only the field under test is filled in.
+     */
+    public static class ContainerBean implements Cloneable {
+
+        @CloneThis
+        Date[] array;
+
+        @CloneThis(deepClone = true)
+        Date[] deepArray;
+
+        @CloneThis
+        ArrayList<Date> list;
+
+        @CloneThis(deepClone = true)
+        ArrayList<Date> deepList;
+
+        @CloneThis
+        HashMap<String, Date> map;
+
+        @CloneThis(deepClone = true)
+        HashMap<String, Date> deepMap;
+
+        /**
+         * Creates a bean with 1000 dates in the array, list or map field,
+         * depending on <code>kind</code>.
+         */
+        static ContainerBean create(String kind, boolean deep) {
+            final Date[] dates = new Date[1000];
+            for (int i = 0; i < dates.length; ++i) {
+                dates[i] = new Date(i);
+            }
+            final ContainerBean bean = new ContainerBean();
+            if (kind.equals("array")) {
+                bean.array = deep ? null : dates;
+                bean.deepArray = deep ? dates : null;
+            } else if (kind.equals("list")) {
+                final ArrayList<Date> list = new ArrayList<Date>(
+                        Arrays.asList(dates));
+                bean.list = deep ? null : list;
+                bean.deepList = deep ? list : null;
+            } else {
+                final HashMap<String, Date> map = new HashMap<String, Date>();
+                for (Date date : dates) {
+                    map.put(Long.toString(date.getTime()), date);
+                }
+                bean.map = deep ? null : map;
+                bean.deepMap = deep ? map : null;
+            }
+            return bean;
+        }
+
+        @Override
+        public ContainerBean clone() throws CloneNotSupportedException {
+            return CloneUtil.deepClone((ContainerBean) super.clone());
+        }
+    }
+
+    /**
+     * A bean with large arrays.
+     */
+    public static class ArrayBean implements Cloneable {
+
+        @CloneThis
+        double[] series = new double[1 << 20];
+
+        @CloneThis
+        byte[] image = new byte[4 << 20];
+
+        @CloneThis
+        double[][] matrix = new double[1024][1024];
+
+        @Override
+        public ArrayBean clone() throws CloneNotSupportedException {
+            return CloneUtil.deepClone((ArrayBean) super.clone());
+        }
+    }
+
+    /**
+     * A bean with a large list.
+     */
+    public static class ListBean implements Cloneable {
+
+        @CloneThis(deepClone = true)
+        List<Bean> beans = new ArrayList<Bean>();
+
+        @Override
+        public ListBean clone() throws CloneNotSupportedException {
+            return CloneUtil.deepClone((ListBean) super.clone());
+        }
+    }
+
+    /**
+     * A bean with a large list and map that are copied on every clone.
+     */
+    public static class EagerBean implements Cloneable {
+
+        @CloneThis
+        List<String> names = new ArrayList<String>();
+
+        @CloneThis
+        Map<String, String> properties = new HashMap<String, String>();
+
+        public EagerBean() {
+            for (int i = 0; i < 10000; ++i) {
+                names.add("name" + i);
+                properties.put("key" + i, "value" + i);
+            }
+        }
+
+        @Override
+        public EagerBean clone() throws CloneNotSupportedException {
+            return CloneUtil.deepClone((EagerBean) super.clone());
+        }
+    }
+
+    /**
+     * A bean with a large list and map that are copied on write.
+     */
+    public static class LazyBean implements Cloneable {
+
+        @CloneThis(lazy = true)
+        List<String> names = CopyOnWriteCollections
+                .list(new ArrayList<String>());
+
+        @CloneThis(lazy = true)
+        Map<String, String> properties = CopyOnWriteCollections
+                .map(new HashMap<String, String>());
+
+        public LazyBean() {
+            for (int i = 0; i < 10000; ++i) {
+                names.add("name" + i);
+                properties.put("key" + i, "value" + i);
+            }
+        }
+
+        @Override
+        public LazyBean clone() throws CloneNotSupportedException {
+            return CloneUtil.deepClone((LazyBean) super.clone());
+        }
+    }
+
+    /**
+     * An address without a <code>clone()</code> method.
+     */
+    public static class Address implements Serializable {
+
+        private static final long serialVersionUID = 1L;
+
+        String street;
+
+        String city;
+
+        int zipCode;
+    }
+
+    /**
+     * A customer without a <code>clone()</code> method, which is copied
+     * structurally by {@link CloneUtil}. All its mutable state is annotated,
+     * so the structural copy is as deep as a serialization round-trip.
+     */
+    public static class Customer implements Serializable {
+
+        private static final long serialVersionUID = 1L;
+
+        String name = "Customer";
+
+        @CloneThis
+        Date registered = new Date();
+
+        BigDecimal balance = new BigDecimal("1234.56");
+
+        @CloneThis(deepClone = true)
+        ArrayList<Address> addresses = new ArrayList<Address>();
+
+        public Customer() {
+            for (int i = 0; i < 5; ++i) {
+                final Address address = new Address();
+                address.street = "Street " + i;
+                address.city = "City";
+                address.zipCode = 10000 + i;
+                addresses.add(address);
+            }
+        }
+    }
+
+    /**
+     * A bean that refers to a {@link Customer}.
+     */
+    public static class Order implements Cloneable, Serializable {
+
+        private static final long serialVersionUID = 1L;
+
+        @CloneThis
+        Customer customer = new Customer();
+
+        @Override
+        public Order clone() throws CloneNotSupportedException {
+            return CloneUtil.deepClone((Order) super.clone());
+        }
+    }
+
+    /**
+     * Clones a {@link ListBean} with or without parallel cloning.
+     */
+    static class ListCloneBenchmark extends Benchmark {
+
+        private final boolean parallel;
+
+        private ExecutorService executor;
+
+        private ListBean bean;
+
+        ListCloneBenchmark(String name, boolean parallel) {
+            super(name);
+            this.parallel = parallel;
+        }
+
+        @Override
+        protected void setUp() {
+            bean = new ListBean();
+            for (int i = 0; i < 10000; ++i) {
+                bean.beans.add(new Bean());
+            }
+            if (parallel) {
+                executor = Executors.newFixedThreadPool(Runtime.getRuntime()
+                        .availableProcessors());
+                CloneUtil.setParallelCloning(executor, 1000);
+            }
+        }
+
+        @Override
+        protected void tearDown() {
+            if (parallel) {
+                CloneUtil.setParallelCloning(null, 1);
+                executor.shutdown();
+            }
+        }
+
+        @Override
+        protected long operation() throws Exception {
+            return bean.clone().beans.size();
+        }
+    }
+
+    /**
+     * Clones a bean with or without generated cloners. The bean is cloned
+     * using {@link CloneUtil#deepCloneGraph(Cloneable, boolean)}, so the
+     * invocation of its <code>clone()</code> method is measured as well.
+     */
+    static class DeepCloneBenchmark extends Benchmark {
+
+        private final Cloneable bean;
+
+        private final boolean generatedClonersEnabled;
+
+        DeepCloneBenchmark(String name, Cloneable bean,
+                boolean generatedClonersEnabled) {
+            super(name);
+            this.bean = bean;
+            this.generatedClonersEnabled = generatedClonersEnabled;
+        }
+
+        @Override
+        protected void setUp() {
+            CloneUtil.setGeneratedClonersEnabled(generatedClonersEnabled);
+        }
+
+        @Override
+        protected void tearDown() {
+            CloneUtil.setGeneratedClonersEnabled(true);
+        }
+
+        @Override
+        protected long operation() throws Exception {
+            return System.identityHashCode(CloneUtil.deepCloneGraph(bean,
+                    false));
+        }
+    }
+
+    /**
+     * Base class for benchmarks that clone a {@link Bean}.
+     */
+    static class CloneBenchmark extends Benchmark {
+
+        private final boolean generatedClonersEnabled;
+
+        private Bean bean;
+
+        CloneBenchmark(String name, boolean generatedClonersEnabled) {
+            super(name);
+            this.generatedClonersEnabled = generatedClonersEnabled;
+        }
+
+        @Override
+        protected void setUp() {
+            CloneUtil.setGeneratedClonersEnabled(generatedClonersEnabled);
+            bean = new Bean();
+            bean.parent = new Bean();
+        }
+
+        @Override
+        protected void tearDown() {
+            CloneUtil.setGeneratedClonersEnabled(true);
+        }
+
+        @Override
+        protected long operation() throws Exception {
+            return bean.clone().tags.size();
+        }
+    }
+
+    private CloneBenchmarks() {
+    }
+
+    /**
+     * Creates all the benchmarks.
+     */
+    static List<Benchmark> createBenchmarks() {
+        final List<Benchmark> benchmarks = new ArrayList<Benchmark>();
+        benchmarks.add(new CloneBenchmark("CloneUtil (reflection)", false));
+        benchmarks.add(new CloneBenchmark("CloneUtil (generated cloner)", true));
+        benchmarks.add(new CloneBenchmark("CloneUtil (metrics)", false) {
+
+            @Override
+            protected void setUp() {
+                super.setUp();
+                CloneUtil.setMetrics(new CloneStatistics());
+            }
+
+            @Override
+            protected void tearDown() {
+                CloneUtil.setMetrics(null);
+                super.tearDown();
+            }
+        });
+        for (int i = 0; i < 2; ++i) {
+            final boolean generated = i == 1;
+            final String mode = generated ? "generated" : "reflection";
+            benchmarks.add(new DeepCloneBenchmark("CloneUtil (flat bean, " + mode
+                    + ")", new FlatBean(), generated));
+            benchmarks.add(new DeepCloneBenchmark("CloneUtil (8 levels, "
+                    + mode + ")", new ChainLevel8(), generated));
+        }
+        for (String kind : new String[] { "array", "list", "map" }) {
+            benchmarks.add(new DeepCloneBenchmark("CloneUtil (1k " + kind
+                    + ", shallow)", ContainerBean.create(kind, false), true));
+            benchmarks.add(new DeepCloneBenchmark("CloneUtil (1k " + kind
+                    + ", deep)", ContainerBean.create(kind, true), true));
+        }
+        benchmarks.add(new ListCloneBenchmark("CloneUtil (10k list)", false));
+        benchmarks.add(new ListCloneBenchmark("CloneUtil (10k list, parallel)",
+                true));
+        benchmarks.add(new Benchmark("CloneUtil (10k list and map)") {
+
+            private EagerBean bean;
+
+            @Override
+            protected void setUp() {
+                bean = new EagerBean();
+            }
+
+            @Override
+            protected long operation() throws Exception {
+                return bean.clone().names.size();
+            }
+        });
+        benchmarks.add(new Benchmark("CloneUtil (10k list and map, lazy)") {
+
+            private LazyBean bean;
+
+            @Override
+            protected void setUp() {
+                bean = new LazyBean();
+            }
+
+            @Override
+            protected long operation() throws Exception {
+                return bean.clone().names.size();
+            }
+        });
+        benchmarks.add(new Benchmark("CloneUtil (arrays, 20 MB)") {
+
+            private ArrayBean bean;
+
+            @Override
+            protected void setUp() {
+                bean = new ArrayBean();
+            }
+
+            @Override
+            protected long operation() throws Exception {
+                return bean.clone().image.length;
+            }
+        });
+        benchmarks.add(new Benchmark("Object.clone() (arrays, 20 MB)") {
+
+            private ArrayBean bean;
+
+            @Override
+            protected void setUp() {
+                bean = new ArrayBean();
+            }
+
+            @Override
+            protected long operation() {
+                final double[] series = bean.series.clone();
+                final byte[] image = bean.image.clone();
+                final double[][] matrix = bean.matrix.clone();
+                for (int i = 0; i < matrix.length; ++i) {
+                    matrix[i] = matrix[i].clone();
+                }
+                return series.length + image.length + matrix.length;
+            }
+        });
+        benchmarks.add(new Benchmark("CloneUtil (structural copy)") {
+
+            private Order order;
+
+            @Override
+            protected void setUp() {
+                order = new Order();
+            }
+
+            @Override
+            protected long operation() throws Exception {
+                return order.clone().customer.addresses.size();
+            }
+        });
+        benchmarks.add(new Benchmark("Serialization (round-trip)") {
+
+            private Order order;
+
+            @Override
+            protected void setUp() {
+                order = new Order();
+            }
+
+            @Override
+            protected long operation() throws Exception {
+                final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+                final ObjectOutputStream out = new ObjectOutputStream(bytes);
+                out.writeObject(order);
+                out.close();
+                final ObjectInputStream in = new ObjectInputStream(
+                        new ByteArrayInputStream(bytes.toByteArray()));
+                return ((Order) in.readObject()).customer.addresses.size();
+            }
+        });
+        return benchmarks;
+    }
+
+    public static void main(String[] args) throws Exception {
+        BenchmarkRunner.runFromSystemProperties(createBenchmarks());
+    }
+}
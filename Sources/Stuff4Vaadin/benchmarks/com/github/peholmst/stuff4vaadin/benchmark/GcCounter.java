@@ -0,0 +1,58 @@
+/*
+ * Copyright (c) 2011 Petter Holmström
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.github.peholmst.stuff4vaadin.benchmark;
+
+import java.lang.management.GarbageCollectorMXBean;
+import java.lang.management.ManagementFactory;
+
+/**
+ * This class counts the garbage collections for the {@link BenchmarkRunner}.
+ * The bytes allocated per thread are measured with
+ * {@link com.github.peholmst.stuff4vaadin.common.ThreadAllocation}.
+ * 
+ * @author Petter Holmström
+ * @since 1.0
+ */
+final class GcCounter {
+
+    private GcCounter() {
+    }
+
+    /**
+     * Returns the total number of garbage collections so far.
+     */
+    static long gcCount() {
+        long count = 0;
+        for (GarbageCollectorMXBean bean : ManagementFactory
+                .getGarbageCollectorMXBeans()) {
+            count += Math.max(0L, bean.getCollectionCount());
+        }
+        return count;
+    }
+
+    /**
+     * Returns the total time spent in garbage collections so far in
+     * milliseconds.
+     */
+    static long gcMillis() {
+        long millis = 0;
+        for (GarbageCollectorMXBean bean : ManagementFactory
+                .getGarbageCollectorMXBeans()) {
+            millis += Math.max(0L, bean.getCollectionTime());
+        }
+        return millis;
+    }
+}
@@ -0,0 +1,397 @@
+/*
+ * Copyright (c) 2011 Petter Holmström
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.github.peholmst.stuff4vaadin.benchmark;
+
+import java.io.File;
+import java.io.PrintStream;
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.sql.Connection;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+
+import javax.sql.DataSource;
+
+import org.h2.jdbcx.JdbcDataSource;
+
+import com.github.peholmst.stuff4vaadin.sequence.AdaptiveBlockSize;
+import com.github.peholmst.stuff4vaadin.sequence.ConcurrentSequence;
+import com.github.peholmst.stuff4vaadin.sequence.DataSourceSequence;
+import com.github.peholmst.stuff4vaadin.sequence.IdGenerator;
+import com.github.peholmst.stuff4vaadin.sequence.IdGenerator.Scope;
+import com.github.peholmst.stuff4vaadin.sequence.InMemorySequence;
+import com.github.peholmst.stuff4vaadin.sequence.MappedFileSequence;
+import com.github.peholmst.stuff4vaadin.sequence.PrefetchingSequence;
+import com.github.peholmst.stuff4vaadin.sequence.Sequence;
+import com.github.peholmst.stuff4vaadin.sequence.SequenceDialect;
+import com.github.peholmst.stuff4vaadin.sequence.SequenceStatistics;
+import com.github.peholmst.stuff4vaadin.sequence.StripedSequence;
+import com.github.peholmst.stuff4vaadin.sequence.TableHiLoSequence;
+import com.github.peholmst.stuff4vaadin.sequence.TimeBasedSequence;
+import com.github.peholmst.stuff4vaadin.sequence.dialect.H2SequenceDialect;
+import com.github.peholmst.stuff4vaadin.sequence.dialect.TableHiLoSequenceDialect;
+
+/**
+ * Benchmarks of the {@link Sequence}-implementations and {@link IdGenerator}.
+ * The database sequences run against an embedded in-memory H2 database, so
+ * no external services are needed. For them, the JDBC calls that would be
+ * round-trips to a database server are counted as well and printed per
+ * reserved block after the results. The benchmarks are configured using
+ * system properties, see {@link BenchmarkRunner#runFromSystemProperties(List)}.
+ * 
+ * @author Petter Holmström
+ * @since 1.0
+ */
+public class SequenceBenchmarks {
+
+    private static final String SEQUENCE_NAME = "benchmarkSequence";
+
+    private static final String TABLE_NAME = "benchmarkSequences";
+
+    private static final long INCREMENT = InMemorySequence.DEFAULT_INCREMENT;
+
+    /**
+     * Base class for benchmarks that invoke {@link Sequence#getNextValue()} on
+     * a sequence that is shared by all threads.
+     */
+    static abstract class SequenceBenchmark extends Benchmark {
+
+        private Sequence sequence;
+
+        SequenceBenchmark(String name) {
+            super(name);
+        }
+
+        abstract Sequence createSequence() throws Exception;
+
+        @Override
+        protected void setUp() throws Exception {
+            sequence = createSequence();
+        }
+
+        @Override
+        protected long operation() {
+            return sequence.getNextValue();
+        }
+    }
+
+    /**
+     * Base class for benchmarks of database sequences. The sequences get a
+     * data source that counts the executed statements and the transaction
+     * calls (<code>setAutoCommit()</code>, <code>commit()</code> and
+     * <code>rollback()</code>). Unlike the embedded H2 database, a database
+     * server needs a round-trip for each of them.
+     */
+    static abstract class RoundTripBenchmark extends SequenceBenchmark {
+
+        private final AtomicLong statements = new AtomicLong();
+
+        private final AtomicLong transactionCalls = new AtomicLong();
+
+        private final SequenceStatistics statistics = new SequenceStatistics();
+
+        RoundTripBenchmark(String name) {
+            super(name);
+        }
+
+        abstract Sequence createSequence(DataSource dataSource)
+                throws Exception;
+
+        @Override
+        Sequence createSequence() throws Exception {
+            final Sequence sequence = createSequence(createCountingDataSource(
+                    getDataSource(), statements, transactionCalls));
+            sequence.setMetrics(statistics);
+            return sequence;
+        }
+
+        /**
+         * Prints the statements and transaction calls per reserved block, if
+         * the benchmark has been run.
+         */
+        void printRoundTrips(PrintStream out) {
+            final double blocks = (double) statistics.getReservedValueCount()
+                    / INCREMENT;
+            if (blocks > 0) {
+                out.println(String.format("%-36s %14.2f %14.2f", getName(),
+                        statements.get() / blocks, transactionCalls.get()
+                                / blocks));
+            }
+        }
+    }
+
+    private static JdbcDataSource dataSource;
+
+    private SequenceBenchmarks() {
+    }
+
+    static DataSource getDataSource() throws Exception {
+        if (dataSource == null) {
+            dataSource = new JdbcDataSource();
+            dataSource.setURL("jdbc:h2:mem:benchmark;DB_CLOSE_DELAY=-1");
+            final Connection connection = dataSource.getConnection();
+            try {
+                final Statement statement = connection.createStatement();
+                statement.execute("CREATE SEQUENCE " + SEQUENCE_NAME
+                        + " START WITH 1 INCREMENT BY " + INCREMENT);
+                statement.execute("CREATE TABLE " + TABLE_NAME
+                        + " (SEQUENCE_NAME VARCHAR(255) PRIMARY KEY,"
+                        + " NEXT_VALUE BIGINT NOT NULL)");
+                // The hi/lo dialect expects the row to exist
+                statement.execute("INSERT INTO " + TABLE_NAME + " VALUES ('"
+                        + SEQUENCE_NAME + "', 1)");
+                statement.close();
+            } finally {
+                connection.close();
+            }
+        }
+        return dataSource;
+    }
+
+    /**
+     * Returns a data source that counts the JDBC calls of the connections it
+     * returns.
+     */
+    static DataSource createCountingDataSource(final DataSource target,
+            final AtomicLong statements, final AtomicLong transactionCalls) {
+        return (DataSource) Proxy.newProxyInstance(
+                SequenceBenchmarks.class.getClassLoader(),
+                new Class<?>[] { DataSource.class }, new InvocationHandler() {
+                    @Override
+                    public Object invoke(Object proxy, Method method,
+                            Object[] args) throws Throwable {
+                        final Object result = invokeTarget(target, method,
+                                args);
+                        if (result instanceof Connection) {
+                            return createCountingProxy(result,
+                                    Connection.class, statements,
+                                    transactionCalls);
+                        }
+                        return result;
+                    }
+                });
+    }
+
+    private static Object createCountingProxy(final Object target,
+            final Class<?> type, final AtomicLong statements,
+            final AtomicLong transactionCalls) {
+        return Proxy.newProxyInstance(SequenceBenchmarks.class.getClassLoader(),
+                new Class<?>[] { type }, new InvocationHandler() {
+                    @Override
+                    public Object invoke(Object proxy, Method method,
+                            Object[] args) throws Throwable {
+                        final String name = method.getName();
+                        if (name.startsWith("execute")) {
+                            statements.incrementAndGet();
+                        } else if (name.equals("setAutoCommit")
+                                || name.equals("commit")
+                                || name.equals("rollback")) {
+                            transactionCalls.incrementAndGet();
+                        }
+                        final Object result = invokeTarget(target, method,
+                                args);
+                        if (method.getReturnType().isInterface()
+                                && Statement.class.isAssignableFrom(method
+                                        .getReturnType())) {
+                            return createCountingProxy(result,
+                                    method.getReturnType(), statements,
+                                    transactionCalls);
+                        }
+                        return result;
+                    }
+                });
+    }
+
+    private static Object invokeTarget(Object target, Method method,
+            Object[] args) throws Throwable {
+        try {
+            return method.invoke(target, args);
+        } catch (InvocationTargetException e) {
+            throw e.getCause();
+        }
+    }
+
+    /**
+     * Creates a benchmark of a {@link DataSourceSequence} with the specified
+     * dialect and number of blocks per reservation.
+     */
+    private static Benchmark createDataSourceBenchmark(String name,
+            final SequenceDialect dialect, final int blockCount) {
+        return new RoundTripBenchmark(name) {
+            @SuppressWarnings("serial")
+            @Override
+            Sequence createSequence(final DataSource dataSource) {
+                return new DataSourceSequence(SEQUENCE_NAME, dialect,
+                        new AdaptiveBlockSize(blockCount, blockCount, 1000L)) {
+                    @Override
+                    protected DataSource lookupDataSource() {
+                        return dataSource;
+                    }
+                };
+            }
+        };
+    }
+
+    /**
+     * Creates all the benchmarks.
+     */
+    static List<Benchmark> createBenchmarks() {
+        final List<Benchmark> benchmarks = new ArrayList<Benchmark>();
+        benchmarks.add(new SequenceBenchmark("InMemorySequence") {
+            @Override
+            Sequence createSequence() {
+                return new InMemorySequence();
+            }
+        });
+        benchmarks.add(new SequenceBenchmark("ConcurrentSequence") {
+            @Override
+            Sequence createSequence() {
+                return new ConcurrentSequence(new InMemorySequence());
+            }
+        });
+        benchmarks.add(new SequenceBenchmark("PrefetchingSequence") {
+            @Override
+            Sequence createSequence() {
+                return new PrefetchingSequence(new InMemorySequence(),
+                        INCREMENT / 2);
+            }
+        });
+        benchmarks.add(new SequenceBenchmark("StripedSequence") {
+            @Override
+            Sequence createSequence() {
+                return new StripedSequence(new InMemorySequence());
+            }
+        });
+        benchmarks.add(new SequenceBenchmark("TimeBasedSequence") {
+            @Override
+            Sequence createSequence() {
+                return new TimeBasedSequence(1L);
+            }
+        });
+        benchmarks.add(new SequenceBenchmark("MappedFileSequence") {
+
+            private File file;
+
+            @Override
+            Sequence createSequence() throws Exception {
+                file = File.createTempFile("benchmark", ".seq");
+                file.delete();
+                return new MappedFileSequence(file, 1L, INCREMENT);
+            }
+
+            @Override
+            protected void tearDown() {
+                file.deleteOnExit();
+            }
+        });
+        benchmarks.add(new RoundTripBenchmark("DataSourceSequence (H2)") {
+            @SuppressWarnings("serial")
+            @Override
+            Sequence createSequence(final DataSource dataSource) {
+                return new DataSourceSequence(SEQUENCE_NAME) {
+                    @Override
+                    protected DataSource lookupDataSource() {
+                        return dataSource;
+                    }
+                };
+            }
+        });
+        benchmarks.add(createDataSourceBenchmark(
+                "DataSourceSequence (H2 dialect)", new H2SequenceDialect(), 1));
+        benchmarks.add(createDataSourceBenchmark(
+                "DataSourceSequence (H2 dialect, x8)",
+                new H2SequenceDialect(), 8));
+        benchmarks.add(createDataSourceBenchmark(
+                "DataSourceSequence (hi/lo dialect)",
+                new TableHiLoSequenceDialect(TABLE_NAME, INCREMENT), 1));
+        benchmarks.add(createDataSourceBenchmark(
+                "DataSourceSequence (hi/lo, x8)",
+                new TableHiLoSequenceDialect(TABLE_NAME, INCREMENT), 8));
+        benchmarks.add(new RoundTripBenchmark("TableHiLoSequence (H2)") {
+            @SuppressWarnings("serial")
+            @Override
+            Sequence createSequence(final DataSource dataSource) {
+                return new TableHiLoSequence(TABLE_NAME, SEQUENCE_NAME,
+                        INCREMENT) {
+                    @Override
+                    protected DataSource lookupDataSource() {
+                        return dataSource;
+                    }
+                };
+            }
+        });
+        benchmarks.add(new Benchmark("IdGenerator (shared)") {
+            @Override
+            protected void setUp() {
+                IdGenerator.setScope(Scope.SHARED);
+                IdGenerator.setSequence(new ConcurrentSequence(
+                        new InMemorySequence()));
+            }
+
+            @Override
+            protected long operation() {
+                return IdGenerator.getNextValue();
+            }
+        });
+        benchmarks.add(new Benchmark("IdGenerator (shared striped)") {
+            @Override
+            protected void setUp() {
+                IdGenerator.setScope(Scope.SHARED_STRIPED);
+                IdGenerator.setSequence(new StripedSequence(
+                        new InMemorySequence()));
+            }
+
+            @Override
+            protected long operation() {
+                return IdGenerator.getNextValue();
+            }
+        });
+        benchmarks.add(new Benchmark("IdGenerator (thread)") {
+            @Override
+            protected void setUp() {
+                IdGenerator.setScope(Scope.THREAD);
+            }
+
+            @Override
+            protected void setUpThread() {
+                IdGenerator.setSequence(new InMemorySequence());
+            }
+
+            @Override
+            protected long operation() {
+                return IdGenerator.getNextValue();
+            }
+        });
+        return benchmarks;
+    }
+
+    public static void main(String[] args) throws Exception {
+        final List<Benchmark> benchmarks = createBenchmarks();
+        BenchmarkRunner.runFromSystemProperties(benchmarks);
+        System.out.println();
+        System.out.println(String.format("%-36s %14s %14s",
+                "Round-trips per block", "statements", "transaction"));
+        for (Benchmark benchmark : benchmarks) {
+            if (benchmark instanceof RoundTripBenchmark) {
+                ((RoundTripBenchmark) benchmark).printRoundTrips(System.out);
+            }
+        }
+    }
+}
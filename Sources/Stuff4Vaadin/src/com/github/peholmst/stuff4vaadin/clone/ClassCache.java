@@ -0,0 +1,166 @@
+/*
+ * Copyright (c) 2011 Petter Holmström
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.github.peholmst.stuff4vaadin.clone;
+
+import java.lang.ref.Reference;
+import java.lang.ref.ReferenceQueue;
+import java.lang.ref.SoftReference;
+import java.lang.ref.WeakReference;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * This is a cache of values that are computed once per class, e.g.
+ * {@link ClonePlan}s. The classes are weakly referenced so that they can still
+ * be unloaded. The values are softly referenced, as they typically refer back
+ * to the class (e.g. through a {@link java.lang.reflect.Field}) and would
+ * otherwise keep it from being unloaded.
+ * <p>
+ * This class is thread safe. Lookups do not lock, and values are computed
+ * outside of any lock. If several threads compute the value of the same class
+ * at the same time, the value that is published first is used by all of them.
+ * 
+ * @param <V>
+ *            the type of the cached values.
+ * @author Petter Holmström
+ * @since 1.0
+ */
+abstract class ClassCache<V> {
+
+    private final ConcurrentMap<Key, SoftReference<V>> cache = new ConcurrentHashMap<Key, SoftReference<V>>();
+
+    private final ReferenceQueue<Class<?>> staleKeys = new ReferenceQueue<Class<?>>();
+
+    /**
+     * Computes the value of the specified class. May be invoked more than once
+     * per class if the cached value has been garbage collected, or if several
+     * threads look up an uncached class at the same time.
+     */
+    protected abstract V create(Class<?> type);
+
+    /**
+     * Returns the value of the specified class (must not be <code>null</code>
+     * ), creating it if it is not cached already.
+     */
+    public V get(Class<?> type) {
+        assert type != null : "type must not be null";
+        expungeStaleKeys();
+        final SoftReference<V> reference = cache.get(new LookupKey(type));
+        final V cached = reference == null ? null : reference.get();
+        if (cached != null) {
+            return cached;
+        }
+        final V value = create(type);
+        final SoftReference<V> newReference = new SoftReference<V>(value);
+        final Key key = new WeakKey(type, staleKeys);
+        while (true) {
+            final SoftReference<V> existing = cache.putIfAbsent(key,
+                    newReference);
+            if (existing == null) {
+                return value;
+            }
+            final V existingValue = existing.get();
+            if (existingValue != null) {
+                return existingValue;
+            } else if (cache.replace(key, existing, newReference)) {
+                return value;
+            }
+        }
+    }
+
+    private void expungeStaleKeys() {
+        Reference<? extends Class<?>> stale;
+        while ((stale = staleKeys.poll()) != null) {
+            cache.remove(stale);
+        }
+    }
+
+    /**
+     * Keys compare the classes by identity, regardless of whether they
+     * reference them strongly or weakly.
+     */
+    private interface Key {
+
+        Class<?> getType();
+    }
+
+    private static boolean keyEquals(Key key, Object other) {
+        if (key == other) {
+            return true;
+        } else if (!(other instanceof Key)) {
+            return false;
+        }
+        final Class<?> type = key.getType();
+        return type != null && type == ((Key) other).getType();
+    }
+
+    /**
+     * The key that is stored in the cache.
+     */
+    private static final class WeakKey extends WeakReference<Class<?>>
+            implements Key {
+
+        private final int hash;
+
+        WeakKey(Class<?> type, ReferenceQueue<Class<?>> queue) {
+            super(type, queue);
+            hash = System.identityHashCode(type);
+        }
+
+        @Override
+        public Class<?> getType() {
+            return get();
+        }
+
+        @Override
+        public int hashCode() {
+            return hash;
+        }
+
+        @Override
+        public boolean equals(Object obj) {
+            return keyEquals(this, obj);
+        }
+    }
+
+    /**
+     * The key that is used for lookups. It is short lived, so it can
+     * reference the class strongly.
+     */
+    private static final class LookupKey implements Key {
+
+        private final Class<?> type;
+
+        LookupKey(Class<?> type) {
+            this.type = type;
+        }
+
+        @Override
+        public Class<?> getType() {
+            return type;
+        }
+
+        @Override
+        public int hashCode() {
+            return System.identityHashCode(type);
+        }
+
+        @Override
+        public boolean equals(Object obj) {
+            return keyEquals(this, obj);
+        }
+    }
+}
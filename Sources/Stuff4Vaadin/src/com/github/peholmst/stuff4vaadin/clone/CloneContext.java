@@ -0,0 +1,275 @@
+/*
+ * Copyright (c) 2011 Petter Holmström
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.github.peholmst.stuff4vaadin.clone;
+
+import java.util.IdentityHashMap;
+import java.util.Map;
+
+/**
+ * This class keeps track of the objects that have been cloned during a single
+ * deep clone operation, so that every object is cloned only once. If two
+ * annotated fields (or two items of a collection) refer to the same object,
+ * their clones refer to the same clone, and cyclic object graphs do not cause
+ * endless recursion.
+ * <p>
+ * A context is created by the outermost call to
+ * {@link CloneUtil#deepClone(Cloneable)} or
+ * {@link CloneUtil#deepCloneGraph(Cloneable, boolean)} and is reused by the
+ * nested calls made by the <code>clone()</code> methods of the cloned values
+ * in the same thread. The nested calls identify the original object of the
+ * shallow clone they are given, so that references back to an object that is
+ * being cloned are resolved to its clone.
+ * <p>
+ * In <em>recursive</em> mode, the {@link CloneThis}-annotated fields of every
+ * cloned value are cloned as well, even if the <code>clone()</code> method of
+ * the value does not call {@link CloneUtil#deepClone(Cloneable)} itself.
+ * <p>
+ * This class is not thread safe; a context is only used by the thread that
+ * created it. When collections are cloned in parallel (see
+ * {@link CloneUtil#setParallelCloning(java.util.concurrent.ExecutorService, int)}
+ * ), every worker thread gets a context of its own that shares the clones of
+ * the context of the calling thread.
+ * 
+ * @author Petter Holmström
+ * @since 1.0
+ */
+public final class CloneContext {
+
+    private static final ThreadLocal<CloneContext> current = new ThreadLocal<CloneContext>();
+
+    private final Map<Object, Object> clones;
+
+    private final boolean recursive;
+
+    /**
+     * Whether this is the context of a worker thread, which shares the clones
+     * with other threads and must synchronize on them.
+     */
+    private final boolean worker;
+
+    /**
+     * The object whose <code>clone()</code> method is being invoked by
+     * {@link #cloneObject(Object, CloneInvoker)}.
+     */
+    private Object pendingOriginal;
+
+    /**
+     * The shallow clone that has been claimed as the clone of
+     * {@link #pendingOriginal} by the latest call to
+     * {@link CloneUtil#deepClone(Cloneable)}, or <code>null</code> if there is
+     * none. The claim is only tentative until the <code>clone()</code> method
+     * returns, as the method may clone other objects of the same class
+     * directly before it calls <code>deepClone()</code> on its own shallow
+     * clone.
+     */
+    private Object pendingClone;
+
+    CloneContext(boolean recursive) {
+        this.clones = new IdentityHashMap<Object, Object>();
+        this.recursive = recursive;
+        this.worker = false;
+    }
+
+    private CloneContext(CloneContext parent) {
+        this.clones = parent.clones;
+        this.recursive = parent.recursive;
+        this.worker = true;
+    }
+
+    /**
+     * Creates a context for a worker thread that clones values in parallel
+     * with other worker threads on behalf of this context. The thread that
+     * uses this context must not use it while there are workers.
+     */
+    CloneContext createWorker() {
+        return new CloneContext(this);
+    }
+
+    /**
+     * Returns whether this is the context of a worker thread. Worker threads
+     * do not split their work any further.
+     */
+    boolean isWorker() {
+        return worker;
+    }
+
+    /**
+     * Returns the context of the deep clone operation that is in progress in
+     * the current thread, or <code>null</code> if there is none.
+     */
+    static CloneContext getCurrent() {
+        return current.get();
+    }
+
+    /**
+     * Makes the specified context the current context of the current thread,
+     * returning the previous one (may be <code>null</code>).
+     */
+    static CloneContext setCurrent(CloneContext context) {
+        final CloneContext previous = current.get();
+        if (context == null) {
+            current.remove();
+        } else {
+            current.set(context);
+        }
+        return previous;
+    }
+
+    /**
+     * Returns whether the annotated fields of all the cloned values are
+     * cloned, regardless of their <code>clone()</code> methods.
+     */
+    public boolean isRecursive() {
+        return recursive;
+    }
+
+    /**
+     * Returns the clone of the specified original object, or
+     * <code>null</code> if the object has not been cloned in this context.
+     */
+    public Object getClone(Object original) {
+        if (worker) {
+            synchronized (clones) {
+                return clones.get(original);
+            }
+        }
+        return clones.get(original);
+    }
+
+    /**
+     * Records that <code>clone</code> is the clone of <code>original</code>,
+     * unless a clone has already been recorded. Used for values that are not
+     * cloned by their <code>clone()</code> methods, such as arrays.
+     * 
+     * @return the recorded clone.
+     */
+    Object putClone(Object original, Object clone) {
+        if (worker) {
+            synchronized (clones) {
+                return putIfAbsent(original, clone);
+            }
+        }
+        return putIfAbsent(original, clone);
+    }
+
+    /**
+     * Replaces the clone recorded for <code>original</code> with
+     * <code>clone</code>, provided that <code>expected</code> is still the
+     * recorded clone.
+     * 
+     * @return the recorded clone.
+     */
+    private Object replaceClone(Object original, Object expected, Object clone) {
+        if (worker) {
+            synchronized (clones) {
+                return replace(original, expected, clone);
+            }
+        }
+        return replace(original, expected, clone);
+    }
+
+    private Object replace(Object original, Object expected, Object clone) {
+        final Object existing = clones.get(original);
+        if (existing != expected) {
+            // Another worker thread got there first
+            return existing;
+        }
+        clones.put(original, clone);
+        return clone;
+    }
+
+    private Object putIfAbsent(Object original, Object clone) {
+        final Object existing = clones.get(original);
+        if (existing != null) {
+            // Another worker thread got there first
+            return existing;
+        }
+        clones.put(original, clone);
+        return clone;
+    }
+
+    /**
+     * Called by {@link CloneUtil#deepClone(Cloneable)} before the fields of
+     * the specified shallow clone are cloned. If the shallow clone was created
+     * by the <code>clone()</code> method invoked by
+     * {@link #cloneObject(Object, CloneInvoker)}, it is recorded as the clone
+     * of the original object. A later claim by the same <code>clone()</code>
+     * method replaces an earlier one, and the claim is verified against the
+     * object that the method returns.
+     */
+    void claimShallowClone(Object shallowClone) {
+        if (pendingOriginal != null
+                && pendingOriginal.getClass() == shallowClone.getClass()) {
+            if (pendingClone == null) {
+                putClone(pendingOriginal, shallowClone);
+            } else {
+                replaceClone(pendingOriginal, pendingClone, shallowClone);
+            }
+            pendingClone = shallowClone;
+        }
+    }
+
+    /**
+     * Returns the clone of the specified object (must not be
+     * <code>null</code>), invoking its <code>clone()</code> method using the
+     * specified invoker if the object has not been cloned in this context
+     * before. Objects without a public <code>clone()</code> method are copied
+     * using {@link CopyStrategies#copy(Object, CloneContext)} instead.
+     */
+    Object cloneObject(Object original, CloneInvoker invoker)
+            throws CloneNotSupportedException {
+        Object clone = getClone(original);
+        if (clone != null) {
+            return clone;
+        } else if (!invoker.isSupported()) {
+            return CopyStrategies.copy(original, this);
+        }
+        final Object previousOriginal = pendingOriginal;
+        final Object previousClone = pendingClone;
+        pendingOriginal = original;
+        pendingClone = null;
+        try {
+            clone = invoker.invoke(original);
+            final Object claimed = pendingClone;
+            pendingOriginal = null;
+            if (claimed == null) {
+                // The clone() method did not call CloneUtil.deepClone()
+                final Object recorded = putClone(original, clone);
+                if (recorded != clone) {
+                    return recorded;
+                } else if (recursive && clone instanceof Cloneable) {
+                    ClonePlan.forClass(clone.getClass()).apply(clone, this);
+                }
+            } else if (claimed != clone) {
+                /*
+                 * The claim was made by the clone() method of another object
+                 * of the same class, called directly by this clone() method.
+                 */
+                final Object recorded = replaceClone(original, claimed, clone);
+                if (recorded != clone) {
+                    return recorded;
+                }
+            } else if (worker) {
+                // Another worker thread may have claimed the original first
+                clone = getClone(original);
+            }
+        } finally {
+            pendingOriginal = previousOriginal;
+            pendingClone = previousClone;
+        }
+        return clone;
+    }
+}
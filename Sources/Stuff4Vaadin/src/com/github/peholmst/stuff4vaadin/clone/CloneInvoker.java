@@ -0,0 +1,163 @@
+/*
+ * Copyright (c) 2011 Petter Holmström
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.github.peholmst.stuff4vaadin.clone;
+
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+
+/**
+ * This class invokes the public <code>clone()</code> method of objects of a
+ * specific runtime class. The method is looked up and made accessible only
+ * once per class. Classes without a public <code>clone()</code> method are
+ * cached as well, so that the lookup is not repeated for them either. The
+ * cache is a {@link ClassCache}, so looking up an invoker does not lock, not
+ * even when the items of a collection are of different classes and
+ * {@link #forObject(Object, CloneInvoker)} has to consult the cache for every
+ * item.
+ * <p>
+ * This class is thread safe.
+ * 
+ * @author Petter Holmström
+ * @since 1.0
+ */
+abstract class CloneInvoker {
+
+    private static final ClassCache<CloneInvoker> cache = new ClassCache<CloneInvoker>() {
+        @Override
+        protected CloneInvoker create(Class<?> type) {
+            try {
+                return new MethodInvoker(type, type.getMethod("clone"));
+            } catch (NoSuchMethodException e) {
+                return new UnsupportedInvoker(type, e);
+            } catch (SecurityException e) {
+                return new UnsupportedInvoker(type, e);
+            }
+        }
+    };
+
+    /**
+     * Invokes a cached <code>clone()</code> method.
+     */
+    private static final class MethodInvoker extends CloneInvoker {
+
+        private final Method method;
+
+        MethodInvoker(Class<?> type, Method method) {
+            super(type);
+            this.method = method;
+            try {
+                // Needed when a public class inherits the public method from a
+                // non-public class or vice versa
+                method.setAccessible(true);
+            } catch (RuntimeException e) {
+                // Leave the method as it is, invocation may still succeed
+            }
+        }
+
+        @Override
+        Object invoke(Object object) throws CloneNotSupportedException {
+            try {
+                return method.invoke(object);
+            } catch (InvocationTargetException e) {
+                throw unsupported(object, e.getCause());
+            } catch (IllegalAccessException e) {
+                throw unsupported(object, e);
+            }
+        }
+    }
+
+    /**
+     * Always fails, for classes without a public <code>clone()</code> method.
+     */
+    private static final class UnsupportedInvoker extends CloneInvoker {
+
+        private final Exception reason;
+
+        UnsupportedInvoker(Class<?> type, Exception reason) {
+            super(type);
+            this.reason = reason;
+        }
+
+        @Override
+        boolean isSupported() {
+            return false;
+        }
+
+        @Override
+        Object invoke(Object object) throws CloneNotSupportedException {
+            throw unsupported(object, reason);
+        }
+    }
+
+    private final Class<?> type;
+
+    private CloneInvoker(Class<?> type) {
+        this.type = type;
+    }
+
+    /**
+     * Returns the invoker for the specified class (must not be
+     * <code>null</code>).
+     */
+    static CloneInvoker forClass(Class<?> type) {
+        return cache.get(type);
+    }
+
+    /**
+     * Returns the invoker for the runtime class of the specified object (must
+     * not be <code>null</code>). If <code>previous</code> is the invoker of
+     * the same class, it is returned without consulting the cache. This makes
+     * cloning the items of a collection cheap, as they are typically of the
+     * same class.
+     */
+    static CloneInvoker forObject(Object object, CloneInvoker previous) {
+        final Class<?> objectType = object.getClass();
+        if (previous != null && previous.type == objectType) {
+            return previous;
+        }
+        return forClass(objectType);
+    }
+
+    /**
+     * Returns the class of the objects this invoker can clone.
+     */
+    final Class<?> getType() {
+        return type;
+    }
+
+    /**
+     * Returns whether the class of this invoker has a public
+     * <code>clone()</code> method.
+     */
+    boolean isSupported() {
+        return true;
+    }
+
+    /**
+     * Invokes the <code>clone()</code> method of the specified object (must
+     * not be <code>null</code> and must be an instance of the class of this
+     * invoker).
+     */
+    abstract Object invoke(Object object) throws CloneNotSupportedException;
+
+    static CloneNotSupportedException unsupported(Object object,
+            Throwable cause) {
+        final CloneNotSupportedException exception = new CloneNotSupportedException(
+                "Could not invoke clone method on object " + object);
+        exception.initCause(cause);
+        return exception;
+    }
+}
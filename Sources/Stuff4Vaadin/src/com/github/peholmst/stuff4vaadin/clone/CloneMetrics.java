@@ -0,0 +1,65 @@
+/*
+ * Copyright (c) 2011 Petter Holmström
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.github.peholmst.stuff4vaadin.clone;
+
+import java.lang.reflect.Field;
+
+/**
+ * Listener interface for metrics reported by {@link CloneUtil}. A listener is
+ * installed using {@link CloneUtil#setMetrics(CloneMetrics)}; when no
+ * listener is installed, nothing is measured.
+ * <p>
+ * The methods may be invoked by several threads at the same time, so
+ * implementations must be thread safe and fast.
+ * 
+ * @see CloneStatistics
+ * @author Petter Holmström
+ * @since 1.0
+ */
+public interface CloneMetrics {
+
+    /**
+     * Invoked when an outermost call to {@link CloneUtil#deepClone(Cloneable)}
+     * or {@link CloneUtil#deepCloneGraph(Cloneable, boolean)} has completed.
+     * Nested calls made by the <code>clone()</code> methods of the cloned
+     * values are included in the measurements of the outermost call.
+     * 
+     * @param type
+     *            the class of the cloned object.
+     * @param durationNanos
+     *            the time the deep clone took in nanoseconds.
+     * @param allocatedBytes
+     *            the number of bytes the calling thread allocated during the
+     *            deep clone, or -1 if the JVM cannot measure it. Allocations
+     *            made by parallel cloning threads are not included.
+     */
+    void rootCloned(Class<?> type, long durationNanos, long allocatedBytes);
+
+    /**
+     * Invoked when the value of a {@link CloneThis}-annotated field has been
+     * cloned. Fields with <code>null</code> values are not reported.
+     * 
+     * @param field
+     *            the annotated field.
+     * @param elementCount
+     *            the number of items of the cloned collection, map or array,
+     *            or -1 if the value was of any other type.
+     * @param durationNanos
+     *            the time the cloning of the value took in nanoseconds,
+     *            including the fields of the value itself.
+     */
+    void fieldCloned(Field field, int elementCount, long durationNanos);
+}
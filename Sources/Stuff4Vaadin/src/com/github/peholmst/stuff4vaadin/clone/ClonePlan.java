@@ -0,0 +1,468 @@
+/*
+ * Copyright (c) 2011 Petter Holmström
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.github.peholmst.stuff4vaadin.clone;
+
+import java.lang.reflect.Array;
+import java.lang.reflect.Constructor;
+import java.lang.reflect.Field;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Modifier;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * This class contains the precomputed steps needed to deep clone instances of
+ * a specific class using {@link CloneUtil#deepClone(Cloneable)}. The class
+ * hierarchy is only walked and the {@link CloneThis} annotations are only
+ * looked up once per class; the fields are made accessible once, when the plan
+ * is created.
+ * <p>
+ * The plan consists of one level per class in the hierarchy that declares
+ * annotated fields. If a generated {@link Cloner} exists for the class of a
+ * level, it is used instead of the reflective steps, unless generated cloners
+ * have been disabled using {@link CloneUtil#setGeneratedClonersEnabled(boolean)}
+ * or a {@link CloneMetrics} listener has been set.
+ * <p>
+ * The plan also knows all the instance fields of the class, which are used to
+ * copy instances of application classes that do not have a public
+ * <code>clone()</code> method structurally; see {@link #copyFields(Object)}
+ * and {@link CopyStrategies#copy(Object, CloneContext)}.
+ * <p>
+ * The plans are cached in a {@link ClassCache}.
+ * <p>
+ * This class is thread safe.
+ * 
+ * @author Petter Holmström
+ * @since 1.0
+ */
+final class ClonePlan {
+
+    private static final ClassCache<ClonePlan> cache = new ClassCache<ClonePlan>() {
+        @Override
+        protected ClonePlan create(Class<?> type) {
+            return new ClonePlan(type);
+        }
+    };
+
+    /**
+     * Base class for the steps that clone a single annotated field.
+     */
+    static abstract class FieldStep {
+
+        final Field field;
+
+        final boolean deepClone;
+
+        FieldStep(Field field, boolean deepClone) {
+            this.field = field;
+            this.deepClone = deepClone;
+            // The field is a copy that is private to this step
+            field.setAccessible(true);
+        }
+
+        abstract Object cloneValue(Object value, CloneContext context)
+                throws CloneNotSupportedException;
+
+        final void apply(Object owner, CloneContext context)
+                throws IllegalAccessException, CloneNotSupportedException {
+            final Object value = field.get(owner);
+            if (value != null) {
+                field.set(owner, cloneValue(value, context));
+            }
+        }
+
+        /**
+         * Like {@link #apply(Object, CloneContext)}, but reports the time and
+         * the number of items to the specified listener.
+         */
+        final void apply(Object owner, CloneContext context,
+                CloneMetrics metrics) throws IllegalAccessException,
+                CloneNotSupportedException {
+            final Object value = field.get(owner);
+            if (value != null) {
+                final long start = System.nanoTime();
+                field.set(owner, cloneValue(value, context));
+                metrics.fieldCloned(field, elementCount(value),
+                        System.nanoTime() - start);
+            }
+        }
+
+        private static int elementCount(Object value) {
+            if (value instanceof Collection) {
+                return ((Collection<?>) value).size();
+            } else if (value instanceof Map) {
+                return ((Map<?, ?>) value).size();
+            } else if (value.getClass().isArray()) {
+                return Array.getLength(value);
+            }
+            return -1;
+        }
+    }
+
+    /**
+     * Clones an array field.
+     */
+    static final class ArrayStep extends FieldStep {
+
+        ArrayStep(Field field, boolean deepClone) {
+            super(field, deepClone);
+        }
+
+        @Override
+        Object cloneValue(Object value, CloneContext context)
+                throws CloneNotSupportedException {
+            return ClonerSupport.cloneArray(value, deepClone, context);
+        }
+    }
+
+    /**
+     * Clones a field whose declared type is a {@link Collection}.
+     */
+    static final class CollectionStep extends FieldStep {
+
+        CollectionStep(Field field, boolean deepClone) {
+            super(field, deepClone);
+        }
+
+        @Override
+        Object cloneValue(Object value, CloneContext context)
+                throws CloneNotSupportedException {
+            return ClonerSupport.cloneCollection((Collection<?>) value,
+                    deepClone, context);
+        }
+    }
+
+    /**
+     * Clones a field whose declared type is a {@link Map}.
+     */
+    static final class MapStep extends FieldStep {
+
+        MapStep(Field field, boolean deepClone) {
+            super(field, deepClone);
+        }
+
+        @Override
+        Object cloneValue(Object value, CloneContext context)
+                throws CloneNotSupportedException {
+            return ClonerSupport.cloneMap((Map<?, ?>) value, deepClone,
+                    context);
+        }
+    }
+
+    /**
+     * Clones a {@link CloneThis#lazy() lazy} collection or map field.
+     */
+    static final class LazyStep extends FieldStep {
+
+        LazyStep(Field field, boolean deepClone) {
+            super(field, deepClone);
+        }
+
+        @Override
+        Object cloneValue(Object value, CloneContext context)
+                throws CloneNotSupportedException {
+            return ClonerSupport.cloneLazily(value, deepClone, context);
+        }
+    }
+
+    /**
+     * Clones a field of any other type.
+     */
+    static final class ObjectStep extends FieldStep {
+
+        ObjectStep(Field field, boolean deepClone) {
+            super(field, deepClone);
+        }
+
+        @Override
+        Object cloneValue(Object value, CloneContext context)
+                throws CloneNotSupportedException {
+            return ClonerSupport.cloneValue(value, deepClone, context);
+        }
+    }
+
+    /**
+     * The steps for the fields declared by a single class.
+     */
+    static final class Level {
+
+        final Class<?> declaringClass;
+
+        final FieldStep[] steps;
+
+        final Cloner<Object> cloner;
+
+        Level(Class<?> declaringClass, FieldStep[] steps, Cloner<Object> cloner) {
+            this.declaringClass = declaringClass;
+            this.steps = steps;
+            this.cloner = cloner;
+        }
+
+        void apply(Object shallowClone, CloneContext context,
+                boolean useCloner, CloneMetrics metrics)
+                throws CloneNotSupportedException {
+            if (useCloner && cloner != null && metrics == null) {
+                cloner.cloneDeclaredFields(shallowClone, context);
+                return;
+            }
+            for (FieldStep step : steps) {
+                try {
+                    if (metrics == null) {
+                        step.apply(shallowClone, context);
+                    } else {
+                        step.apply(shallowClone, context, metrics);
+                    }
+                } catch (IllegalAccessException e) {
+                    final CloneNotSupportedException exception = new CloneNotSupportedException(
+                            "Could not access field " + step.field
+                                    + " on object " + shallowClone);
+                    exception.initCause(e);
+                    throw exception;
+                }
+            }
+        }
+    }
+
+    private final Class<?> type;
+
+    private final Level[] levels;
+
+    private final int fieldCount;
+
+    private final Field[] instanceFields;
+
+    /**
+     * The no-argument constructor used by {@link #copyFields(Object)}, looked
+     * up and made accessible together with the instance fields on first use.
+     */
+    private volatile Constructor<?> constructor;
+
+    private ClonePlan(Class<?> type) {
+        this.type = type;
+        final List<Level> levelList = new ArrayList<Level>();
+        final List<Field> instanceFieldList = new ArrayList<Field>();
+        int count = 0;
+        Class<?> currentClass = type;
+        while (currentClass != Object.class) {
+            final List<FieldStep> steps = new ArrayList<FieldStep>();
+            for (Field field : currentClass.getDeclaredFields()) {
+                final CloneThis cloneAnnotation = field
+                        .getAnnotation(CloneThis.class);
+                if (cloneAnnotation != null) {
+                    steps.add(createStep(field, cloneAnnotation));
+                }
+                if (!Modifier.isStatic(field.getModifiers())) {
+                    instanceFieldList.add(field);
+                }
+            }
+            if (!steps.isEmpty()) {
+                levelList.add(new Level(currentClass, steps
+                        .toArray(new FieldStep[steps.size()]),
+                        findCloner(currentClass)));
+                count += steps.size();
+            }
+            currentClass = currentClass.getSuperclass();
+        }
+        this.levels = levelList.toArray(new Level[levelList.size()]);
+        this.fieldCount = count;
+        this.instanceFields = instanceFieldList
+                .toArray(new Field[instanceFieldList.size()]);
+    }
+
+    private static FieldStep createStep(Field field, CloneThis cloneAnnotation) {
+        final Class<?> fieldType = field.getType();
+        final boolean deepClone = cloneAnnotation.deepClone();
+        if (cloneAnnotation.lazy() && !deepClone
+                && isLazyFieldType(fieldType.getName())) {
+            return new LazyStep(field, deepClone);
+        } else if (fieldType.isArray()) {
+            return new ArrayStep(field, deepClone);
+        } else if (Collection.class.isAssignableFrom(fieldType)) {
+            return new CollectionStep(field, deepClone);
+        } else if (Map.class.isAssignableFrom(fieldType)) {
+            return new MapStep(field, deepClone);
+        } else {
+            return new ObjectStep(field, deepClone);
+        }
+    }
+
+    /**
+     * Returns whether a field of the specified declared type can hold a
+     * {@link CopyOnWriteCollections} wrapper.
+     */
+    static boolean isLazyFieldType(String typeName) {
+        return typeName.equals("java.util.Collection")
+                || typeName.equals("java.util.List")
+                || typeName.equals("java.util.Set")
+                || typeName.equals("java.util.Map");
+    }
+
+    @SuppressWarnings("unchecked")
+    private static Cloner<Object> findCloner(Class<?> declaringClass) {
+        try {
+            final Class<?> clonerClass = Class.forName(declaringClass.getName()
+                    + Cloner.CLASS_NAME_SUFFIX, true,
+                    declaringClass.getClassLoader());
+            if (Cloner.class.isAssignableFrom(clonerClass)) {
+                return (Cloner<Object>) clonerClass.getDeclaredConstructor()
+                        .newInstance();
+            }
+        } catch (ClassNotFoundException e) {
+            // No generated cloner, use reflection
+        } catch (InstantiationException e) {
+            // Not a usable cloner, use reflection
+        } catch (IllegalAccessException e) {
+            // Not a usable cloner, use reflection
+        } catch (NoSuchMethodException e) {
+            // Not a usable cloner, use reflection
+        } catch (InvocationTargetException e) {
+            // Not a usable cloner, use reflection
+        }
+        return null;
+    }
+
+    /**
+     * Returns the plan for the specified class (must not be <code>null</code>
+     * ), creating it if it is not cached already.
+     */
+    static ClonePlan forClass(Class<?> type) {
+        return cache.get(type);
+    }
+
+    /**
+     * Returns the class that this plan applies to.
+     */
+    Class<?> getType() {
+        return type;
+    }
+
+    /**
+     * Returns the number of annotated fields in the class and its
+     * superclasses.
+     */
+    int getFieldCount() {
+        return fieldCount;
+    }
+
+    /**
+     * Returns whether a generated {@link Cloner} was found for the specified
+     * class in the hierarchy.
+     */
+    boolean hasCloner(Class<?> declaringClass) {
+        for (Level level : levels) {
+            if (level.declaringClass == declaringClass) {
+                return level.cloner != null;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Clones the annotated fields of the specified shallow clone (must be an
+     * instance of the class of this plan) within the specified context (must
+     * not be <code>null</code>). The fields are measured if a
+     * {@link CloneMetrics} listener has been set.
+     */
+    void apply(Object shallowClone, CloneContext context)
+            throws CloneNotSupportedException {
+        final boolean useCloners = CloneUtil.isGeneratedClonersEnabled();
+        final CloneMetrics metrics = CloneUtil.getMetrics();
+        for (Level level : levels) {
+            level.apply(shallowClone, context, useCloners, metrics);
+        }
+    }
+
+    /**
+     * Creates a new instance of the class of this plan using its no-argument
+     * constructor and copies the values of all the instance fields of the
+     * specified original (must be an instance of the class of this plan) into
+     * it. The result is the structural equivalent of a shallow clone; the
+     * annotated fields can then be cloned using
+     * {@link #apply(Object, CloneContext)}.
+     * 
+     * @throws CloneNotSupportedException
+     *             if the class has no no-argument constructor or its fields
+     *             cannot be accessed.
+     */
+    Object copyFields(Object original) throws CloneNotSupportedException {
+        try {
+            final Object copy = getConstructor().newInstance();
+            for (Field field : instanceFields) {
+                copyField(field, original, copy);
+            }
+            return copy;
+        } catch (NoSuchMethodException e) {
+            throw uncopyable(original, e);
+        } catch (InstantiationException e) {
+            throw uncopyable(original, e);
+        } catch (IllegalAccessException e) {
+            throw uncopyable(original, e);
+        } catch (InvocationTargetException e) {
+            throw uncopyable(original, e.getCause());
+        } catch (RuntimeException e) {
+            // Thrown by setAccessible() when the class is not open to us
+            throw uncopyable(original, e);
+        }
+    }
+
+    private Constructor<?> getConstructor() throws NoSuchMethodException {
+        Constructor<?> result = constructor;
+        if (result == null) {
+            result = type.getDeclaredConstructor();
+            result.setAccessible(true);
+            for (Field field : instanceFields) {
+                field.setAccessible(true);
+            }
+            constructor = result;
+        }
+        return result;
+    }
+
+    private static void copyField(Field field, Object from, Object to)
+            throws IllegalAccessException {
+        final Class<?> fieldType = field.getType();
+        if (!fieldType.isPrimitive()) {
+            field.set(to, field.get(from));
+        } else if (fieldType == int.class) {
+            field.setInt(to, field.getInt(from));
+        } else if (fieldType == long.class) {
+            field.setLong(to, field.getLong(from));
+        } else if (fieldType == boolean.class) {
+            field.setBoolean(to, field.getBoolean(from));
+        } else if (fieldType == double.class) {
+            field.setDouble(to, field.getDouble(from));
+        } else if (fieldType == float.class) {
+            field.setFloat(to, field.getFloat(from));
+        } else if (fieldType == char.class) {
+            field.setChar(to, field.getChar(from));
+        } else if (fieldType == short.class) {
+            field.setShort(to, field.getShort(from));
+        } else {
+            field.setByte(to, field.getByte(from));
+        }
+    }
+
+    private static CloneNotSupportedException uncopyable(Object original,
+            Throwable cause) {
+        final CloneNotSupportedException exception = new CloneNotSupportedException(
+                "Could not copy object " + original
+                        + ", it has neither a public clone method nor a no-argument constructor");
+        exception.initCause(cause);
+        return exception;
+    }
+}
@@ -0,0 +1,314 @@
+/*
+ * Copyright (c) 2011 Petter Holmström
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.github.peholmst.stuff4vaadin.clone;
+
+import java.lang.management.ManagementFactory;
+import java.lang.reflect.Field;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+import javax.management.JMException;
+import javax.management.ObjectName;
+
+/**
+ * This is a {@link CloneMetrics}-implementation that collects statistics per
+ * cloned class and per {@link CloneThis}-annotated field in memory and exposes
+ * them through JMX and as snapshots. The statistics show which classes and
+ * fields make deep cloning expensive.
+ * <p>
+ * Example:
+ * 
+ * <pre>
+ * CloneStatistics statistics = new CloneStatistics();
+ * statistics.register(&quot;clones&quot;);
+ * CloneUtil.setMetrics(statistics);
+ * </pre>
+ * <p>
+ * This class is thread safe.
+ * 
+ * @author Petter Holmström
+ * @since 1.0
+ */
+public class CloneStatistics implements CloneMetrics, CloneStatisticsMBean {
+
+    /**
+     * The JMX domain under which the statistics are registered.
+     */
+    public static final String JMX_DOMAIN = "com.github.peholmst.stuff4vaadin.clone";
+
+    /**
+     * An immutable snapshot of the statistics of a single class or field.
+     */
+    public static final class Entry {
+
+        private final String name;
+
+        private final long count;
+
+        private final long totalNanos;
+
+        private final long elementCount;
+
+        private final long allocatedBytes;
+
+        Entry(String name, long count, long totalNanos, long elementCount,
+                long allocatedBytes) {
+            this.name = name;
+            this.count = count;
+            this.totalNanos = totalNanos;
+            this.elementCount = elementCount;
+            this.allocatedBytes = allocatedBytes;
+        }
+
+        /**
+         * Returns the name of the class, or the name of the declaring class
+         * and the field separated by a dot.
+         */
+        public String getName() {
+            return name;
+        }
+
+        /**
+         * Returns the number of times the class or field has been cloned.
+         */
+        public long getCount() {
+            return count;
+        }
+
+        /**
+         * Returns the total time spent cloning the class or field.
+         */
+        public long getTotalNanos() {
+            return totalNanos;
+        }
+
+        /**
+         * Returns the mean time spent cloning the class or field once.
+         */
+        public double getMeanNanos() {
+            return count == 0 ? 0.0 : (double) totalNanos / count;
+        }
+
+        /**
+         * Returns the total number of collection, map or array items cloned
+         * for a field, or 0 for classes.
+         */
+        public long getElementCount() {
+            return elementCount;
+        }
+
+        /**
+         * Returns the total number of bytes allocated cloning a class, or 0
+         * for fields and if the JVM cannot measure it.
+         */
+        public long getAllocatedBytes() {
+            return allocatedBytes;
+        }
+
+        @Override
+        public String toString() {
+            return name + ": count=" + count + ", totalNanos=" + totalNanos
+                    + ", elements=" + elementCount + ", allocatedBytes="
+                    + allocatedBytes;
+        }
+    }
+
+    private static final class Counter {
+
+        final AtomicLong count = new AtomicLong();
+
+        final AtomicLong nanos = new AtomicLong();
+
+        final AtomicLong elements = new AtomicLong();
+
+        final AtomicLong allocatedBytes = new AtomicLong();
+
+        Entry toEntry(String name) {
+            return new Entry(name, count.get(), nanos.get(), elements.get(),
+                    allocatedBytes.get());
+        }
+    }
+
+    private static final Comparator<Entry> byTotalNanos = new Comparator<Entry>() {
+        @Override
+        public int compare(Entry o1, Entry o2) {
+            return o1.totalNanos < o2.totalNanos ? 1
+                    : o1.totalNanos > o2.totalNanos ? -1 : 0;
+        }
+    };
+
+    private final ConcurrentMap<Class<?>, Counter> classes = new ConcurrentHashMap<Class<?>, Counter>();
+
+    private final ConcurrentMap<Field, Counter> fields = new ConcurrentHashMap<Field, Counter>();
+
+    private final AtomicLong rootCloneCount = new AtomicLong();
+
+    private final AtomicLong rootCloneNanos = new AtomicLong();
+
+    private final AtomicLong allocatedBytes = new AtomicLong();
+
+    private static <K> Counter getCounter(ConcurrentMap<K, Counter> counters,
+            K key) {
+        Counter counter = counters.get(key);
+        if (counter == null) {
+            final Counter newCounter = new Counter();
+            counter = counters.putIfAbsent(key, newCounter);
+            if (counter == null) {
+                counter = newCounter;
+            }
+        }
+        return counter;
+    }
+
+    @Override
+    public void rootCloned(Class<?> type, long durationNanos,
+            long allocatedBytes) {
+        final long nanos = Math.max(0L, durationNanos);
+        final long bytes = Math.max(0L, allocatedBytes);
+        rootCloneCount.incrementAndGet();
+        rootCloneNanos.addAndGet(nanos);
+        this.allocatedBytes.addAndGet(bytes);
+        final Counter counter = getCounter(classes, type);
+        counter.count.incrementAndGet();
+        counter.nanos.addAndGet(nanos);
+        counter.allocatedBytes.addAndGet(bytes);
+    }
+
+    @Override
+    public void fieldCloned(Field field, int elementCount, long durationNanos) {
+        final Counter counter = getCounter(fields, field);
+        counter.count.incrementAndGet();
+        counter.nanos.addAndGet(Math.max(0L, durationNanos));
+        if (elementCount > 0) {
+            counter.elements.addAndGet(elementCount);
+        }
+    }
+
+    /**
+     * Returns a snapshot of the statistics per cloned class, ordered by
+     * descending total time.
+     */
+    public List<Entry> getClassSnapshot() {
+        final List<Entry> entries = new ArrayList<Entry>(classes.size());
+        for (Map.Entry<Class<?>, Counter> entry : classes.entrySet()) {
+            entries.add(entry.getValue().toEntry(entry.getKey().getName()));
+        }
+        Collections.sort(entries, byTotalNanos);
+        return entries;
+    }
+
+    /**
+     * Returns a snapshot of the statistics per {@link CloneThis}-annotated
+     * field, ordered by descending total time.
+     */
+    public List<Entry> getFieldSnapshot() {
+        final List<Entry> entries = new ArrayList<Entry>(fields.size());
+        for (Map.Entry<Field, Counter> entry : fields.entrySet()) {
+            final Field field = entry.getKey();
+            entries.add(entry.getValue().toEntry(
+                    field.getDeclaringClass().getName() + "." + field.getName()));
+        }
+        Collections.sort(entries, byTotalNanos);
+        return entries;
+    }
+
+    @Override
+    public long getRootCloneCount() {
+        return rootCloneCount.get();
+    }
+
+    @Override
+    public long getRootCloneNanos() {
+        return rootCloneNanos.get();
+    }
+
+    @Override
+    public long getAllocatedBytes() {
+        return allocatedBytes.get();
+    }
+
+    @Override
+    public String[] getClassSummary() {
+        return toStrings(getClassSnapshot());
+    }
+
+    @Override
+    public String[] getFieldSummary() {
+        return toStrings(getFieldSnapshot());
+    }
+
+    private static String[] toStrings(List<Entry> entries) {
+        final String[] result = new String[entries.size()];
+        for (int i = 0; i < result.length; ++i) {
+            result[i] = entries.get(i).toString();
+        }
+        return result;
+    }
+
+    @Override
+    public void reset() {
+        rootCloneCount.set(0);
+        rootCloneNanos.set(0);
+        allocatedBytes.set(0);
+        classes.clear();
+        fields.clear();
+    }
+
+    /**
+     * Registers the statistics with the platform MBean server under the name
+     * <code>com.github.peholmst.stuff4vaadin.clone:type=CloneStatistics,name=<i>name</i></code>
+     * .
+     * 
+     * @param name
+     *            the name of the statistics (must not be <code>null</code>).
+     * @return the object name under which the statistics were registered.
+     * @throws JMException
+     *             if the statistics could not be registered.
+     */
+    public ObjectName register(String name) throws JMException {
+        assert name != null : "name must not be null";
+        final ObjectName objectName = getObjectName(name);
+        ManagementFactory.getPlatformMBeanServer().registerMBean(this,
+                objectName);
+        return objectName;
+    }
+
+    /**
+     * Unregisters the statistics registered using {@link #register(String)}.
+     * 
+     * @param name
+     *            the name of the statistics (must not be <code>null</code>).
+     * @throws JMException
+     *             if the statistics could not be unregistered.
+     */
+    public void unregister(String name) throws JMException {
+        assert name != null : "name must not be null";
+        ManagementFactory.getPlatformMBeanServer().unregisterMBean(
+                getObjectName(name));
+    }
+
+    private static ObjectName getObjectName(String name) throws JMException {
+        return new ObjectName(JMX_DOMAIN + ":type="
+                + CloneStatistics.class.getSimpleName() + ",name="
+                + ObjectName.quote(name));
+    }
+}
@@ -0,0 +1,57 @@
+/*
+ * Copyright (c) 2011 Petter Holmström
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.github.peholmst.stuff4vaadin.clone;
+
+/**
+ * JMX management interface of {@link CloneStatistics}. All durations are in
+ * nanoseconds.
+ * 
+ * @author Petter Holmström
+ * @since 1.0
+ */
+public interface CloneStatisticsMBean {
+
+    /**
+     * Returns the number of completed outermost deep clone operations.
+     */
+    long getRootCloneCount();
+
+    /**
+     * Returns the total time spent in the outermost deep clone operations.
+     */
+    long getRootCloneNanos();
+
+    /**
+     * Returns the total number of bytes allocated by the outermost deep clone
+     * operations, or 0 if the JVM cannot measure it.
+     */
+    long getAllocatedBytes();
+
+    /**
+     * Returns one line per cloned class, ordered by descending total time.
+     */
+    String[] getClassSummary();
+
+    /**
+     * Returns one line per cloned field, ordered by descending total time.
+     */
+    String[] getFieldSummary();
+
+    /**
+     * Clears all statistics.
+     */
+    void reset();
+}
@@ -46,4 +46,17 @@ public @interface CloneThis {
      *         shallowly cloned.
      */
     boolean deepClone() default false;
+
+    /**
+     * This attribute applies to fields declared as {@link Collection},
+     * {@link java.util.List}, {@link java.util.Set} or {@link Map} that are
+     * not deeply cloned, and is ignored otherwise. This attribute specifies
+     * whether the clone of the field should be a copy-on-write wrapper (see
+     * {@link CopyOnWriteCollections}), so that cloning it again is cheap until
+     * either copy is modified.
+     * 
+     * @return true if the field should be cloned lazily, false if it should
+     *         always be copied.
+     */
+    boolean lazy() default false;
 }
@@ -15,11 +15,11 @@
  */
 package com.github.peholmst.stuff4vaadin.clone;
 
-import java.lang.reflect.Field;
-import java.lang.reflect.Method;
-import java.util.Arrays;
 import java.util.Collection;
 import java.util.Map;
+import java.util.concurrent.ExecutorService;
+
+import com.github.peholmst.stuff4vaadin.common.ThreadAllocation;
 
 /**
  * This is a utility class for object cloning.
@@ -29,9 +29,136 @@ import java.util.Map;
  */
 public final class CloneUtil {
 
+    private static volatile boolean generatedClonersEnabled = true;
+
+    private static volatile CloneMetrics metrics;
+
     private CloneUtil() {
     }
 
+    /**
+     * Sets whether generated {@link Cloner}s should be used when they exist.
+     * They are enabled by default. When disabled, all the fields are
+     * cloned using reflection, which is mainly useful for benchmarking and
+     * troubleshooting.
+     */
+    public static void setGeneratedClonersEnabled(boolean enabled) {
+        generatedClonersEnabled = enabled;
+    }
+
+    /**
+     * Returns whether generated {@link Cloner}s are used when they exist.
+     */
+    public static boolean isGeneratedClonersEnabled() {
+        return generatedClonersEnabled;
+    }
+
+    /**
+     * Sets the listener that deep clone operations report their metrics to, or
+     * <code>null</code> to turn the metrics off (the default). While a
+     * listener is set, the annotated fields are cloned using reflection even
+     * if generated {@link Cloner}s exist, so that every field can be measured
+     * on its own.
+     * 
+     * @see CloneStatistics
+     */
+    public static void setMetrics(CloneMetrics metrics) {
+        CloneUtil.metrics = metrics;
+    }
+
+    /**
+     * Returns the listener that deep clone operations report their metrics to,
+     * or <code>null</code> if the metrics are turned off.
+     */
+    public static CloneMetrics getMetrics() {
+        return metrics;
+    }
+
+    /**
+     * Enables parallel deep cloning of collections, maps and arrays with at
+     * least <code>threshold</code> items, using the specified executor. The
+     * items are split into chunks that are cloned by the threads of the
+     * executor and by the calling thread; the result is the same as that of
+     * cloning sequentially. Parallel cloning is disabled by default and is
+     * only worth enabling if the <code>clone()</code> methods of the items are
+     * expensive or the collections are very large.
+     * 
+     * @param executor
+     *            the executor to use, or <code>null</code> to disable parallel
+     *            cloning.
+     * @param threshold
+     *            the smallest number of items to clone in parallel (should be
+     *            in the thousands at least).
+     */
+    public static void setParallelCloning(ExecutorService executor,
+            int threshold) {
+        assert threshold > 0 : "threshold must be greater than zero";
+        ParallelCloning.configure(executor, threshold);
+    }
+
+    /**
+     * Registers a {@link CollectionCopier} for the specified collection or map
+     * class (must not be <code>null</code>), replacing any existing copier.
+     * The copier is used for deep copies of instances of exactly that class.
+     * Copiers for {@link java.util.ArrayList}, {@link java.util.LinkedList},
+     * {@link java.util.ArrayDeque}, {@link java.util.HashSet},
+     * {@link java.util.HashMap}, {@link java.util.LinkedHashMap} and
+     * {@link java.util.TreeMap} are registered by default.
+     * 
+     * @param type
+     *            the class of the collections or maps.
+     * @param copier
+     *            the copier, or <code>null</code> to remove the existing
+     *            copier.
+     */
+    public static <T> void registerCollectionCopier(Class<T> type,
+            CollectionCopier<? super T> copier) {
+        assert type != null : "type must not be null";
+        assert Collection.class.isAssignableFrom(type)
+                || Map.class.isAssignableFrom(type) : "type must be a Collection or a Map";
+        CollectionCopiers.register(type, copier);
+    }
+
+    /**
+     * Registers a {@link CopyStrategy} for the specified class (must not be
+     * <code>null</code>), replacing any existing strategy. The strategy is
+     * used for instances of exactly that class when they have to be cloned but
+     * do not have a public <code>clone()</code> method, whether they are
+     * annotated values, items of collections or collections and maps that are
+     * cloned deeply (in which case the copy is then filled with the cloned
+     * items).
+     * <p>
+     * Instances of classes without a strategy are shared if they are known to
+     * be immutable; this applies to strings, boxed primitives,
+     * {@link java.math.BigInteger}, {@link java.math.BigDecimal}, enums, the
+     * classes of the <code>java.time</code> package and a few other immutable
+     * JDK classes. Instances of other classes of the Java platform (e.g.
+     * <code>ConcurrentHashMap</code> or the lists returned by
+     * <code>Collections.unmodifiableList()</code> and
+     * <code>Arrays.asList()</code>) cannot be cloned without a strategy, as
+     * their internal state would be shared with the original. Instances of
+     * application classes are copied structurally: a new instance is created
+     * using the no-argument constructor of the class (which may be private),
+     * all the instance fields are copied as by {@link Object#clone()} and the
+     * {@link CloneThis} annotated fields are then cloned as described in
+     * {@link #deepClone(Cloneable)}. This is much faster than cloning through
+     * serialization, but fails with a {@link CloneNotSupportedException} for
+     * classes without a no-argument constructor. Use
+     * {@link CopyStrategy#IMMUTABLE} to have instances of your own immutable
+     * classes shared.
+     * 
+     * @param type
+     *            the class of the instances.
+     * @param strategy
+     *            the strategy, or <code>null</code> to remove the existing
+     *            strategy.
+     */
+    public static <T> void registerCopyStrategy(Class<T> type,
+            CopyStrategy<? super T> strategy) {
+        assert type != null : "type must not be null";
+        CopyStrategies.register(type, strategy);
+    }
+
     /**
      * The default clone method always creates a shallow clone, meaning that all
      * the field values are copied directly from the original to the clone. If
@@ -42,7 +169,24 @@ public final class CloneUtil {
      * This method goes through the fields of the <code>shallowClone</code>
      * object (both fields declared by the object's class and fields declared by
      * superclasses) and clones all fields that are annotated with
-     * {@link CloneThis}. The <code>shallowClone</code> object should be
+     * {@link CloneThis}. The annotated fields of every class are looked up
+     * only once and cached. If a {@link Cloner} has been generated for a
+     * class, it is used instead of reflection to clone the fields declared by
+     * that class.
+     * <p>
+     * Every object is cloned only once per deep clone operation (see
+     * {@link CloneContext}): annotated fields and collection items that refer
+     * to the same object get the same clone, and cycles through the
+     * <code>clone()</code> methods of the cloned values terminate. As this
+     * method only sees the shallow clone, a reference back to the original
+     * object itself results in one additional clone of it; use
+     * {@link #deepCloneGraph(Cloneable, boolean)} to avoid that.
+     * <p>
+     * Annotated values that do not have a public <code>clone()</code> method
+     * are shared or copied as described in
+     * {@link #registerCopyStrategy(Class, CopyStrategy)}.
+     * <p>
+     * The <code>shallowClone</code> object should be
      * retrieved from <code>Object.clone()</code> like this:
      * 
      * <pre>
@@ -63,106 +207,85 @@ public final class CloneUtil {
             throws CloneNotSupportedException {
         assert shallowClone != null : "shallowClone must not be null";
 
-        Class<?> currentClass = shallowClone.getClass();
-        while (currentClass != Object.class) {
-            cloneDeclaredFields(currentClass, shallowClone);
-            currentClass = currentClass.getSuperclass();
+        final CloneContext current = CloneContext.getCurrent();
+        if (current != null) {
+            current.claimShallowClone(shallowClone);
+            ClonePlan.forClass(shallowClone.getClass()).apply(shallowClone,
+                    current);
+            return shallowClone;
         }
-
-        return shallowClone;
-    }
-
-    private static void cloneDeclaredFields(Class<?> declaringClass,
-            Object owner) throws CloneNotSupportedException {
-        for (Field field : declaringClass.getDeclaredFields()) {
-            CloneThis cloneAnnotation = field.getAnnotation(CloneThis.class);
-            if (cloneAnnotation != null) {
-                cloneField(field, owner, cloneAnnotation.deepClone());
-            }
-        }
-    }
-
-    private static void cloneField(Field field, Object owner, boolean deepClone)
-            throws CloneNotSupportedException {
-        boolean oldAccessible = field.isAccessible();
-        field.setAccessible(true);
+        final CloneMetrics metrics = CloneUtil.metrics;
+        final long start = metrics == null ? 0L : System.nanoTime();
+        final long allocated = metrics == null ? 0L : ThreadAllocation
+                .currentThreadAllocatedBytes();
+        final CloneContext context = new CloneContext(false);
+        CloneContext.setCurrent(context);
         try {
-            if (field.getType().isArray()) {
-                cloneArrayField(field, owner, deepClone);
-            } else {
-                cloneOrdinaryField(field, owner, deepClone);
-            }
-        } catch (IllegalAccessException e) {
-            throw new CloneNotSupportedException("Could not access field "
-                    + field + " on object " + owner);
+            ClonePlan.forClass(shallowClone.getClass()).apply(shallowClone,
+                    context);
         } finally {
-            field.setAccessible(oldAccessible);
+            CloneContext.setCurrent(null);
         }
-    }
-
-    @SuppressWarnings("unchecked")
-    private static void cloneOrdinaryField(Field field, Object owner,
-            boolean deepClone) throws IllegalAccessException,
-            CloneNotSupportedException {
-        Object oldValue = field.get(owner);
-        Object newValue = callCloneMethod(oldValue);
-        if (newValue != null && deepClone) {
-            if (newValue instanceof Collection) {
-                cloneCollection((Collection<Object>) oldValue,
-                        (Collection<Object>) newValue);
-            } else if (newValue instanceof Map) {
-                cloneMap((Map<Object, Object>) oldValue,
-                        (Map<Object, Object>) newValue);
-            }
+        if (metrics != null) {
+            reportRoot(metrics, shallowClone.getClass(), start, allocated);
         }
-        field.set(owner, newValue);
+        return shallowClone;
     }
 
-    private static void cloneArrayField(Field field, Object owner,
-            boolean deepClone) throws IllegalAccessException,
-            CloneNotSupportedException {
-        Object[] fieldValue = (Object[]) field.get(owner);
-        if (fieldValue != null) {
-            Object[] newArray = Arrays.copyOf(fieldValue, fieldValue.length);
-            if (deepClone) {
-                for (int i = 0; i < fieldValue.length; i++) {
-                    if (fieldValue[i] instanceof Cloneable) {
-                        newArray[i] = callCloneMethod(fieldValue[i]);
-                    }
-                }
-            }
-            field.set(owner, newArray);
-        }
-    }
+    /**
+     * Clones the specified object by invoking its <code>clone()</code> method
+     * within a new {@link CloneContext}. Unlike
+     * {@link #deepClone(Cloneable)}, the original object is known to the
+     * context, so references back to it are resolved to the returned clone.
+     * <p>
+     * If <code>recursive</code> is true, the {@link CloneThis}-annotated
+     * fields of all the cloned values are cloned as well, even if their
+     * <code>clone()</code> methods only return shallow clones. This makes it
+     * possible to copy a whole object graph without implementing
+     * <code>clone()</code> with {@link #deepClone(Cloneable)} in every class.
+     * 
+     * @param <T>
+     *            the type of the object.
+     * @param original
+     *            the object to clone (must not be <code>null</code> and must
+     *            have a public <code>clone()</code> method).
+     * @param recursive
+     *            whether the annotated fields of all cloned values should be
+     *            cloned.
+     * @return the clone.
+     * @throws CloneNotSupportedException
+     *             if the object graph could not be cloned.
+     */
+    @SuppressWarnings("unchecked")
+    public static <T extends Cloneable> T deepCloneGraph(T original,
+            boolean recursive) throws CloneNotSupportedException {
+        assert original != null : "original must not be null";
 
-    private static void cloneCollection(Collection<Object> source,
-            Collection<Object> destination) throws CloneNotSupportedException {
-        destination.clear();
-        for (Object sourceItem : source) {
-            destination.add(callCloneMethod(sourceItem));
+        final CloneMetrics metrics = CloneUtil.metrics;
+        final long start = metrics == null ? 0L : System.nanoTime();
+        final long allocated = metrics == null ? 0L : ThreadAllocation
+                .currentThreadAllocatedBytes();
+        final CloneContext context = new CloneContext(recursive);
+        final CloneContext previous = CloneContext.setCurrent(context);
+        final T clone;
+        try {
+            clone = (T) context.cloneObject(original,
+                    CloneInvoker.forClass(original.getClass()));
+        } finally {
+            CloneContext.setCurrent(previous);
         }
-    }
-
-    private static void cloneMap(Map<Object, Object> source,
-            Map<Object, Object> destination) throws CloneNotSupportedException {
-        destination.clear();
-        for (Map.Entry<Object, Object> sourceEntry : source.entrySet()) {
-            destination.put(sourceEntry.getKey(),
-                    callCloneMethod(sourceEntry.getValue()));
+        if (metrics != null && previous == null) {
+            reportRoot(metrics, original.getClass(), start, allocated);
         }
+        return clone;
     }
 
-    private static Object callCloneMethod(Object object)
-            throws CloneNotSupportedException {
-        if (object == null) {
-            return null;
-        }
-        try {
-            Method cloneMethod = object.getClass().getMethod("clone");
-            return cloneMethod.invoke(object);
-        } catch (Exception e) {
-            throw new CloneNotSupportedException(
-                    "Could not invoke clone method on object " + object);
-        }
+    private static void reportRoot(CloneMetrics metrics, Class<?> type,
+            long start, long allocatedBefore) {
+        final long duration = System.nanoTime() - start;
+        final long allocatedAfter = allocatedBefore < 0 ? -1L
+                : ThreadAllocation.currentThreadAllocatedBytes();
+        metrics.rootCloned(type, duration,
+                allocatedAfter < 0 ? -1L : allocatedAfter - allocatedBefore);
     }
 }
@@ -0,0 +1,51 @@
+/*
+ * Copyright (c) 2011 Petter Holmström
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.github.peholmst.stuff4vaadin.clone;
+
+/**
+ * Interface for cloners that clone the {@link CloneThis}-annotated fields
+ * declared by a specific class, without reflection. Cloners are normally
+ * generated at build time by
+ * {@link com.github.peholmst.stuff4vaadin.clone.processor.ClonerProcessor} and
+ * picked up automatically by {@link CloneUtil#deepClone(Cloneable)}.
+ * <p>
+ * The cloner of the class <code>com.example.Foo</code> must be named
+ * <code>com.example.Foo$$Cloner</code>, be loadable by the class loader of
+ * <code>Foo</code> and have a public no-argument constructor. Implementations
+ * must be thread safe.
+ * 
+ * @param <T>
+ *            the class whose fields are cloned.
+ * @author Petter Holmström
+ * @since 1.0
+ */
+public interface Cloner<T> {
+
+    /**
+     * The suffix that is added to the binary name of a class to get the name
+     * of its cloner.
+     */
+    String CLASS_NAME_SUFFIX = "$$Cloner";
+
+    /**
+     * Clones the annotated fields declared by <code>T</code> (but not those
+     * declared by its superclasses) of the specified shallow clone. Use the
+     * methods of {@link ClonerSupport} to clone the field values, passing them
+     * the specified context.
+     */
+    void cloneDeclaredFields(T shallowClone, CloneContext context)
+            throws CloneNotSupportedException;
+}
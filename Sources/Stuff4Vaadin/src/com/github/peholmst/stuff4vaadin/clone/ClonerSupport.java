@@ -0,0 +1,369 @@
+/*
+ * Copyright (c) 2011 Petter Holmström
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.github.peholmst.stuff4vaadin.clone;
+
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Map;
+
+/**
+ * This class contains the methods that clone the values of
+ * {@link CloneThis}-annotated fields. They are used by
+ * {@link CloneUtil#deepClone(Cloneable)} and by generated {@link Cloner}s, so
+ * that both produce the same results. All the methods take the
+ * {@link CloneContext} of the deep clone operation, which makes sure that
+ * every object is cloned only once.
+ * 
+ * @author Petter Holmström
+ * @since 1.0
+ */
+public final class ClonerSupport {
+
+    private ClonerSupport() {
+    }
+
+    /**
+     * Clones the specified value of a field that is neither an array, a
+     * {@link Collection} nor a {@link Map} by declaration. If the value turns
+     * out to be a collection or a map, it is handled like
+     * {@link #cloneCollection(Collection, boolean, CloneContext)} and
+     * {@link #cloneMap(Map, boolean, CloneContext)} do.
+     * 
+     * @param value
+     *            the value to clone, may be <code>null</code>.
+     * @param deepClone
+     *            the {@link CloneThis#deepClone()} attribute of the field.
+     * @param context
+     *            the context of the deep clone operation (must not be
+     *            <code>null</code>).
+     * @return the clone, or <code>null</code> if <code>value</code> was
+     *         <code>null</code>.
+     */
+    @SuppressWarnings("unchecked")
+    public static Object cloneValue(Object value, boolean deepClone,
+            CloneContext context) throws CloneNotSupportedException {
+        if (deepClone && value instanceof Collection) {
+            return cloneCollection((Collection<Object>) value, true, context);
+        } else if (deepClone && value instanceof Map) {
+            return cloneMap((Map<Object, Object>) value, true, context);
+        }
+        return callCloneMethod(value, context);
+    }
+
+    /**
+     * Clones the specified collection by invoking its <code>clone()</code>
+     * method. If <code>deepClone</code> is true, the items are replaced by
+     * clones of themselves. Deep copies of collections that have a
+     * {@link CollectionCopier} are instead created by the copier and filled
+     * with the cloned items, without cloning and clearing the collection
+     * first.
+     * 
+     * @param collection
+     *            the collection to clone, may be <code>null</code>.
+     * @param deepClone
+     *            the {@link CloneThis#deepClone()} attribute of the field.
+     * @param context
+     *            the context of the deep clone operation (must not be
+     *            <code>null</code>).
+     * @return the clone, or <code>null</code> if <code>collection</code> was
+     *         <code>null</code>.
+     */
+    @SuppressWarnings("unchecked")
+    public static Object cloneCollection(Collection<?> collection,
+            boolean deepClone, CloneContext context)
+            throws CloneNotSupportedException {
+        if (collection == null) {
+            return null;
+        }
+        final Object existing = context.getClone(collection);
+        if (existing != null) {
+            return existing;
+        } else if (!deepClone) {
+            return callCloneMethod(collection, context);
+        }
+        final CollectionCopier<Object> copier = CollectionCopiers
+                .forClass(collection.getClass());
+        final Collection<Object> newCollection = (Collection<Object>) (copier == null ? shallowCopy(
+                collection, context) : copier.createCopy(collection));
+        if (newCollection == collection) {
+            // Registered as immutable
+            return collection;
+        }
+        final Object recorded = context.putClone(collection, newCollection);
+        if (recorded != newCollection) {
+            return recorded;
+        } else if (copier == null) {
+            newCollection.clear();
+        }
+        if (ParallelCloning.isApplicable(collection.size(), context)) {
+            final Object[] items = collection.toArray();
+            ParallelCloning.cloneItems(items, items, false, context);
+            newCollection.addAll(Arrays.asList(items));
+        } else {
+            cloneItems((Collection<Object>) collection, newCollection, context);
+        }
+        return newCollection;
+    }
+
+    /**
+     * Clones the specified map by invoking its <code>clone()</code> method. If
+     * <code>deepClone</code> is true, the values (but not the keys) are
+     * replaced by clones of themselves. Deep copies of maps that have a
+     * {@link CollectionCopier} are instead created by the copier and filled
+     * with the cloned values, without cloning and clearing the map first.
+     * 
+     * @param map
+     *            the map to clone, may be <code>null</code>.
+     * @param deepClone
+     *            the {@link CloneThis#deepClone()} attribute of the field.
+     * @param context
+     *            the context of the deep clone operation (must not be
+     *            <code>null</code>).
+     * @return the clone, or <code>null</code> if <code>map</code> was
+     *         <code>null</code>.
+     */
+    @SuppressWarnings("unchecked")
+    public static Object cloneMap(Map<?, ?> map, boolean deepClone,
+            CloneContext context) throws CloneNotSupportedException {
+        if (map == null) {
+            return null;
+        }
+        final Object existing = context.getClone(map);
+        if (existing != null) {
+            return existing;
+        } else if (!deepClone) {
+            return callCloneMethod(map, context);
+        }
+        final CollectionCopier<Object> copier = CollectionCopiers.forClass(map
+                .getClass());
+        final Map<Object, Object> newMap = (Map<Object, Object>) (copier == null ? shallowCopy(map,
+                context) : copier.createCopy(map));
+        if (newMap == map) {
+            // Registered as immutable
+            return map;
+        }
+        final Object recorded = context.putClone(map, newMap);
+        if (recorded != newMap) {
+            return recorded;
+        } else if (copier == null) {
+            newMap.clear();
+        }
+        if (ParallelCloning.isApplicable(map.size(), context)) {
+            final Map.Entry<?, ?>[] entries = map.entrySet().toArray(
+                    new Map.Entry<?, ?>[map.size()]);
+            final Object[] values = new Object[entries.length];
+            for (int i = 0; i < entries.length; ++i) {
+                values[i] = entries[i].getValue();
+            }
+            ParallelCloning.cloneItems(values, values, false, context);
+            for (int i = 0; i < entries.length; ++i) {
+                newMap.put(entries[i].getKey(), values[i]);
+            }
+        } else {
+            cloneValues((Map<Object, Object>) map, newMap, context);
+        }
+        return newMap;
+    }
+
+    /**
+     * Clones the value of a {@link CloneThis#lazy() lazy} field declared as a
+     * {@link Collection}, {@link java.util.List}, {@link java.util.Set} or
+     * {@link Map}. If the value is a wrapper created by
+     * {@link CopyOnWriteCollections}, the clone is a wrapper that shares its
+     * backing collection, so nothing is copied until one of them is modified.
+     * Other lists, sets and maps are copied using
+     * {@link #cloneValue(Object, boolean, CloneContext)} and the copy is
+     * wrapped, so that the next clone is cheap. Deep clones are never lazy.
+     * 
+     * @param value
+     *            the value to clone, may be <code>null</code>.
+     * @param deepClone
+     *            the {@link CloneThis#deepClone()} attribute of the field.
+     * @param context
+     *            the context of the deep clone operation (must not be
+     *            <code>null</code>).
+     * @return the clone, or <code>null</code> if <code>value</code> was
+     *         <code>null</code>.
+     */
+    public static Object cloneLazily(Object value, boolean deepClone,
+            CloneContext context) throws CloneNotSupportedException {
+        if (value == null) {
+            return null;
+        } else if (deepClone) {
+            return cloneValue(value, true, context);
+        }
+        final Object existing = context.getClone(value);
+        if (existing != null) {
+            return existing;
+        }
+        Object newValue = CopyOnWriteCollections.isCopyOnWrite(value) ? CopyOnWriteCollections
+                .wrap(value) : null;
+        if (newValue == null) {
+            final Object copy = shallowCopy(value, context);
+            newValue = CopyOnWriteCollections.wrap(copy);
+            if (newValue == null) {
+                newValue = copy;
+            }
+        }
+        return context.putClone(value, newValue);
+    }
+
+    /**
+     * Copies the specified array. Arrays of primitives are copied as they are,
+     * without boxing. Nested arrays of multi-dimensional arrays are always
+     * copied as well, recursively. If <code>deepClone</code> is true, the
+     * {@link Cloneable} items are replaced by clones of themselves.
+     * 
+     * @param array
+     *            the array to clone, may be <code>null</code>.
+     * @param deepClone
+     *            the {@link CloneThis#deepClone()} attribute of the field.
+     * @param context
+     *            the context of the deep clone operation (must not be
+     *            <code>null</code>).
+     * @return the copy, or <code>null</code> if <code>array</code> was
+     *         <code>null</code>.
+     */
+    public static Object cloneArray(Object array, boolean deepClone,
+            CloneContext context) throws CloneNotSupportedException {
+        if (array == null) {
+            return null;
+        }
+        final Object existing = context.getClone(array);
+        if (existing != null) {
+            return existing;
+        }
+        if (!(array instanceof Object[])) {
+            return context.putClone(array, copyPrimitiveArray(array));
+        }
+        final Object[] oldArray = (Object[]) array;
+        final Object[] newArray = oldArray.clone();
+        final Object recorded = context.putClone(oldArray, newArray);
+        if (recorded != newArray) {
+            return recorded;
+        }
+        if (deepClone
+                && ParallelCloning.isApplicable(oldArray.length, context)) {
+            ParallelCloning.cloneItems(oldArray, newArray, true, context);
+        } else if (deepClone
+                || oldArray.getClass().getComponentType().isArray()) {
+            cloneRange(oldArray, newArray, 0, oldArray.length, true,
+                    deepClone, context);
+        }
+        return newArray;
+    }
+
+    /**
+     * Clones the items of <code>source</code> from index <code>from</code>
+     * (inclusive) to index <code>to</code> (exclusive) into the same indexes
+     * of <code>target</code>, which may be the same array. If
+     * <code>arrayItems</code> is true, the items are treated like the items of
+     * an array field (only nested arrays and {@link Cloneable} items are
+     * cloned, and <code>target</code> must already contain the original
+     * items); otherwise, like the items of a collection.
+     */
+    static void cloneRange(Object[] source, Object[] target, int from,
+            int to, boolean arrayItems, boolean deepClone, CloneContext context)
+            throws CloneNotSupportedException {
+        CloneInvoker invoker = null;
+        for (int i = from; i < to; ++i) {
+            final Object item = source[i];
+            if (item == null) {
+                continue;
+            } else if (arrayItems && item.getClass().isArray()) {
+                target[i] = cloneArray(item, deepClone, context);
+            } else if (deepClone
+                    && (!arrayItems || item instanceof Cloneable)) {
+                invoker = CloneInvoker.forObject(item, invoker);
+                target[i] = context.cloneObject(item, invoker);
+            }
+        }
+    }
+
+    private static Object copyPrimitiveArray(Object array) {
+        if (array instanceof byte[]) {
+            return ((byte[]) array).clone();
+        } else if (array instanceof int[]) {
+            return ((int[]) array).clone();
+        } else if (array instanceof long[]) {
+            return ((long[]) array).clone();
+        } else if (array instanceof double[]) {
+            return ((double[]) array).clone();
+        } else if (array instanceof float[]) {
+            return ((float[]) array).clone();
+        } else if (array instanceof char[]) {
+            return ((char[]) array).clone();
+        } else if (array instanceof short[]) {
+            return ((short[]) array).clone();
+        } else if (array instanceof boolean[]) {
+            return ((boolean[]) array).clone();
+        }
+        throw new IllegalArgumentException("Not an array: " + array);
+    }
+
+    private static void cloneItems(Collection<Object> source,
+            Collection<Object> destination, CloneContext context)
+            throws CloneNotSupportedException {
+        CloneInvoker invoker = null;
+        for (Object sourceItem : source) {
+            if (sourceItem == null) {
+                destination.add(null);
+            } else {
+                invoker = CloneInvoker.forObject(sourceItem, invoker);
+                destination.add(context.cloneObject(sourceItem, invoker));
+            }
+        }
+    }
+
+    private static void cloneValues(Map<Object, Object> source,
+            Map<Object, Object> destination, CloneContext context)
+            throws CloneNotSupportedException {
+        CloneInvoker invoker = null;
+        for (Map.Entry<Object, Object> sourceEntry : source.entrySet()) {
+            final Object sourceValue = sourceEntry.getValue();
+            if (sourceValue == null) {
+                destination.put(sourceEntry.getKey(), null);
+            } else {
+                invoker = CloneInvoker.forObject(sourceValue, invoker);
+                destination.put(sourceEntry.getKey(),
+                        context.cloneObject(sourceValue, invoker));
+            }
+        }
+    }
+
+    /**
+     * Returns a shallow clone of the specified object (must not be
+     * <code>null</code>) by invoking its <code>clone()</code> method. Objects
+     * without a public <code>clone()</code> method are copied using
+     * {@link CopyStrategies#copy(Object, CloneContext)}, which records the
+     * copy in the context and clones the annotated fields of a structural copy.
+     */
+    private static Object shallowCopy(Object object, CloneContext context)
+            throws CloneNotSupportedException {
+        final CloneInvoker invoker = CloneInvoker.forClass(object.getClass());
+        return invoker.isSupported() ? invoker.invoke(object) : CopyStrategies
+                .copy(object, context);
+    }
+
+    static Object callCloneMethod(Object object, CloneContext context)
+            throws CloneNotSupportedException {
+        if (object == null) {
+            return null;
+        }
+        return context.cloneObject(object,
+                CloneInvoker.forClass(object.getClass()));
+    }
+}
@@ -0,0 +1,46 @@
+/*
+ * Copyright (c) 2011 Petter Holmström
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.github.peholmst.stuff4vaadin.clone;
+
+/**
+ * Interface for copiers that create the destination of a deep copy of a
+ * {@link java.util.Collection} or a {@link java.util.Map} of a specific class.
+ * The copier only creates an empty collection with the same configuration
+ * (such as the comparator) as the source, sized to hold the elements of the
+ * source; the cloned elements are then added to it in one pass, in the
+ * iteration order of the source.
+ * <p>
+ * Copiers are registered using
+ * {@link CloneUtil#registerCollectionCopier(Class, CollectionCopier)} and
+ * only apply to the exact class they have been registered for. Collections
+ * without a copier are copied by invoking their <code>clone()</code> method
+ * and replacing the elements of the clone. Implementations must be thread
+ * safe.
+ * 
+ * @param <T>
+ *            the class of the collections or maps to copy.
+ * @author Petter Holmström
+ * @since 1.0
+ */
+public interface CollectionCopier<T> {
+
+    /**
+     * Creates an empty collection or map of the same class and configuration
+     * as the specified source (never <code>null</code>), with room for the
+     * elements of the source.
+     */
+    T createCopy(T source);
+}
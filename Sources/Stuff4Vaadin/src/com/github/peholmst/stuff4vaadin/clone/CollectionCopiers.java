@@ -0,0 +1,166 @@
+/*
+ * Copyright (c) 2011 Petter Holmström
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.github.peholmst.stuff4vaadin.clone;
+
+import java.lang.reflect.Field;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.LinkedList;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * This class keeps track of the registered {@link CollectionCopier}s. Copiers
+ * for the most common collection and map classes of the JDK are registered by
+ * default.
+ * <p>
+ * This class is thread safe.
+ * 
+ * @author Petter Holmström
+ * @since 1.0
+ */
+final class CollectionCopiers {
+
+    private static final ConcurrentMap<Class<?>, CollectionCopier<?>> copiers = new ConcurrentHashMap<Class<?>, CollectionCopier<?>>();
+
+    /**
+     * The <code>accessOrder</code> field of <code>LinkedHashMap</code>, or
+     * <code>null</code> if it cannot be accessed.
+     */
+    private static final Field ACCESS_ORDER = findAccessOrderField();
+
+    static {
+        register(ArrayList.class, new CollectionCopier<ArrayList<?>>() {
+            @Override
+            public ArrayList<?> createCopy(ArrayList<?> source) {
+                return new ArrayList<Object>(source.size());
+            }
+        });
+        register(LinkedList.class, new CollectionCopier<LinkedList<?>>() {
+            @Override
+            public LinkedList<?> createCopy(LinkedList<?> source) {
+                return new LinkedList<Object>();
+            }
+        });
+        register(ArrayDeque.class, new CollectionCopier<ArrayDeque<?>>() {
+            @Override
+            public ArrayDeque<?> createCopy(ArrayDeque<?> source) {
+                return new ArrayDeque<Object>(source.size());
+            }
+        });
+        register(HashSet.class, new CollectionCopier<HashSet<?>>() {
+            @Override
+            public HashSet<?> createCopy(HashSet<?> source) {
+                return new HashSet<Object>(hashCapacity(source.size()));
+            }
+        });
+        register(HashMap.class, new CollectionCopier<HashMap<?, ?>>() {
+            @Override
+            public HashMap<?, ?> createCopy(HashMap<?, ?> source) {
+                return new HashMap<Object, Object>(hashCapacity(source.size()));
+            }
+        });
+        register(LinkedHashMap.class,
+                new CollectionCopier<LinkedHashMap<?, ?>>() {
+                    @Override
+                    public LinkedHashMap<?, ?> createCopy(
+                            LinkedHashMap<?, ?> source) {
+                        return copyLinkedHashMap(source);
+                    }
+                });
+        register(TreeMap.class, new CollectionCopier<TreeMap<?, ?>>() {
+            @Override
+            @SuppressWarnings("unchecked")
+            public TreeMap<?, ?> createCopy(TreeMap<?, ?> source) {
+                return new TreeMap<Object, Object>(
+                        (Comparator<Object>) source.comparator());
+            }
+        });
+    }
+
+    private CollectionCopiers() {
+    }
+
+    /**
+     * Returns the initial capacity of a hash based collection that can hold
+     * <code>size</code> elements without being resized.
+     */
+    static int hashCapacity(int size) {
+        return Math.max((int) (size / 0.75f) + 1, 16);
+    }
+
+    /**
+     * Creates an empty <code>LinkedHashMap</code> with the same ordering mode
+     * as <code>source</code>. Filling it in the iteration order of the source
+     * results in the same iteration order, also for access ordered maps. If
+     * the ordering mode cannot be read (e.g. because the JDK internals are not
+     * accessible), the source is cloned and cleared instead, as
+     * {@link LinkedHashMap#clone()} keeps the ordering mode.
+     */
+    static LinkedHashMap<?, ?> copyLinkedHashMap(LinkedHashMap<?, ?> source) {
+        if (ACCESS_ORDER != null) {
+            try {
+                return new LinkedHashMap<Object, Object>(
+                        hashCapacity(source.size()), 0.75f,
+                        ACCESS_ORDER.getBoolean(source));
+            } catch (IllegalAccessException e) {
+                // Fall through to cloning
+            }
+        }
+        final LinkedHashMap<?, ?> copy = (LinkedHashMap<?, ?>) source.clone();
+        copy.clear();
+        return copy;
+    }
+
+    private static Field findAccessOrderField() {
+        try {
+            final Field field = LinkedHashMap.class
+                    .getDeclaredField("accessOrder");
+            field.setAccessible(true);
+            return field;
+        } catch (Exception e) {
+            return null;
+        }
+    }
+
+    /**
+     * Registers the specified copier for the specified class, replacing any
+     * existing copier. If <code>copier</code> is <code>null</code>, the
+     * existing copier is removed.
+     */
+    @SuppressWarnings("rawtypes")
+    static void register(Class<?> type, CollectionCopier copier) {
+        if (copier == null) {
+            copiers.remove(type);
+        } else {
+            copiers.put(type, copier);
+        }
+    }
+
+    /**
+     * Returns the copier registered for the specified class, or
+     * <code>null</code> if there is none.
+     */
+    @SuppressWarnings("unchecked")
+    static CollectionCopier<Object> forClass(Class<?> type) {
+        return (CollectionCopier<Object>) copiers.get(type);
+    }
+}
@@ -0,0 +1,448 @@
+/*
+ * Copyright (c) 2011 Petter Holmström
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.github.peholmst.stuff4vaadin.clone;
+
+import java.io.Serializable;
+import java.util.AbstractList;
+import java.util.AbstractMap;
+import java.util.AbstractSet;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.RandomAccess;
+import java.util.Set;
+
+/**
+ * This class creates copy-on-write wrappers for lists, sets and maps. Cloning
+ * a wrapper (using its public <code>clone()</code> method) does not copy
+ * anything: the clone shares the backing collection with the wrapper, and the
+ * first one of them to be modified copies the backing collection before
+ * modifying it. This makes cloning cheap for collections that are rarely
+ * modified after they have been cloned. Note that a wrapper that has been
+ * cloned copies the backing collection on its first modification even if the
+ * clone is no longer in use.
+ * <p>
+ * The {@link CloneThis#lazy() lazy} fields of cloned objects are wrapped
+ * automatically; see {@link ClonerSupport#cloneLazily(Object, boolean, CloneContext)}.
+ * Wrapping the initial values of the fields using the methods of this class
+ * makes the first clone cheap as well.
+ * <p>
+ * The wrappers are not thread safe, just like the collections of
+ * <code>java.util</code>, but wrappers that share a backing collection may be
+ * used by different threads.
+ * 
+ * @author Petter Holmström
+ * @since 1.0
+ */
+public final class CopyOnWriteCollections {
+
+    /**
+     * A backing collection and the number of wrappers that share it.
+     */
+    static final class Storage<T> implements Serializable {
+
+        private static final long serialVersionUID = -3262311960633417706L;
+
+        final T data;
+
+        private int owners = 1;
+
+        Storage(T data) {
+            this.data = data;
+        }
+
+        /**
+         * Adds an owner to this storage.
+         */
+        synchronized Storage<T> share() {
+            ++owners;
+            return this;
+        }
+
+        /**
+         * Returns this storage if the caller is the only owner, or a new
+         * storage with a copy of the data that the caller owns alone.
+         */
+        @SuppressWarnings("unchecked")
+        synchronized Storage<T> exclusive() {
+            if (owners == 1) {
+                return this;
+            }
+            final Storage<T> copy = new Storage<T>((T) copyOf(data));
+            --owners;
+            return copy;
+        }
+    }
+
+    private static final class CopyOnWriteList<E> extends AbstractList<E>
+            implements RandomAccess, Cloneable, Serializable {
+
+        private static final long serialVersionUID = 7325307106617460447L;
+
+        private Storage<List<E>> storage;
+
+        CopyOnWriteList(Storage<List<E>> storage) {
+            this.storage = storage;
+        }
+
+        private List<E> writable() {
+            storage = storage.exclusive();
+            return storage.data;
+        }
+
+        @Override
+        public E get(int index) {
+            return storage.data.get(index);
+        }
+
+        @Override
+        public int size() {
+            return storage.data.size();
+        }
+
+        @Override
+        public boolean contains(Object o) {
+            return storage.data.contains(o);
+        }
+
+        @Override
+        public int indexOf(Object o) {
+            return storage.data.indexOf(o);
+        }
+
+        @Override
+        public E set(int index, E element) {
+            return writable().set(index, element);
+        }
+
+        @Override
+        public void add(int index, E element) {
+            writable().add(index, element);
+            ++modCount;
+        }
+
+        @Override
+        public boolean addAll(Collection<? extends E> c) {
+            ++modCount;
+            return writable().addAll(c);
+        }
+
+        @Override
+        public E remove(int index) {
+            final E removed = writable().remove(index);
+            ++modCount;
+            return removed;
+        }
+
+        @Override
+        public void clear() {
+            writable().clear();
+            ++modCount;
+        }
+
+        @Override
+        public CopyOnWriteList<E> clone() {
+            return new CopyOnWriteList<E>(storage.share());
+        }
+    }
+
+    private static final class CopyOnWriteSet<E> extends AbstractSet<E>
+            implements Cloneable, Serializable {
+
+        private static final long serialVersionUID = -6045936337315358998L;
+
+        private Storage<Set<E>> storage;
+
+        CopyOnWriteSet(Storage<Set<E>> storage) {
+            this.storage = storage;
+        }
+
+        private Set<E> writable() {
+            storage = storage.exclusive();
+            return storage.data;
+        }
+
+        @Override
+        public int size() {
+            return storage.data.size();
+        }
+
+        @Override
+        public boolean contains(Object o) {
+            return storage.data.contains(o);
+        }
+
+        @Override
+        public boolean add(E e) {
+            return writable().add(e);
+        }
+
+        @Override
+        public boolean remove(Object o) {
+            return writable().remove(o);
+        }
+
+        @Override
+        public void clear() {
+            writable().clear();
+        }
+
+        @Override
+        public Iterator<E> iterator() {
+            final Storage<Set<E>> iterated = storage;
+            final Iterator<E> iterator = iterated.data.iterator();
+            return new Iterator<E>() {
+
+                private E last;
+
+                @Override
+                public boolean hasNext() {
+                    return iterator.hasNext();
+                }
+
+                @Override
+                public E next() {
+                    last = iterator.next();
+                    return last;
+                }
+
+                @Override
+                public void remove() {
+                    if (storage == iterated && writable() == iterated.data) {
+                        iterator.remove();
+                    } else {
+                        // The iterated set is shared and must not change
+                        writable().remove(last);
+                    }
+                }
+            };
+        }
+
+        @Override
+        public CopyOnWriteSet<E> clone() {
+            return new CopyOnWriteSet<E>(storage.share());
+        }
+    }
+
+    private static final class CopyOnWriteMap<K, V> extends AbstractMap<K, V>
+            implements Cloneable, Serializable {
+
+        private static final long serialVersionUID = 5466815402698929446L;
+
+        private Storage<Map<K, V>> storage;
+
+        CopyOnWriteMap(Storage<Map<K, V>> storage) {
+            this.storage = storage;
+        }
+
+        private Map<K, V> writable() {
+            storage = storage.exclusive();
+            return storage.data;
+        }
+
+        @Override
+        public int size() {
+            return storage.data.size();
+        }
+
+        @Override
+        public V get(Object key) {
+            return storage.data.get(key);
+        }
+
+        @Override
+        public boolean containsKey(Object key) {
+            return storage.data.containsKey(key);
+        }
+
+        @Override
+        public boolean containsValue(Object value) {
+            return storage.data.containsValue(value);
+        }
+
+        @Override
+        public V put(K key, V value) {
+            return writable().put(key, value);
+        }
+
+        @Override
+        public void putAll(Map<? extends K, ? extends V> m) {
+            writable().putAll(m);
+        }
+
+        @Override
+        public V remove(Object key) {
+            return writable().remove(key);
+        }
+
+        @Override
+        public void clear() {
+            writable().clear();
+        }
+
+        @Override
+        public Set<Map.Entry<K, V>> entrySet() {
+            return new AbstractSet<Map.Entry<K, V>>() {
+
+                @Override
+                public int size() {
+                    return CopyOnWriteMap.this.size();
+                }
+
+                @Override
+                public Iterator<Map.Entry<K, V>> iterator() {
+                    return entryIterator();
+                }
+            };
+        }
+
+        private Iterator<Map.Entry<K, V>> entryIterator() {
+            final Storage<Map<K, V>> iterated = storage;
+            final Iterator<Map.Entry<K, V>> iterator = iterated.data
+                    .entrySet().iterator();
+            return new Iterator<Map.Entry<K, V>>() {
+
+                private Map.Entry<K, V> last;
+
+                @Override
+                public boolean hasNext() {
+                    return iterator.hasNext();
+                }
+
+                @Override
+                public Map.Entry<K, V> next() {
+                    last = iterator.next();
+                    return new AbstractMap.SimpleEntry<K, V>(last) {
+
+                        private static final long serialVersionUID = 1L;
+
+                        @Override
+                        public V setValue(V value) {
+                            put(getKey(), value);
+                            return super.setValue(value);
+                        }
+                    };
+                }
+
+                @Override
+                public void remove() {
+                    if (storage == iterated && writable() == iterated.data) {
+                        iterator.remove();
+                    } else {
+                        // The iterated map is shared and must not change
+                        writable().remove(last.getKey());
+                    }
+                }
+            };
+        }
+
+        @Override
+        public CopyOnWriteMap<K, V> clone() {
+            return new CopyOnWriteMap<K, V>(storage.share());
+        }
+    }
+
+    private CopyOnWriteCollections() {
+    }
+
+    /**
+     * Returns a copy-on-write wrapper for the specified random access list
+     * (must not be <code>null</code>). The list must not be used directly
+     * after it has been wrapped.
+     */
+    public static <E> List<E> list(List<E> list) {
+        assert list != null : "list must not be null";
+        assert list instanceof RandomAccess : "list must be a RandomAccess list";
+        return new CopyOnWriteList<E>(new Storage<List<E>>(list));
+    }
+
+    /**
+     * Returns a copy-on-write wrapper for the specified set (must not be
+     * <code>null</code>). The set must not be used directly after it has
+     * been wrapped.
+     */
+    public static <E> Set<E> set(Set<E> set) {
+        assert set != null : "set must not be null";
+        return new CopyOnWriteSet<E>(new Storage<Set<E>>(set));
+    }
+
+    /**
+     * Returns a copy-on-write wrapper for the specified map (must not be
+     * <code>null</code>). The map must not be used directly after it has
+     * been wrapped.
+     */
+    public static <K, V> Map<K, V> map(Map<K, V> map) {
+        assert map != null : "map must not be null";
+        return new CopyOnWriteMap<K, V>(new Storage<Map<K, V>>(map));
+    }
+
+    /**
+     * Returns whether the specified object is a copy-on-write wrapper created
+     * by this class.
+     */
+    public static boolean isCopyOnWrite(Object object) {
+        return object instanceof CopyOnWriteList
+                || object instanceof CopyOnWriteSet
+                || object instanceof CopyOnWriteMap;
+    }
+
+    /**
+     * Returns a copy-on-write wrapper for the specified list, set or map, or
+     * <code>null</code> if it cannot be wrapped (e.g. a list that does not
+     * support random access). A wrapper is cloned, so that the result shares
+     * the backing collection with it.
+     */
+    @SuppressWarnings({ "unchecked", "rawtypes" })
+    static Object wrap(Object value) {
+        if (value instanceof CopyOnWriteList) {
+            return ((CopyOnWriteList) value).clone();
+        } else if (value instanceof CopyOnWriteSet) {
+            return ((CopyOnWriteSet) value).clone();
+        } else if (value instanceof CopyOnWriteMap) {
+            return ((CopyOnWriteMap) value).clone();
+        } else if (value instanceof List && value instanceof RandomAccess) {
+            return list((List) value);
+        } else if (value instanceof Set) {
+            return set((Set) value);
+        } else if (value instanceof Map) {
+            return map((Map) value);
+        }
+        return null;
+    }
+
+    /**
+     * Copies the specified backing collection using its <code>clone()</code>
+     * method, or into a general purpose collection if it cannot be cloned.
+     */
+    @SuppressWarnings({ "unchecked", "rawtypes" })
+    static Object copyOf(Object data) {
+        try {
+            return CloneInvoker.forClass(data.getClass()).invoke(data);
+        } catch (CloneNotSupportedException e) {
+            if (data instanceof List) {
+                return new ArrayList((List) data);
+            } else if (data instanceof Set) {
+                return new LinkedHashSet((Set) data);
+            } else {
+                return new LinkedHashMap((Map) data);
+            }
+        }
+    }
+}
@@ -0,0 +1,137 @@
+/*
+ * Copyright (c) 2011 Petter Holmström
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.github.peholmst.stuff4vaadin.clone;
+
+import java.io.File;
+import java.math.BigDecimal;
+import java.math.BigInteger;
+import java.net.URI;
+import java.net.URL;
+import java.util.Currency;
+import java.util.Locale;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.regex.Pattern;
+
+/**
+ * This class keeps track of the registered {@link CopyStrategy}s and copies
+ * values that do not have a public <code>clone()</code> method. The immutable
+ * classes of the JDK are shared instead of copied by default. Other classes of
+ * the platform are never copied structurally, as their fields are
+ * implementation details (e.g. the table of a
+ * <code>ConcurrentHashMap</code> or the list behind
+ * <code>Collections.unmodifiableList()</code>) that the copy would share with
+ * the original; they need a registered strategy.
+ * <p>
+ * This class is thread safe.
+ * 
+ * @author Petter Holmström
+ * @since 1.0
+ */
+final class CopyStrategies {
+
+    private static final ConcurrentMap<Class<?>, CopyStrategy<?>> strategies = new ConcurrentHashMap<Class<?>, CopyStrategy<?>>();
+
+    static {
+        final Class<?>[] immutableClasses = { String.class, Boolean.class,
+                Character.class, Byte.class, Short.class, Integer.class,
+                Long.class, Float.class, Double.class, BigInteger.class,
+                BigDecimal.class, Class.class, UUID.class, Locale.class,
+                Currency.class, URI.class, URL.class, File.class,
+                Pattern.class };
+        for (Class<?> immutableClass : immutableClasses) {
+            strategies.put(immutableClass, CopyStrategy.IMMUTABLE);
+        }
+    }
+
+    private CopyStrategies() {
+    }
+
+    /**
+     * Registers the specified strategy for the specified class, replacing any
+     * existing strategy. If <code>strategy</code> is <code>null</code>, the
+     * existing strategy is removed.
+     */
+    static void register(Class<?> type, CopyStrategy<?> strategy) {
+        if (strategy == null) {
+            strategies.remove(type);
+        } else {
+            strategies.put(type, strategy);
+        }
+    }
+
+    /**
+     * Returns whether the specified class is known to be immutable without a
+     * registered strategy. This applies to enums and to the classes of the
+     * <code>java.time</code> package, which are recognized by name as the
+     * package is not available on all supported platforms.
+     */
+    static boolean isImmutable(Class<?> type) {
+        return Enum.class.isAssignableFrom(type)
+                || type.getName().startsWith("java.time.");
+    }
+
+    /**
+     * Returns whether the specified class belongs to the Java platform, i.e.
+     * is loaded by the bootstrap class loader or is in one of the packages of
+     * the JDK.
+     */
+    static boolean isPlatformClass(Class<?> type) {
+        final String name = type.getName();
+        return type.getClassLoader() == null || name.startsWith("java.")
+                || name.startsWith("javax.") || name.startsWith("sun.")
+                || name.startsWith("com.sun.") || name.startsWith("jdk.");
+    }
+
+    /**
+     * Copies the specified value (must not be <code>null</code>), which does
+     * not have a public <code>clone()</code> method, within the specified
+     * context. This is the fallback of all the clone operations. Uses the
+     * registered strategy if there is one; otherwise, immutable values are
+     * returned as they are and values of non-platform classes are copied
+     * structurally using their {@link ClonePlan}, including their annotated
+     * fields. The copy is recorded in the context.
+     * 
+     * @throws CloneNotSupportedException
+     *             if the value cannot be copied, e.g. because it is of a
+     *             platform class and no strategy has been registered for it.
+     */
+    @SuppressWarnings("unchecked")
+    static Object copy(Object original, CloneContext context)
+            throws CloneNotSupportedException {
+        final Class<?> type = original.getClass();
+        final CopyStrategy<Object> strategy = (CopyStrategy<Object>) strategies
+                .get(type);
+        if (strategy != null) {
+            final Object copy = strategy.copy(original, context);
+            return copy == original ? copy : context.putClone(original, copy);
+        } else if (isImmutable(type)) {
+            return original;
+        } else if (isPlatformClass(type)) {
+            throw new CloneNotSupportedException("Could not copy object of "
+                    + type.getName()
+                    + ", it has no public clone method and no CopyStrategy has been registered for it");
+        }
+        final ClonePlan plan = ClonePlan.forClass(type);
+        final Object copy = plan.copyFields(original);
+        final Object recorded = context.putClone(original, copy);
+        if (recorded == copy) {
+            plan.apply(copy, context);
+        }
+        return recorded;
+    }
+}
@@ -0,0 +1,52 @@
+/*
+ * Copyright (c) 2011 Petter Holmström
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.github.peholmst.stuff4vaadin.clone;
+
+/**
+ * Interface for strategies that copy values that do not have a public
+ * <code>clone()</code> method. Strategies are registered using
+ * {@link CloneUtil#registerCopyStrategy(Class, CopyStrategy)} and only apply to
+ * the exact class they have been registered for. Values without a
+ * <code>clone()</code> method or a strategy are shared, copied structurally or
+ * rejected, as described in {@link CloneUtil#registerCopyStrategy(Class, CopyStrategy)}.
+ * Implementations must be thread safe.
+ * 
+ * @param <T>
+ *            the class of the values to copy.
+ * @author Petter Holmström
+ * @since 1.0
+ */
+public interface CopyStrategy<T> {
+
+    /**
+     * A strategy for immutable classes, which returns the original value
+     * instead of a copy.
+     */
+    CopyStrategy<Object> IMMUTABLE = new CopyStrategy<Object>() {
+        @Override
+        public Object copy(Object original, CloneContext context) {
+            return original;
+        }
+    };
+
+    /**
+     * Returns a copy of the specified value (never <code>null</code>), or the
+     * value itself if it is immutable. Values referred to by the copy can be
+     * cloned within the same deep clone operation using the methods of
+     * {@link ClonerSupport} and the specified context.
+     */
+    T copy(T original, CloneContext context) throws CloneNotSupportedException;
+}
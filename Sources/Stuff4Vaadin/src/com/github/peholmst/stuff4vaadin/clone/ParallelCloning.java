@@ -0,0 +1,179 @@
+/*
+ * Copyright (c) 2011 Petter Holmström
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.github.peholmst.stuff4vaadin.clone;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.RejectedExecutionException;
+
+/**
+ * This class clones the items of large collections, maps and arrays in
+ * parallel, if parallel cloning has been enabled using
+ * {@link CloneUtil#setParallelCloning(ExecutorService, int)}.
+ * <p>
+ * The items are split into chunks that are submitted to the executor. The
+ * calling thread clones the first chunk itself and then runs every chunk that
+ * no thread of the executor has started yet, so the cloning completes even if
+ * the executor is busy or has been shut down. Every chunk is cloned within a
+ * worker {@link CloneContext} that shares the clones of the calling context,
+ * so items that occur in several chunks are still cloned only once and the
+ * result is the same as that of cloning sequentially. Worker threads do not
+ * split their work any further.
+ * <p>
+ * This class is thread safe.
+ * 
+ * @author Petter Holmström
+ * @since 1.0
+ */
+final class ParallelCloning {
+
+    /**
+     * The smallest number of items that is worth a chunk of its own.
+     */
+    static final int MIN_CHUNK_SIZE = 256;
+
+    private static final class Settings {
+
+        final ExecutorService executor;
+
+        final int threshold;
+
+        Settings(ExecutorService executor, int threshold) {
+            this.executor = executor;
+            this.threshold = threshold;
+        }
+    }
+
+    private static volatile Settings settings;
+
+    private ParallelCloning() {
+    }
+
+    /**
+     * Enables parallel cloning using the specified executor for collections,
+     * maps and arrays of at least <code>threshold</code> items, or disables
+     * it if <code>executor</code> is <code>null</code>.
+     */
+    static void configure(ExecutorService executor, int threshold) {
+        settings = executor == null ? null : new Settings(executor, threshold);
+    }
+
+    /**
+     * Returns whether <code>size</code> items should be cloned in parallel
+     * within the specified context.
+     */
+    static boolean isApplicable(int size, CloneContext context) {
+        final Settings current = settings;
+        return current != null && size >= current.threshold
+                && size >= 2 * MIN_CHUNK_SIZE && !context.isWorker();
+    }
+
+    /**
+     * Deep clones the items of <code>source</code> into <code>target</code> in
+     * parallel, like {@link ClonerSupport#cloneRange} does.
+     */
+    static void cloneItems(final Object[] source, final Object[] target,
+            final boolean arrayItems, CloneContext context)
+            throws CloneNotSupportedException {
+        final Settings current = settings;
+        if (current == null) {
+            ClonerSupport.cloneRange(source, target, 0, source.length,
+                    arrayItems, true, context);
+            return;
+        }
+        final int chunkCount = Math.min(Runtime.getRuntime()
+                .availableProcessors() * 4, source.length / MIN_CHUNK_SIZE);
+        final int chunkSize = (source.length + chunkCount - 1) / chunkCount;
+        final List<FutureTask<Void>> tasks = new ArrayList<FutureTask<Void>>(
+                chunkCount);
+        for (int from = 0; from < source.length; from += chunkSize) {
+            final int to = Math.min(from + chunkSize, source.length);
+            final int chunkFrom = from;
+            final CloneContext worker = context.createWorker();
+            final FutureTask<Void> task = new FutureTask<Void>(
+                    new Callable<Void>() {
+                        @Override
+                        public Void call() throws CloneNotSupportedException {
+                            final CloneContext previous = CloneContext
+                                    .setCurrent(worker);
+                            try {
+                                ClonerSupport.cloneRange(source, target,
+                                        chunkFrom, to, arrayItems, true,
+                                        worker);
+                            } finally {
+                                CloneContext.setCurrent(previous);
+                            }
+                            return null;
+                        }
+                    });
+            if (!tasks.isEmpty()) {
+                try {
+                    current.executor.execute(task);
+                } catch (RejectedExecutionException e) {
+                    // Run by the calling thread below
+                }
+            }
+            tasks.add(task);
+        }
+        awaitAll(tasks);
+    }
+
+    /**
+     * Runs the tasks that have not been started yet and waits for all of them
+     * to complete, even if some fail, so that no worker thread is left
+     * modifying the clones.
+     */
+    private static void awaitAll(List<FutureTask<Void>> tasks)
+            throws CloneNotSupportedException {
+        Throwable failure = null;
+        boolean interrupted = false;
+        for (FutureTask<Void> task : tasks) {
+            task.run();
+            while (true) {
+                try {
+                    task.get();
+                    break;
+                } catch (InterruptedException e) {
+                    interrupted = true;
+                } catch (ExecutionException e) {
+                    if (failure == null) {
+                        failure = e.getCause();
+                    }
+                    break;
+                }
+            }
+        }
+        if (interrupted) {
+            Thread.currentThread().interrupt();
+        }
+        if (failure instanceof CloneNotSupportedException) {
+            throw (CloneNotSupportedException) failure;
+        } else if (failure instanceof RuntimeException) {
+            throw (RuntimeException) failure;
+        } else if (failure instanceof Error) {
+            throw (Error) failure;
+        } else if (failure != null) {
+            final CloneNotSupportedException exception = new CloneNotSupportedException(
+                    "Could not clone items in parallel");
+            exception.initCause(failure);
+            throw exception;
+        }
+    }
+}
@@ -0,0 +1,229 @@
+/*
+ * Copyright (c) 2011 Petter Holmström
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.github.peholmst.stuff4vaadin.clone.processor;
+
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import javax.annotation.processing.AbstractProcessor;
+import javax.annotation.processing.RoundEnvironment;
+import javax.annotation.processing.SupportedAnnotationTypes;
+import javax.lang.model.SourceVersion;
+import javax.lang.model.element.Element;
+import javax.lang.model.element.ElementKind;
+import javax.lang.model.element.Modifier;
+import javax.lang.model.element.NestingKind;
+import javax.lang.model.element.PackageElement;
+import javax.lang.model.element.TypeElement;
+import javax.lang.model.element.VariableElement;
+import javax.lang.model.type.TypeKind;
+import javax.lang.model.type.TypeMirror;
+import javax.tools.Diagnostic;
+
+import com.github.peholmst.stuff4vaadin.clone.CloneContext;
+import com.github.peholmst.stuff4vaadin.clone.CloneThis;
+import com.github.peholmst.stuff4vaadin.clone.Cloner;
+import com.github.peholmst.stuff4vaadin.clone.ClonerSupport;
+
+/**
+ * This annotation processor generates a {@link Cloner} for every class that
+ * declares {@link CloneThis}-annotated fields. The generated cloners access the
+ * fields directly instead of using reflection, and are picked up automatically
+ * by {@link com.github.peholmst.stuff4vaadin.clone.CloneUtil#deepClone(Cloneable)}.
+ * <p>
+ * The processor is not registered as a service, so it has to be enabled
+ * explicitly, e.g.:
+ * 
+ * <pre>
+ * javac -processor com.github.peholmst.stuff4vaadin.clone.processor.ClonerProcessor ...
+ * </pre>
+ * 
+ * Since the cloner is a separate class in the same package, no cloner is
+ * generated for private classes or for classes with private, final or
+ * primitive annotated fields. The fields of such classes are still cloned
+ * using reflection.
+ * 
+ * @author Petter Holmström
+ * @since 1.0
+ */
+@SupportedAnnotationTypes("com.github.peholmst.stuff4vaadin.clone.CloneThis")
+public class ClonerProcessor extends AbstractProcessor {
+
+    @Override
+    public SourceVersion getSupportedSourceVersion() {
+        return SourceVersion.latestSupported();
+    }
+
+    @Override
+    public boolean process(Set<? extends TypeElement> annotations,
+            RoundEnvironment roundEnv) {
+        final Map<TypeElement, List<VariableElement>> fieldsByType = new LinkedHashMap<TypeElement, List<VariableElement>>();
+        for (Element element : roundEnv
+                .getElementsAnnotatedWith(CloneThis.class)) {
+            if (element.getKind() == ElementKind.FIELD) {
+                final TypeElement type = (TypeElement) element
+                        .getEnclosingElement();
+                List<VariableElement> fields = fieldsByType.get(type);
+                if (fields == null) {
+                    fields = new ArrayList<VariableElement>();
+                    fieldsByType.put(type, fields);
+                }
+                fields.add((VariableElement) element);
+            }
+        }
+        for (Map.Entry<TypeElement, List<VariableElement>> entry : fieldsByType
+                .entrySet()) {
+            if (canGenerateCloner(entry.getKey(), entry.getValue())) {
+                try {
+                    generateCloner(entry.getKey(), entry.getValue());
+                } catch (IOException e) {
+                    processingEnv.getMessager().printMessage(
+                            Diagnostic.Kind.ERROR,
+                            "Could not generate cloner: " + e, entry.getKey());
+                }
+            }
+        }
+        return false;
+    }
+
+    private boolean canGenerateCloner(TypeElement type,
+            List<VariableElement> fields) {
+        if (type.getKind() != ElementKind.CLASS
+                || (type.getNestingKind() != NestingKind.TOP_LEVEL && type
+                        .getNestingKind() != NestingKind.MEMBER)) {
+            return skip(type, "it is not a top level or member class");
+        }
+        for (Element enclosing = type; enclosing instanceof TypeElement; enclosing = enclosing
+                .getEnclosingElement()) {
+            if (enclosing.getModifiers().contains(Modifier.PRIVATE)) {
+                return skip(type, "it is private");
+            }
+        }
+        for (VariableElement field : fields) {
+            if (field.getModifiers().contains(Modifier.PRIVATE)
+                    || field.getModifiers().contains(Modifier.FINAL)) {
+                return skip(type, "the field " + field.getSimpleName()
+                        + " is private or final");
+            } else if (field.asType().getKind().isPrimitive()) {
+                return skip(type, "the field " + field.getSimpleName()
+                        + " is primitive");
+            }
+        }
+        return true;
+    }
+
+    private boolean skip(TypeElement type, String reason) {
+        processingEnv.getMessager().printMessage(
+                Diagnostic.Kind.NOTE,
+                "No cloner generated for " + type.getQualifiedName()
+                        + " because " + reason
+                        + "; its fields will be cloned using reflection",
+                type);
+        return false;
+    }
+
+    private void generateCloner(TypeElement type, List<VariableElement> fields)
+            throws IOException {
+        final PackageElement packageElement = processingEnv.getElementUtils()
+                .getPackageOf(type);
+        final String packageName = packageElement.isUnnamed() ? ""
+                : packageElement.getQualifiedName().toString();
+        final String binaryName = processingEnv.getElementUtils()
+                .getBinaryName(type).toString();
+        final String clonerName = (packageName.length() == 0 ? binaryName
+                : binaryName.substring(packageName.length() + 1))
+                + Cloner.CLASS_NAME_SUFFIX;
+        final String typeName = erasure(type.asType());
+        final String support = ClonerSupport.class.getName();
+
+        final PrintWriter out = new PrintWriter(processingEnv.getFiler()
+                .createSourceFile(binaryName + Cloner.CLASS_NAME_SUFFIX, type)
+                .openWriter());
+        try {
+            if (packageName.length() > 0) {
+                out.println("package " + packageName + ";");
+                out.println();
+            }
+            out.println("/**");
+            out.println(" * Generated by " + getClass().getName()
+                    + ", do not edit.");
+            out.println(" */");
+            out.println("@SuppressWarnings({ \"unchecked\", \"rawtypes\" })");
+            out.println("public final class " + clonerName + " implements "
+                    + Cloner.class.getName() + "<" + typeName + "> {");
+            out.println();
+            out.println("    public void cloneDeclaredFields(" + typeName
+                    + " shallowClone,");
+            out.println("            " + CloneContext.class.getName()
+                    + " context)");
+            out.println("            throws CloneNotSupportedException {");
+            for (VariableElement field : fields) {
+                final String name = "shallowClone." + field.getSimpleName();
+                final CloneThis cloneAnnotation = field
+                        .getAnnotation(CloneThis.class);
+                out.println("        " + name + " = ("
+                        + erasure(field.asType()) + ") " + support + "."
+                        + cloneMethod(field.asType(), cloneAnnotation) + "("
+                        + name + ", " + cloneAnnotation.deepClone()
+                        + ", context);");
+            }
+            out.println("    }");
+            out.println("}");
+        } finally {
+            out.close();
+        }
+    }
+
+    private String cloneMethod(TypeMirror fieldType, CloneThis cloneAnnotation) {
+        if (cloneAnnotation.lazy() && !cloneAnnotation.deepClone()
+                && isLazyFieldType(fieldType)) {
+            return "cloneLazily";
+        } else if (fieldType.getKind() == TypeKind.ARRAY) {
+            return "cloneArray";
+        } else if (isSubtypeOf(fieldType, "java.util.Collection")) {
+            return "cloneCollection";
+        } else if (isSubtypeOf(fieldType, "java.util.Map")) {
+            return "cloneMap";
+        } else {
+            return "cloneValue";
+        }
+    }
+
+    private boolean isLazyFieldType(TypeMirror fieldType) {
+        final String name = erasure(fieldType);
+        return name.equals("java.util.Collection")
+                || name.equals("java.util.List")
+                || name.equals("java.util.Set")
+                || name.equals("java.util.Map");
+    }
+
+    private boolean isSubtypeOf(TypeMirror type, String className) {
+        final TypeElement element = processingEnv.getElementUtils()
+                .getTypeElement(className);
+        return processingEnv.getTypeUtils().isAssignable(
+                processingEnv.getTypeUtils().erasure(type),
+                processingEnv.getTypeUtils().erasure(element.asType()));
+    }
+
+    private String erasure(TypeMirror type) {
+        return processingEnv.getTypeUtils().erasure(type).toString();
+    }
+}
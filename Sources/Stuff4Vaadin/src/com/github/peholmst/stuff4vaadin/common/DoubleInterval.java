@@ -0,0 +1,268 @@
+/*
+ * Copyright (c) 2011 Petter Holmström
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.github.peholmst.stuff4vaadin.common;
+
+/**
+ * This class represents an interval of doubles. Unlike {@link Interval}, the
+ * end points are stored as primitives. It can be either closed, open or
+ * half-closed. As the values are continuous, the values of the interval cannot
+ * be iterated over.
+ *
+ * @see LongInterval
+ * @see IntInterval
+ * @author Petter Holmström
+ * @since 1.0
+ */
+public final class DoubleInterval implements java.io.Serializable {
+
+    private static final long serialVersionUID = 4553129305373930364L;
+
+    private final double startPoint;
+
+    private final boolean startPointIncluded;
+
+    private final double endPoint;
+
+    private final boolean endPointIncluded;
+
+    private DoubleInterval(double startPoint, boolean startPointIncluded,
+            double endPoint, boolean endPointIncluded) {
+        assert endPoint >= startPoint : "endPoint must be greater than or equal to startPoint";
+        this.startPoint = startPoint;
+        this.startPointIncluded = startPointIncluded;
+        this.endPoint = endPoint;
+        this.endPointIncluded = endPointIncluded;
+    }
+
+    /**
+     * Returns the start point of the interval.
+     */
+    public double getStartPoint() {
+        return startPoint;
+    }
+
+    /**
+     * Returns whether the start point is included or excluded.
+     */
+    public boolean isStartPointIncluded() {
+        return startPointIncluded;
+    }
+
+    /**
+     * Returns the end point of the interval.
+     */
+    public double getEndPoint() {
+        return endPoint;
+    }
+
+    /**
+     * Returns whether the end point is included or excluded.
+     */
+    public boolean isEndPointIncluded() {
+        return endPointIncluded;
+    }
+
+    /**
+     * Returns the length of the interval, i.e. the distance between the start
+     * point and the end point.
+     */
+    public double length() {
+        return endPoint - startPoint;
+    }
+
+    /**
+     * Returns whether the specified value is within the interval.
+     */
+    public boolean contains(double value) {
+        return (startPointIncluded ? value >= startPoint : value > startPoint)
+                && (endPointIncluded ? value <= endPoint : value < endPoint);
+    }
+
+    /**
+     * Returns whether this interval and the specified interval (must not be
+     * <code>null</code>) have at least one value in common.
+     */
+    public boolean intersects(DoubleInterval other) {
+        assert other != null : "other must not be null";
+        if (other.startPoint > endPoint || other.endPoint < startPoint) {
+            return false;
+        } else if (other.startPoint == endPoint) {
+            return other.startPointIncluded && endPointIncluded;
+        } else if (other.endPoint == startPoint) {
+            return other.endPointIncluded && startPointIncluded;
+        }
+        return true;
+    }
+
+    /**
+     * Returns the values that this interval and the specified interval (must
+     * not be <code>null</code>) have in common, or <code>null</code> if the
+     * intervals do not intersect.
+     */
+    public DoubleInterval intersect(DoubleInterval other) {
+        if (!intersects(other)) {
+            return null;
+        }
+        final double from;
+        final boolean fromIncluded;
+        if (startPoint > other.startPoint) {
+            from = startPoint;
+            fromIncluded = startPointIncluded;
+        } else if (startPoint < other.startPoint) {
+            from = other.startPoint;
+            fromIncluded = other.startPointIncluded;
+        } else {
+            from = startPoint;
+            fromIncluded = startPointIncluded && other.startPointIncluded;
+        }
+        final double to;
+        final boolean toIncluded;
+        if (endPoint < other.endPoint) {
+            to = endPoint;
+            toIncluded = endPointIncluded;
+        } else if (endPoint > other.endPoint) {
+            to = other.endPoint;
+            toIncluded = other.endPointIncluded;
+        } else {
+            to = endPoint;
+            toIncluded = endPointIncluded && other.endPointIncluded;
+        }
+        return new DoubleInterval(from, fromIncluded, to, toIncluded);
+    }
+
+    /**
+     * Returns the smallest interval that contains both this interval and the
+     * specified interval (must not be <code>null</code>).
+     */
+    public DoubleInterval span(DoubleInterval other) {
+        assert other != null : "other must not be null";
+        final double from;
+        final boolean fromIncluded;
+        if (startPoint < other.startPoint) {
+            from = startPoint;
+            fromIncluded = startPointIncluded;
+        } else if (startPoint > other.startPoint) {
+            from = other.startPoint;
+            fromIncluded = other.startPointIncluded;
+        } else {
+            from = startPoint;
+            fromIncluded = startPointIncluded || other.startPointIncluded;
+        }
+        final double to;
+        final boolean toIncluded;
+        if (endPoint > other.endPoint) {
+            to = endPoint;
+            toIncluded = endPointIncluded;
+        } else if (endPoint < other.endPoint) {
+            to = other.endPoint;
+            toIncluded = other.endPointIncluded;
+        } else {
+            to = endPoint;
+            toIncluded = endPointIncluded || other.endPointIncluded;
+        }
+        return new DoubleInterval(from, fromIncluded, to, toIncluded);
+    }
+
+    /**
+     * Converts this interval into an {@link Interval}.
+     */
+    public Interval<Double> toInterval() {
+        if (startPointIncluded) {
+            return endPointIncluded ? Interval.createClosedInterval(startPoint,
+                    endPoint) : Interval
+                    .createHalfClosedIntervalEndPointExcluded(startPoint,
+                            endPoint);
+        } else {
+            return endPointIncluded ? Interval
+                    .createHalfClosedIntervalStartPointExcluded(startPoint,
+                            endPoint) : Interval.createOpenInterval(
+                    startPoint, endPoint);
+        }
+    }
+
+    @Override
+    public boolean equals(Object obj) {
+        if (obj == this) {
+            return true;
+        } else if (obj instanceof DoubleInterval) {
+            final DoubleInterval other = (DoubleInterval) obj;
+            return Double.compare(startPoint, other.startPoint) == 0
+                    && Double.compare(endPoint, other.endPoint) == 0
+                    && startPointIncluded == other.startPointIncluded
+                    && endPointIncluded == other.endPointIncluded;
+        }
+        return false;
+    }
+
+    @Override
+    public int hashCode() {
+        final long start = Double.doubleToLongBits(startPoint);
+        final long end = Double.doubleToLongBits(endPoint);
+        int hash = (int) (start ^ (start >>> 32));
+        hash = hash * 31 + (int) (end ^ (end >>> 32));
+        hash = hash * 31 + (startPointIncluded ? 1 : 0);
+        return hash * 31 + (endPointIncluded ? 1 : 0);
+    }
+
+    @Override
+    public String toString() {
+        return (startPointIncluded ? "[" : "(") + startPoint + ", " + endPoint
+                + (endPointIncluded ? "]" : ")");
+    }
+
+    /**
+     * Creates a closed interval, i.e. <code>[from, to]</code>.
+     */
+    public static DoubleInterval createClosedInterval(double from, double to) {
+        return new DoubleInterval(from, true, to, true);
+    }
+
+    /**
+     * Creates an open interval, i.e. <code>(from, to)</code>.
+     */
+    public static DoubleInterval createOpenInterval(double from, double to) {
+        return new DoubleInterval(from, false, to, false);
+    }
+
+    /**
+     * Creates a half-closed interval where the end point is excluded, i.e.
+     * <code>[from, to)</code>.
+     */
+    public static DoubleInterval createHalfClosedIntervalEndPointExcluded(
+            double from, double to) {
+        return new DoubleInterval(from, true, to, false);
+    }
+
+    /**
+     * Creates a half-closed interval where the start point is excluded, i.e.
+     * <code>(from, to]</code>.
+     */
+    public static DoubleInterval createHalfClosedIntervalStartPointExcluded(
+            double from, double to) {
+        return new DoubleInterval(from, false, to, true);
+    }
+
+    /**
+     * Converts the specified {@link Interval} (must not be <code>null</code>)
+     * into a <code>DoubleInterval</code>.
+     */
+    public static DoubleInterval valueOf(Interval<? extends Number> interval) {
+        assert interval != null : "interval must not be null";
+        return new DoubleInterval(interval.getStartPoint().doubleValue(),
+                interval.isStartPointIncluded(), interval.getEndPoint()
+                        .doubleValue(), interval.isEndPointIncluded());
+    }
+}
@@ -0,0 +1,176 @@
+/*
+ * Copyright (c) 2011 Petter Holmström
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.github.peholmst.stuff4vaadin.common;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * This is a histogram of non-negative long values, typically latencies in
+ * nanoseconds. Like an HDR histogram, it uses buckets with a fixed relative
+ * precision: every power of two is divided into {@value #SUB_BUCKET_COUNT}
+ * linear sub-buckets, so a recorded value is off by at most 1/
+ * {@value #SUB_BUCKET_COUNT} (about 6 %) when it is read back. The whole range
+ * of <code>long</code> is covered by {@value #BUCKET_COUNT} buckets.
+ * <p>
+ * Recording a value is lock-free and does not allocate any objects. Reading
+ * the histogram while values are recorded gives approximate results.
+ * <p>
+ * This class is thread safe.
+ * 
+ * @author Petter Holmström
+ * @since 1.0
+ */
+public final class LatencyHistogram {
+
+    private static final int SUB_BUCKET_BITS = 4;
+
+    public static final int SUB_BUCKET_COUNT = 1 << SUB_BUCKET_BITS;
+
+    public static final int BUCKET_COUNT = (64 - SUB_BUCKET_BITS)
+            * SUB_BUCKET_COUNT;
+
+    private final AtomicLongArray buckets = new AtomicLongArray(BUCKET_COUNT);
+
+    private final AtomicLong count = new AtomicLong();
+
+    private final AtomicLong sum = new AtomicLong();
+
+    private final AtomicLong max = new AtomicLong();
+
+    /**
+     * Records the specified value (must not be negative).
+     */
+    public void record(long value) {
+        assert value >= 0 : "value must not be negative";
+        buckets.incrementAndGet(bucketIndex(value));
+        count.incrementAndGet();
+        sum.addAndGet(value);
+        long currentMax = max.get();
+        while (value > currentMax && !max.compareAndSet(currentMax, value)) {
+            currentMax = max.get();
+        }
+    }
+
+    /**
+     * Adds all the values recorded by the specified histogram (must not be
+     * <code>null</code>) to this histogram. This makes it possible to record
+     * values in one histogram per thread and merge them afterwards.
+     */
+    public void add(LatencyHistogram other) {
+        assert other != null : "other must not be null";
+        for (int i = 0; i < BUCKET_COUNT; ++i) {
+            final long bucket = other.buckets.get(i);
+            if (bucket != 0) {
+                buckets.addAndGet(i, bucket);
+            }
+        }
+        count.addAndGet(other.count.get());
+        sum.addAndGet(other.sum.get());
+        final long otherMax = other.max.get();
+        long currentMax = max.get();
+        while (otherMax > currentMax && !max.compareAndSet(currentMax, otherMax)) {
+            currentMax = max.get();
+        }
+    }
+
+    /**
+     * Returns the number of recorded values.
+     */
+    public long getCount() {
+        return count.get();
+    }
+
+    /**
+     * Returns the exact maximum of the recorded values, or 0 if no values have
+     * been recorded.
+     */
+    public long getMax() {
+        return max.get();
+    }
+
+    /**
+     * Returns the exact mean of the recorded values, or 0 if no values have
+     * been recorded.
+     */
+    public double getMean() {
+        final long n = count.get();
+        return n == 0 ? 0.0 : (double) sum.get() / n;
+    }
+
+    /**
+     * Returns the value below or at which the specified percentage of the
+     * recorded values fall, or 0 if no values have been recorded.
+     * 
+     * @param percentile
+     *            the percentile, between 0 and 100.
+     * @return the highest value of the bucket containing the percentile,
+     *         never more than {@link #getMax()}.
+     */
+    public long getValueAtPercentile(double percentile) {
+        assert percentile >= 0.0 && percentile <= 100.0 : "percentile must be between 0 and 100";
+        long total = 0;
+        for (int i = 0; i < BUCKET_COUNT; ++i) {
+            total += buckets.get(i);
+        }
+        if (total == 0) {
+            return 0;
+        }
+        final long target = Math.max(1,
+                (long) Math.ceil(total * percentile / 100.0));
+        long seen = 0;
+        for (int i = 0; i < BUCKET_COUNT; ++i) {
+            seen += buckets.get(i);
+            if (seen >= target) {
+                return Math.min(bucketUpperBound(i), max.get());
+            }
+        }
+        return max.get();
+    }
+
+    /**
+     * Removes all recorded values. Values that are recorded at the same time
+     * may be partly lost.
+     */
+    public void reset() {
+        for (int i = 0; i < BUCKET_COUNT; ++i) {
+            buckets.set(i, 0);
+        }
+        count.set(0);
+        sum.set(0);
+        max.set(0);
+    }
+
+    static int bucketIndex(long value) {
+        if (value < SUB_BUCKET_COUNT) {
+            return (int) value;
+        }
+        final int shift = 63 - Long.numberOfLeadingZeros(value)
+                - SUB_BUCKET_BITS;
+        final int subBucket = (int) (value >>> shift) - SUB_BUCKET_COUNT;
+        return ((shift + 1) << SUB_BUCKET_BITS) + subBucket;
+    }
+
+    static long bucketUpperBound(int index) {
+        if (index < SUB_BUCKET_COUNT) {
+            return index;
+        }
+        final int shift = (index >>> SUB_BUCKET_BITS) - 1;
+        final long mantissa = SUB_BUCKET_COUNT
+                + (index & (SUB_BUCKET_COUNT - 1));
+        return ((mantissa + 1) << shift) - 1;
+    }
+}
@@ -0,0 +1,217 @@
+/*
+ * Copyright (c) 2011 Petter Holmström
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.github.peholmst.stuff4vaadin.common;
+
+/**
+ * This class represents a non-empty interval of long integers. Unlike
+ * {@link Interval}, the end points are stored as primitives. Since the values
+ * are discrete, the interval is always stored as a closed interval; open end
+ * points are converted into included end points when the interval is created.
+ *
+ * @see IntInterval
+ * @see DoubleInterval
+ * @author Petter Holmström
+ * @since 1.0
+ */
+public final class LongInterval implements java.io.Serializable {
+
+    private static final long serialVersionUID = 1969488106718811014L;
+
+    /**
+     * Interface to be implemented by visitors of the values of a
+     * {@link LongInterval}.
+     */
+    public interface Visitor {
+
+        /**
+         * Visits the specified value.
+         */
+        void visit(long value);
+    }
+
+    private final long startPoint;
+
+    private final long endPoint;
+
+    private LongInterval(long startPoint, long endPoint) {
+        assert endPoint >= startPoint : "endPoint must be greater than or equal to startPoint";
+        this.startPoint = startPoint;
+        this.endPoint = endPoint;
+    }
+
+    /**
+     * Returns the included start point of the interval.
+     */
+    public long getStartPoint() {
+        return startPoint;
+    }
+
+    /**
+     * Returns the included end point of the interval.
+     */
+    public long getEndPoint() {
+        return endPoint;
+    }
+
+    /**
+     * Returns the number of values in the interval.
+     */
+    public long length() {
+        return endPoint - startPoint + 1;
+    }
+
+    /**
+     * Returns whether the specified value is within the interval.
+     */
+    public boolean contains(long value) {
+        return value >= startPoint && value <= endPoint;
+    }
+
+    /**
+     * Returns whether the specified interval (must not be <code>null</code>) is
+     * completely within this interval.
+     */
+    public boolean contains(LongInterval other) {
+        assert other != null : "other must not be null";
+        return other.startPoint >= startPoint && other.endPoint <= endPoint;
+    }
+
+    /**
+     * Returns whether this interval and the specified interval (must not be
+     * <code>null</code>) have at least one value in common.
+     */
+    public boolean intersects(LongInterval other) {
+        assert other != null : "other must not be null";
+        return other.startPoint <= endPoint && other.endPoint >= startPoint;
+    }
+
+    /**
+     * Returns the values that this interval and the specified interval (must
+     * not be <code>null</code>) have in common, or <code>null</code> if the
+     * intervals do not intersect.
+     */
+    public LongInterval intersect(LongInterval other) {
+        if (!intersects(other)) {
+            return null;
+        }
+        return new LongInterval(Math.max(startPoint, other.startPoint),
+                Math.min(endPoint, other.endPoint));
+    }
+
+    /**
+     * Returns the smallest interval that contains both this interval and the
+     * specified interval (must not be <code>null</code>).
+     */
+    public LongInterval span(LongInterval other) {
+        assert other != null : "other must not be null";
+        return new LongInterval(Math.min(startPoint, other.startPoint),
+                Math.max(endPoint, other.endPoint));
+    }
+
+    /**
+     * Visits all the values of the interval in ascending order with the
+     * specified visitor (must not be <code>null</code>).
+     */
+    public void visitValues(Visitor visitor) {
+        assert visitor != null : "visitor must not be null";
+        for (long value = startPoint; value <= endPoint; ++value) {
+            visitor.visit(value);
+            if (value == Long.MAX_VALUE) {
+                break;
+            }
+        }
+    }
+
+    /**
+     * Converts this interval into a closed {@link Interval}.
+     */
+    public Interval<Long> toInterval() {
+        return Interval.createClosedInterval(startPoint, endPoint);
+    }
+
+    @Override
+    public boolean equals(Object obj) {
+        if (obj == this) {
+            return true;
+        } else if (obj instanceof LongInterval) {
+            final LongInterval other = (LongInterval) obj;
+            return startPoint == other.startPoint && endPoint == other.endPoint;
+        }
+        return false;
+    }
+
+    @Override
+    public int hashCode() {
+        return (int) (startPoint ^ (startPoint >>> 32)) * 31
+                + (int) (endPoint ^ (endPoint >>> 32));
+    }
+
+    @Override
+    public String toString() {
+        return "[" + startPoint + ", " + endPoint + "]";
+    }
+
+    /**
+     * Creates a closed interval, i.e. <code>[from, to]</code>.
+     *
+     * @param from
+     *            the included start point of the interval.
+     * @param to
+     *            the included end point of the interval.
+     * @return the new interval.
+     */
+    public static LongInterval createClosedInterval(long from, long to) {
+        return new LongInterval(from, to);
+    }
+
+    /**
+     * Creates a half-closed interval where the end point is excluded, i.e.
+     * <code>[from, to)</code>.
+     *
+     * @param from
+     *            the included start point of the interval.
+     * @param to
+     *            the excluded end point of the interval (must be greater than
+     *            <code>from</code>).
+     * @return the new interval.
+     */
+    public static LongInterval createHalfClosedIntervalEndPointExcluded(
+            long from, long to) {
+        return new LongInterval(from, to - 1);
+    }
+
+    /**
+     * Converts the specified {@link Interval} (must not be <code>null</code>)
+     * into a <code>LongInterval</code>. Excluded end points are converted into
+     * included ones.
+     *
+     * @param interval
+     *            the interval to convert.
+     * @return the new interval.
+     */
+    public static LongInterval valueOf(Interval<? extends Number> interval) {
+        assert interval != null : "interval must not be null";
+        long from = interval.getStartPoint().longValue();
+        if (!interval.isStartPointIncluded()) {
+            ++from;
+        }
+        long to = interval.getEndPoint().longValue();
+        if (!interval.isEndPointIncluded()) {
+            --to;
+        }
+        return new LongInterval(from, to);
+    }
+}
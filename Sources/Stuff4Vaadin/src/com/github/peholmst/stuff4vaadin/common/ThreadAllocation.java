@@ -0,0 +1,149 @@
+/*
+ * Copyright (c) 2011 Petter Holmström
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.github.peholmst.stuff4vaadin.common;
+
+import java.lang.management.ManagementFactory;
+import java.lang.reflect.Method;
+
+/**
+ * This class measures the number of bytes allocated by the current thread
+ * using <code>com.sun.management.ThreadMXBean</code>, which is not available
+ * on all JVMs. It is used by the clone metrics and by the benchmarks.
+ * <p>
+ * When the interface can be loaded, the bean is called directly. Otherwise it
+ * is called using reflection, and the bytes allocated by the reflective call
+ * itself (the boxed thread ID, the argument array and the boxed result) are
+ * measured once and subtracted from the subsequent measurements.
+ * <p>
+ * This class is thread safe.
+ * 
+ * @author Petter Holmström
+ * @since 1.0
+ */
+public final class ThreadAllocation {
+
+    private static final Object threadBean = ManagementFactory
+            .getThreadMXBean();
+
+    private static final Probe probe = createProbe();
+
+    private ThreadAllocation() {
+    }
+
+    private static abstract class Probe {
+
+        /**
+         * Returns the total number of bytes allocated by the current thread,
+         * or a negative value if it cannot be measured.
+         */
+        abstract long allocatedBytes();
+    }
+
+    /**
+     * Calls the bean directly. This class is only loaded if
+     * <code>com.sun.management.ThreadMXBean</code> is available.
+     */
+    private static final class DirectProbe extends Probe {
+
+        private final com.sun.management.ThreadMXBean bean = (com.sun.management.ThreadMXBean) threadBean;
+
+        @Override
+        long allocatedBytes() {
+            return bean.getThreadAllocatedBytes(Thread.currentThread().getId());
+        }
+    }
+
+    /**
+     * Calls the bean using reflection, subtracting the bytes allocated by the
+     * previous calls in the current thread.
+     */
+    private static final class ReflectiveProbe extends Probe {
+
+        private static final int CALIBRATION_CALLS = 100;
+
+        private final Method method;
+
+        private final ThreadLocal<long[]> calls = new ThreadLocal<long[]>() {
+            @Override
+            protected long[] initialValue() {
+                return new long[1];
+            }
+        };
+
+        private final long overheadPerCall;
+
+        ReflectiveProbe(Method method) throws Exception {
+            this.method = method;
+            long overhead = Long.MAX_VALUE;
+            long previous = invoke();
+            for (int i = 0; i < CALIBRATION_CALLS; ++i) {
+                final long bytes = invoke();
+                overhead = Math.min(overhead, bytes - previous);
+                previous = bytes;
+            }
+            this.overheadPerCall = Math.max(overhead, 0L);
+        }
+
+        private long invoke() throws Exception {
+            return (Long) method.invoke(threadBean, Thread.currentThread()
+                    .getId());
+        }
+
+        @Override
+        long allocatedBytes() {
+            final long[] count = calls.get();
+            try {
+                final long bytes = invoke();
+                return bytes < 0 ? bytes : bytes - overheadPerCall * count[0]++;
+            } catch (Exception e) {
+                return -1L;
+            }
+        }
+    }
+
+    private static Probe createProbe() {
+        try {
+            final Class<?> beanClass = Class
+                    .forName("com.sun.management.ThreadMXBean");
+            if (beanClass.isInstance(threadBean)
+                    && (Boolean) beanClass.getMethod(
+                            "isThreadAllocatedMemorySupported").invoke(
+                            threadBean)) {
+                try {
+                    return new DirectProbe();
+                } catch (LinkageError e) {
+                    return new ReflectiveProbe(beanClass.getMethod(
+                            "getThreadAllocatedBytes", long.class));
+                }
+            }
+        } catch (Exception e) {
+            // Not available, allocations cannot be measured
+        }
+        return null;
+    }
+
+    /**
+     * Returns the total number of bytes allocated by the current thread so far,
+     * or -1 if it cannot be measured.
+     */
+    public static long currentThreadAllocatedBytes() {
+        if (probe == null) {
+            return -1L;
+        }
+        final long bytes = probe.allocatedBytes();
+        return bytes < 0 ? -1L : bytes;
+    }
+}
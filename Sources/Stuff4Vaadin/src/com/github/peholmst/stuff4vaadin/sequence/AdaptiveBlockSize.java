@@ -0,0 +1,125 @@
+/*
+ * Copyright (c) 2011 Petter Holmström
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.github.peholmst.stuff4vaadin.sequence;
+
+/**
+ * This class decides how many blocks a {@link DataSourceSequence} should
+ * reserve at a time, based on how quickly the previous reservation was used
+ * up. If the time between two reservations is shorter than half the target
+ * interval, the block count is doubled. If it is longer than twice the target
+ * interval, the block count is halved. The block count always stays between
+ * the configured bounds.
+ * <p>
+ * A block is the number of values that one <code>NEXTVAL</code> call on the
+ * database sequence covers, i.e. the increment of the sequence.
+ * <p>
+ * This class is thread safe.
+ *
+ * @author Petter Holmström
+ * @since 1.0
+ */
+public class AdaptiveBlockSize implements java.io.Serializable {
+
+    private static final long serialVersionUID = 6106587306812350371L;
+
+    private final int minBlockCount;
+
+    private final int maxBlockCount;
+
+    private final long targetIntervalNanos;
+
+    private int currentBlockCount;
+
+    private long lastReservationNanos;
+
+    private boolean firstReservation = true;
+
+    /**
+     * Creates a new <code>AdaptiveBlockSize</code>.
+     *
+     * @param minBlockCount
+     *            the minimum number of blocks to reserve at a time (must be
+     *            greater than zero).
+     * @param maxBlockCount
+     *            the maximum number of blocks to reserve at a time (must be
+     *            greater than or equal to <code>minBlockCount</code>).
+     * @param targetIntervalMillis
+     *            the desired time between two reservations in milliseconds
+     *            (must be greater than zero).
+     */
+    public AdaptiveBlockSize(int minBlockCount, int maxBlockCount,
+            long targetIntervalMillis) {
+        assert minBlockCount > 0 : "minBlockCount must be greater than zero";
+        assert maxBlockCount >= minBlockCount : "maxBlockCount must be greater than or equal to minBlockCount";
+        assert targetIntervalMillis > 0 : "targetIntervalMillis must be greater than zero";
+        this.minBlockCount = minBlockCount;
+        this.maxBlockCount = maxBlockCount;
+        this.targetIntervalNanos = targetIntervalMillis * 1000000L;
+        this.currentBlockCount = minBlockCount;
+    }
+
+    /**
+     * Returns the minimum number of blocks to reserve at a time.
+     */
+    public final int getMinBlockCount() {
+        return minBlockCount;
+    }
+
+    /**
+     * Returns the maximum number of blocks to reserve at a time.
+     */
+    public final int getMaxBlockCount() {
+        return maxBlockCount;
+    }
+
+    /**
+     * Returns the number of blocks that were returned by the latest call to
+     * {@link #nextBlockCount()}.
+     */
+    public synchronized int getCurrentBlockCount() {
+        return currentBlockCount;
+    }
+
+    /**
+     * Records that a reservation is about to take place and returns the number
+     * of blocks that should be reserved.
+     */
+    public synchronized int nextBlockCount() {
+        final long now = currentTimeNanos();
+        if (firstReservation) {
+            firstReservation = false;
+        } else {
+            final long elapsed = now - lastReservationNanos;
+            if (elapsed < targetIntervalNanos / 2) {
+                currentBlockCount = (int) Math.min(maxBlockCount,
+                        2L * currentBlockCount);
+            } else if (elapsed > targetIntervalNanos * 2) {
+                currentBlockCount = Math.max(minBlockCount,
+                        currentBlockCount / 2);
+            }
+        }
+        lastReservationNanos = now;
+        return currentBlockCount;
+    }
+
+    /**
+     * Returns the current time in nanoseconds. Subclasses may override for
+     * testing purposes.
+     */
+    protected long currentTimeNanos() {
+        return System.nanoTime();
+    }
+}
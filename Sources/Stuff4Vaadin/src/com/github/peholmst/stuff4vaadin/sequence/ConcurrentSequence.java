@@ -0,0 +1,262 @@
+/*
+ * Copyright (c) 2011 Petter Holmström
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.github.peholmst.stuff4vaadin.sequence;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+
+import com.github.peholmst.stuff4vaadin.common.LongInterval;
+
+/**
+ * This is a {@link Sequence}-implementation that hands out values without
+ * locking. The actual intervals are reserved by a backend sequence, e.g. a
+ * {@link DataSourceSequence} or an {@link InMemorySequence}.
+ * <p>
+ * Values are handed out from the current interval using an atomic
+ * fetch-and-add. Only the thread that runs out of values reserves a new
+ * interval from the backend; other threads that run out at the same time wait
+ * until the new interval has been installed. The waiting threads spin briefly
+ * and then block, as the reservation may be a database round-trip. The
+ * semantics are the same as for {@link Sequence}: values within an interval
+ * are handed out without gaps and no value is ever returned twice.
+ * <p>
+ * This class is thread safe.
+ *
+ * @author Petter Holmström
+ * @since 1.0
+ */
+public class ConcurrentSequence extends Sequence {
+
+    private static final long serialVersionUID = -1380936217431000736L;
+
+    /**
+     * The number of times a thread that waits for the next interval yields
+     * before it blocks.
+     */
+    private static final int SPIN_LIMIT = 100;
+
+    /**
+     * An interval of reserved values. <code>nextValue</code> may grow beyond
+     * <code>maxValue</code>, in which case the block is exhausted.
+     */
+    private static final class Block implements java.io.Serializable {
+
+        private static final long serialVersionUID = 2868513478012418129L;
+
+        private final AtomicLong nextValue;
+
+        private final long maxValue;
+
+        Block(long firstValue, long maxValue) {
+            this.nextValue = new AtomicLong(firstValue);
+            this.maxValue = maxValue;
+        }
+
+        static Block exhausted() {
+            return new Block(0L, -1L);
+        }
+    }
+
+    private final Sequence backend;
+
+    private final AtomicReference<Block> currentBlock = new AtomicReference<Block>(
+            Block.exhausted());
+
+    /**
+     * Creates a new <code>ConcurrentSequence</code> that reserves its intervals
+     * from the specified backend sequence.
+     *
+     * @param backend
+     *            the sequence to reserve intervals from (must not be
+     *            <code>null</code>). Its {@link #getNextValue()} method is
+     *            never invoked.
+     */
+    public ConcurrentSequence(Sequence backend) {
+        assert backend != null : "backend must not be null";
+        this.backend = backend;
+    }
+
+    /**
+     * Returns the backend sequence (never <code>null</code>).
+     */
+    public final Sequence getBackend() {
+        return backend;
+    }
+
+    @Override
+    protected LongInterval reserveSequenceInterval() {
+        return backend.reserveInterval();
+    }
+
+    @Override
+    public long getNextValue() {
+        while (true) {
+            final Block block = currentBlock.get();
+            final long value = block.nextValue.getAndIncrement();
+            if (value <= block.maxValue) {
+                return value;
+            } else if (value == block.maxValue + 1) {
+                /*
+                 * We were the first thread to run out of values, so we are
+                 * responsible for reserving the next interval.
+                 */
+                return reserveNextBlock(block, 1L).getStartPoint();
+            } else {
+                /*
+                 * Another thread is reserving the next interval, wait for it to
+                 * be installed.
+                 */
+                awaitNextBlock(block);
+            }
+        }
+    }
+
+    @Override
+    public long[] getNextValues(int count) {
+        assert count >= 0 : "count must not be negative";
+        final long[] values = new long[count];
+        int i = 0;
+        while (i < count) {
+            final Block block = currentBlock.get();
+            final int wanted = count - i;
+            final long firstValue = block.nextValue.getAndAdd(wanted);
+            if (firstValue > block.maxValue + 1) {
+                // Another thread is reserving the next interval
+                awaitNextBlock(block);
+                continue;
+            }
+            final long available = Math.min(wanted, block.maxValue - firstValue
+                    + 1);
+            for (long value = firstValue; value < firstValue + available; ++value) {
+                values[i++] = value;
+            }
+            if (available < wanted) {
+                /*
+                 * We took the last values of the interval, so we are
+                 * responsible for reserving the next one.
+                 */
+                values[i++] = reserveNextBlock(block, 1L).getStartPoint();
+            }
+        }
+        return values;
+    }
+
+    /**
+     * Takes at most <code>maxCount</code> consecutive values from the current
+     * interval at once, reserving a new interval if the current one has run
+     * out. Fewer values are returned if the current interval does not have
+     * enough values left. This is used by {@link StripedSequence} to carve
+     * sub-blocks for its stripes without locking.
+     * 
+     * @param maxCount
+     *            the maximum number of values to take (must be greater than
+     *            zero).
+     * @return the values (never <code>null</code> nor empty).
+     */
+    LongInterval getNextInterval(long maxCount) {
+        assert maxCount > 0 : "maxCount must be greater than zero";
+        while (true) {
+            final Block block = currentBlock.get();
+            final long firstValue = block.nextValue.getAndAdd(maxCount);
+            final long lastValue = firstValue + maxCount - 1;
+            if (lastValue <= block.maxValue) {
+                return LongInterval.createClosedInterval(firstValue, lastValue);
+            } else if (firstValue <= block.maxValue) {
+                /*
+                 * We took the last values of the interval, so we are
+                 * responsible for reserving the next one.
+                 */
+                reserveNextBlock(block, 0L);
+                return LongInterval.createClosedInterval(firstValue,
+                        block.maxValue);
+            } else if (firstValue == block.maxValue + 1) {
+                final LongInterval interval = reserveNextBlock(block, maxCount);
+                return LongInterval.createClosedInterval(interval
+                        .getStartPoint(), Math.min(interval.getEndPoint(),
+                        interval.getStartPoint() + maxCount - 1));
+            } else {
+                awaitNextBlock(block);
+            }
+        }
+    }
+
+    /**
+     * Returns the number of values that are left in the current interval. The
+     * result may be zero or negative when the interval has run out.
+     */
+    @Override
+    protected long getRemainingValues() {
+        final Block block = currentBlock.get();
+        return block.maxValue - block.nextValue.get() + 1;
+    }
+
+    /**
+     * Waits until the specified block has been replaced. Spins for a while, as
+     * in-memory reservations are fast, and then waits on the monitor of the
+     * block, which is notified by {@link #reserveNextBlock(Block, long)}.
+     */
+    private void awaitNextBlock(Block block) {
+        final SequenceMetrics metrics = getMetrics();
+        final long start = metrics == null ? 0L : System.nanoTime();
+        for (int i = 0; i < SPIN_LIMIT && currentBlock.get() == block; ++i) {
+            Thread.yield();
+        }
+        if (currentBlock.get() == block) {
+            boolean interrupted = false;
+            synchronized (block) {
+                while (currentBlock.get() == block) {
+                    try {
+                        block.wait();
+                    } catch (InterruptedException e) {
+                        interrupted = true;
+                    }
+                }
+            }
+            if (interrupted) {
+                Thread.currentThread().interrupt();
+            }
+        }
+        if (metrics != null) {
+            metrics.callerWaited(this, System.nanoTime() - start);
+        }
+    }
+
+    /**
+     * Reserves a new interval, takes the first <code>count</code> values of it
+     * for the caller and installs the rest as the current block.
+     * 
+     * @return the whole reserved interval.
+     */
+    private LongInterval reserveNextBlock(Block exhaustedBlock, long count) {
+        Block newBlock = Block.exhausted();
+        try {
+            final LongInterval interval = reserveInterval();
+            // If all values are taken, the next caller reserves a new interval
+            newBlock = new Block(Math.min(interval.getStartPoint() + count,
+                    interval.getEndPoint() + 1), interval.getEndPoint());
+            return interval;
+        } finally {
+            /*
+             * If the reservation failed, an exhausted block is installed so that
+             * the next caller tries again.
+             */
+            currentBlock.set(newBlock);
+            synchronized (exhaustedBlock) {
+                exhaustedBlock.notifyAll();
+            }
+        }
+    }
+}
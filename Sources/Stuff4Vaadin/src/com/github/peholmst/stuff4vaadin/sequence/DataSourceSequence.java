@@ -19,6 +19,7 @@ import java.sql.Connection;
 import java.sql.ResultSet;
 import java.sql.SQLException;
 import java.sql.Statement;
+import java.util.LinkedList;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
@@ -29,8 +30,23 @@ import com.github.peholmst.stuff4vaadin.common.Interval;
 
 /**
  * This is a {@link Sequence}-implementation that uses a database sequence as
- * backend and accesses it through JDBC. The SQL syntax used is at least
- * compatible with PostgreSQL and H2.
+ * backend and accesses it through JDBC. Unless a {@link SequenceDialect} is
+ * specified, the SQL syntax used is at least compatible with PostgreSQL and H2
+ * and a reservation requires two or three queries.
+ * <p>
+ * If a dialect is specified, the values are reserved with a single statement
+ * (two for the table based hi/lo dialect).
+ * If the statement returns non-contiguous blocks (because other clients are
+ * using the same database sequence), the blocks are handed out one at a time
+ * by subsequent reservations without accessing the database.
+ * <p>
+ * By default, one block of values (the increment of the database sequence) is
+ * reserved at a time. If both a dialect and an {@link AdaptiveBlockSize} are
+ * specified, several blocks may be reserved at a time depending on how fast the
+ * values are consumed. Without a dialect, the adaptive block size is ignored:
+ * consecutive <code>NEXTVAL</code> queries are not guaranteed to return
+ * adjacent blocks when other clients use the same database sequence, and
+ * looping over them would not save any round-trips anyway.
  * 
  * @author Petter Holmström
  * @since 1.0
@@ -43,6 +59,18 @@ public abstract class DataSourceSequence extends Sequence {
 
     private final String sequenceName;
 
+    private final AdaptiveBlockSize adaptiveBlockSize;
+
+    private final SequenceDialect dialect;
+
+    private final LinkedList<Interval<Long>> pendingIntervals = new LinkedList<Interval<Long>>();
+
+    private transient long increment;
+
+    private final String nextValueQuery;
+
+    private final String currentValueQuery;
+
     private final static String QUERY_NEXT_VALUE = "SELECT NEXTVAL('%s')";
 
     private final static String QUERY_CURRENT_VALUE = "SELECT CURRVAL('%s')";
@@ -52,8 +80,38 @@ public abstract class DataSourceSequence extends Sequence {
      * database sequence.
      */
     public DataSourceSequence(String sequenceName) {
+        this(sequenceName, null, null);
+    }
+
+    /**
+     * Creates a new <code>DataSourceSequence</code> that uses the specified
+     * database sequence and dialect.
+     * 
+     * @param sequenceName
+     *            the name of the database sequence.
+     * @param dialect
+     *            the dialect to use for accessing the database sequence, or
+     *            <code>null</code> to use <code>CURRVAL</code> and
+     *            <code>NEXTVAL</code> queries.
+     * @param adaptiveBlockSize
+     *            the adaptive block size, or <code>null</code> to always
+     *            reserve one block at a time. Only used together with a
+     *            dialect.
+     */
+    public DataSourceSequence(String sequenceName, SequenceDialect dialect,
+            AdaptiveBlockSize adaptiveBlockSize) {
         assert sequenceName != null && !sequenceName.isEmpty() : "sequenceName must not be null nor empty";
         this.sequenceName = sequenceName;
+        this.nextValueQuery = String.format(QUERY_NEXT_VALUE, sequenceName);
+        this.currentValueQuery = String.format(QUERY_CURRENT_VALUE,
+                sequenceName);
+        this.dialect = dialect;
+        this.adaptiveBlockSize = adaptiveBlockSize;
+        if (dialect == null && adaptiveBlockSize != null) {
+            log.log(Level.WARNING,
+                    "Adaptive block size ignored for sequence {0} because no dialect has been specified",
+                    sequenceName);
+        }
     }
 
     /**
@@ -63,6 +121,22 @@ public abstract class DataSourceSequence extends Sequence {
         return sequenceName;
     }
 
+    /**
+     * Returns the adaptive block size, or <code>null</code> if one block is
+     * always reserved at a time.
+     */
+    public final AdaptiveBlockSize getAdaptiveBlockSize() {
+        return adaptiveBlockSize;
+    }
+
+    /**
+     * Returns the dialect, or <code>null</code> if <code>CURRVAL</code> and
+     * <code>NEXTVAL</code> queries are used.
+     */
+    public final SequenceDialect getDialect() {
+        return dialect;
+    }
+
     /**
      * Looks up the JDBC data source that is to be used for accessing the
      * sequence. If the data source cannot be found, an unchecked exception is
@@ -70,48 +144,110 @@ public abstract class DataSourceSequence extends Sequence {
      */
     protected abstract DataSource lookupDataSource();
 
+    /**
+     * Called when a reservation has failed because of a database error. The
+     * default implementation does nothing, but subclasses that cache the data
+     * source returned by {@link #lookupDataSource()} should discard it so that
+     * it is looked up again on the next reservation.
+     */
+    protected void invalidateDataSource() {
+    }
+
     @Override
     protected Interval<Long> reserveSequenceValues() {
         log.log(Level.FINE, "Reserving sequence values");
         log.log(Level.FINE, "Using sequence name {0}", sequenceName);
+        if (dialect != null) {
+            synchronized (pendingIntervals) {
+                if (!pendingIntervals.isEmpty()) {
+                    return pendingIntervals.removeFirst();
+                }
+                return reserveSequenceValuesInDatabase();
+            }
+        }
+        return reserveSequenceValuesInDatabase();
+    }
+
+    private Interval<Long> reserveSequenceValuesInDatabase() {
         DataSource dataSource = lookupDataSource();
         try {
             Connection connection = dataSource.getConnection();
-            long intervalStart = getCurrentSequenceValue(connection);
-            if (intervalStart < 0) {
-                /*
-                 * If the sequence has just been created, the current value may
-                 * be negative, in which case we have to fetch the next sequence
-                 * value.
-                 */
-                intervalStart = getNextSequenceValue(connection);
+            try {
+                final int blockCount = adaptiveBlockSize == null
+                        || dialect == null ? 1 : adaptiveBlockSize
+                        .nextBlockCount();
+                final Interval<Long> interval;
+                if (dialect == null) {
+                    interval = reserveUsingQueries(connection);
+                } else {
+                    interval = reserveUsingDialect(connection, blockCount);
+                }
+                log.log(Level.FINE, "Reserved sequence values [{0}, {1}] ({2} blocks)", new Object[] {interval.getStartPoint(),
+                        interval.getEndPoint(), blockCount});
+                return interval;
+            } finally {
+                closeQuietly(connection);
             }
-            long intervalEnd = getNextSequenceValue(connection) - 1;
-            log.log(Level.FINE, "Reserved sequence values [{0}, {1}]", new Object[] {intervalStart,
-                    intervalEnd});
-            connection.close();
-            return Interval.createClosedInterval(intervalStart, intervalEnd);
         } catch (SQLException e) {
+            invalidateDataSource();
             throw new RuntimeException("Could not reserve sequence values", e);
         }
     }
 
+    private Interval<Long> reserveUsingQueries(Connection connection)
+            throws SQLException {
+        long intervalStart = getCurrentSequenceValue(connection);
+        if (intervalStart < 0) {
+            /*
+             * If the sequence has just been created, the current value may be
+             * negative, in which case we have to fetch the next sequence value.
+             */
+            intervalStart = getNextSequenceValue(connection);
+        }
+        long intervalEnd = getNextSequenceValue(connection) - 1;
+        return Interval.createClosedInterval(intervalStart, intervalEnd);
+    }
+
+    private Interval<Long> reserveUsingDialect(Connection connection,
+            int blockCount) throws SQLException {
+        if (increment == 0) {
+            increment = dialect.getIncrement(connection, sequenceName);
+            log.log(Level.FINE, "Sequence {0} has increment {1}", new Object[] {
+                    sequenceName, increment });
+        }
+        final long[] blockStarts = dialect.nextValues(connection,
+                sequenceName, blockCount);
+        /*
+         * Merge adjacent blocks into intervals. The first interval is returned
+         * and the rest are saved for later reservations.
+         */
+        long intervalStart = blockStarts[0];
+        for (int i = 1; i < blockStarts.length; ++i) {
+            if (blockStarts[i] != blockStarts[i - 1] + increment) {
+                pendingIntervals.add(Interval.createClosedInterval(
+                        intervalStart, blockStarts[i - 1] + increment - 1));
+                intervalStart = blockStarts[i];
+            }
+        }
+        pendingIntervals.add(Interval.createClosedInterval(intervalStart,
+                blockStarts[blockStarts.length - 1] + increment - 1));
+        return pendingIntervals.removeFirst();
+    }
+
     private long getCurrentSequenceValue(Connection connection)
             throws SQLException {
-        return queryForLong(
-                String.format(QUERY_CURRENT_VALUE, getSequenceName()),
-                connection);
+        return queryForLong(currentValueQuery, connection);
     }
 
     private long getNextSequenceValue(Connection connection)
             throws SQLException {
-        return queryForLong(String.format(QUERY_NEXT_VALUE, getSequenceName()),
-                connection);
+        return queryForLong(nextValueQuery, connection);
     }
 
     /**
      * Executes the given SQL query and assumes that the result will contain a
-     * single long integer.
+     * single long integer. The statement and result set are closed before the
+     * method returns.
      * 
      * @param query
      *            the query to execute.
@@ -127,9 +263,27 @@ public abstract class DataSourceSequence extends Sequence {
         assert query != null : "query must not be null";
         assert connection != null : "connection must not be null";
         Statement statement = connection.createStatement();
-        ResultSet result = statement.executeQuery(query);
-        result.next();
-        return result.getLong(1);
+        try {
+            ResultSet result = statement.executeQuery(query);
+            try {
+                if (!result.next()) {
+                    throw new SQLException("Query returned no rows: " + query);
+                }
+                return result.getLong(1);
+            } finally {
+                result.close();
+            }
+        } finally {
+            statement.close();
+        }
+    }
+
+    private static void closeQuietly(Connection connection) {
+        try {
+            connection.close();
+        } catch (SQLException e) {
+            log.log(Level.WARNING, "Could not close connection", e);
+        }
     }
 
 }
@@ -15,18 +15,32 @@
  */
 package com.github.peholmst.stuff4vaadin.sequence;
 
+import java.lang.ref.ReferenceQueue;
+import java.lang.ref.WeakReference;
+import java.util.Collections;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
 /**
  * This is a helper class that generates unique numeric ID values by using an
  * underlying {@link Sequence}. Its primary purpose is to make it possible to
  * generate Entity identifiers early (i.e. when they are created as opposed to
  * when they are persisted) without having to use UUIDs.
  * <p>
- * The sequences are stored in a {@link ThreadLocal}.
+ * How the sequences are shared between threads is determined by the
+ * {@link Scope}. By default, the sequences are stored in a {@link ThreadLocal}
+ * ({@link Scope#THREAD}). The scope can be changed using
+ * {@link #setScope(Scope)} or the {@link #SCOPE_SYSTEM_PROPERTY} system
+ * property.
  * <p>
  * By default, a {@link JndiDataSourceSequence} is used and configured using the
  * {@link #ENTITY_IDENTIFIER_SEQUENCE_NAME_SYSTEM_PROPERTY} and
- * {@link #JDBC_DATASOURCE_JNDI_NAME_SYSTEM_PROPERTY} system properties.
- * 
+ * {@link #JDBC_DATASOURCE_JNDI_NAME_SYSTEM_PROPERTY} system properties. The
+ * default sequences report their metrics to the listener set using
+ * {@link #setMetrics(SequenceMetrics)}, if any.
+ *
  * @author Petter Holmström
  * @since 1.0
  */
@@ -36,22 +50,230 @@ public class IdGenerator {
 
 	public static final String JDBC_DATASOURCE_JNDI_NAME_SYSTEM_PROPERTY = "com.github.peholmst.stuff4vaadin.sequence.IdGeneratorDataSourceName";
 
-	private static final ThreadLocal<Sequence> sequence = new ThreadLocal<Sequence>() {
+	public static final String SCOPE_SYSTEM_PROPERTY = "com.github.peholmst.stuff4vaadin.sequence.IdGenerator.Scope";
+
+	public static final String STRIPE_COUNT_SYSTEM_PROPERTY = "com.github.peholmst.stuff4vaadin.sequence.IdGenerator.StripeCount";
+
+	/**
+	 * Enumeration of the ways the sequences can be shared between threads.
+	 */
+	public enum Scope {
+		/**
+		 * Every thread has its own sequence.
+		 */
+		THREAD,
+		/**
+		 * All threads share the same sequence. The default sequence is wrapped
+		 * in a {@link ConcurrentSequence}.
+		 */
+		SHARED,
+		/**
+		 * The threads are spread over a fixed number of sequences (stripes)
+		 * based on their thread IDs.
+		 */
+		STRIPED,
+		/**
+		 * All threads share the same sequence. The default sequence is wrapped
+		 * in a {@link StripedSequence}, which spreads the threads over a fixed
+		 * number of stripes that share the reservations of the default
+		 * sequence. The values are unique but not ascending across threads.
+		 */
+		SHARED_STRIPED
+	}
+
+	/**
+	 * Base class for the strategies that store the sequences of the different
+	 * scopes.
+	 */
+	private static abstract class SequenceHolder {
+
+		abstract Sequence get();
+
+		abstract void set(Sequence sequence);
+	}
+
+	private static final class ThreadSequenceHolder extends SequenceHolder {
+
+		/**
+		 * Keeps track of the sequence of a thread so that the values that are
+		 * left in it can be reported when the thread dies.
+		 */
+		private static final class ThreadReference extends
+				WeakReference<Thread> {
+
+			volatile Sequence sequence;
+
+			ThreadReference(Thread thread, Sequence sequence,
+					ReferenceQueue<Thread> queue) {
+				super(thread, queue);
+				this.sequence = sequence;
+			}
+		}
+
+		private final ReferenceQueue<Thread> deadThreads = new ReferenceQueue<Thread>();
+
+		private final Set<ThreadReference> liveThreads = Collections
+				.newSetFromMap(new ConcurrentHashMap<ThreadReference, Boolean>());
+
+		private final ThreadLocal<ThreadReference> sequence = new ThreadLocal<ThreadReference>();
+
+		private ThreadReference register(Sequence sequence) {
+			reportDeadThreads();
+			final ThreadReference reference = new ThreadReference(
+					Thread.currentThread(), sequence, deadThreads);
+			liveThreads.add(reference);
+			this.sequence.set(reference);
+			return reference;
+		}
+
+		private void reportDeadThreads() {
+			ThreadReference reference;
+			while ((reference = (ThreadReference) deadThreads.poll()) != null) {
+				liveThreads.remove(reference);
+				final Sequence sequence = reference.sequence;
+				final SequenceMetrics metrics = sequence.getMetrics();
+				final long remaining = sequence.getRemainingValues();
+				if (metrics != null && remaining > 0) {
+					metrics.valuesDiscarded(sequence, remaining);
+				}
+			}
+		}
+
+		@Override
+		Sequence get() {
+			ThreadReference reference = sequence.get();
+			if (reference == null) {
+				reference = register(withMetrics(createDefaultSequence()));
+			}
+			return reference.sequence;
+		}
+
+		@Override
+		void set(Sequence sequence) {
+			final ThreadReference reference = this.sequence.get();
+			if (reference == null) {
+				register(sequence);
+			} else {
+				reference.sequence = sequence;
+			}
+		}
+	}
+
+	private static final class SharedSequenceHolder extends SequenceHolder {
+
+		private final AtomicReference<Sequence> sequence = new AtomicReference<Sequence>();
+
+		/**
+		 * The number of stripes of the default sequence, or 0 if the default
+		 * sequence should not be striped.
+		 */
+		private final int stripeCount;
+
+		SharedSequenceHolder(int stripeCount) {
+			this.stripeCount = stripeCount;
+		}
+
+		@Override
+		Sequence get() {
+			Sequence result = sequence.get();
+			if (result == null) {
+				final Sequence backend = createDefaultSequence();
+				sequence.compareAndSet(null,
+						withMetrics(stripeCount == 0 ? new ConcurrentSequence(
+								backend) : new StripedSequence(backend,
+								stripeCount,
+								StripedSequence.DEFAULT_SUB_BLOCK_SIZE)));
+				result = sequence.get();
+			}
+			return result;
+		}
+
+		@Override
+		void set(Sequence sequence) {
+			this.sequence.set(sequence);
+		}
+	}
+
+	private static final class StripedSequenceHolder extends SequenceHolder {
+
+		private final AtomicReferenceArray<Sequence> stripes;
+
+		StripedSequenceHolder(int stripeCount) {
+			stripes = new AtomicReferenceArray<Sequence>(stripeCount);
+		}
+
+		private int currentStripe() {
+			return (int) (Thread.currentThread().getId() % stripes.length());
+		}
+
+		@Override
+		Sequence get() {
+			final int stripe = currentStripe();
+			Sequence result = stripes.get(stripe);
+			if (result == null) {
+				stripes.compareAndSet(stripe, null,
+						withMetrics(createDefaultSequence()));
+				result = stripes.get(stripe);
+			}
+			return result;
+		}
+
+		/**
+		 * Replaces the sequences of all the stripes, so that no stripe keeps
+		 * handing out values from the previous sequences.
+		 */
 		@Override
-		protected Sequence initialValue() {
-			return createDefaultSequence();
-		};
-	};
+		void set(Sequence sequence) {
+			for (int i = 0; i < stripes.length(); ++i) {
+				stripes.set(i, sequence);
+			}
+		}
+	}
+
+	private static volatile SequenceHolder holder = createHolder(
+			readScopeProperty(), readStripeCountProperty());
+
+	private static volatile SequenceMetrics metrics;
 
 	private IdGenerator() {
 	}
 
+	private static Sequence withMetrics(Sequence sequence) {
+		sequence.setMetrics(metrics);
+		return sequence;
+	}
+
 	private static Sequence createDefaultSequence() {
 		return new JndiDataSourceSequence(
 				System.getProperty(ENTITY_IDENTIFIER_SEQUENCE_NAME_SYSTEM_PROPERTY),
 				System.getProperty(JDBC_DATASOURCE_JNDI_NAME_SYSTEM_PROPERTY));
 	}
 
+	private static Scope readScopeProperty() {
+		final String scope = System.getProperty(SCOPE_SYSTEM_PROPERTY);
+		return scope == null ? Scope.THREAD : Scope.valueOf(scope);
+	}
+
+	private static int readStripeCountProperty() {
+		final String stripeCount = System
+				.getProperty(STRIPE_COUNT_SYSTEM_PROPERTY);
+		return stripeCount == null ? Runtime.getRuntime()
+				.availableProcessors() : Integer.parseInt(stripeCount);
+	}
+
+	private static SequenceHolder createHolder(Scope scope, int stripeCount) {
+		switch (scope) {
+		case SHARED:
+			return new SharedSequenceHolder(0);
+		case SHARED_STRIPED:
+			return new SharedSequenceHolder(stripeCount);
+		case STRIPED:
+			return new StripedSequenceHolder(stripeCount);
+		default:
+			return new ThreadSequenceHolder();
+		}
+	}
+
 	/**
 	 * Returns the next available ID value. As long as the underlying sequence
 	 * remains the same, subsequent calls to this method will never return the
@@ -61,20 +283,78 @@ public class IdGenerator {
 		return getSequence().getNextValue();
 	}
 
+	/**
+	 * Returns the next <code>count</code> available ID values, taken from the
+	 * underlying sequence in one atomic step. This is considerably cheaper
+	 * than calling {@link #getNextValue()} <code>count</code> times.
+	 * 
+	 * @see Sequence#getNextValues(int)
+	 */
+	public static long[] getNextValues(int count) {
+		return getSequence().getNextValues(count);
+	}
+
+	/**
+	 * Sets the scope of the sequences (must not be <code>null</code>). If the
+	 * scope is {@link Scope#STRIPED} or {@link Scope#SHARED_STRIPED}, the
+	 * number of stripes is read from the {@link #STRIPE_COUNT_SYSTEM_PROPERTY}
+	 * system property and defaults to the number of available processors. All
+	 * sequences that have been set or created before are discarded.
+	 */
+	public static void setScope(Scope scope) {
+		setScope(scope, readStripeCountProperty());
+	}
+
+	/**
+	 * Sets the scope of the sequences (must not be <code>null</code>) and the
+	 * number of stripes to use if the scope is {@link Scope#STRIPED} or
+	 * {@link Scope#SHARED_STRIPED} (must be greater than zero). All sequences
+	 * that have been set or created before are discarded.
+	 */
+	public static void setScope(Scope scope, int stripeCount) {
+		assert scope != null : "scope must not be null";
+		assert stripeCount > 0 : "stripeCount must be greater than zero";
+		holder = createHolder(scope, stripeCount);
+	}
+
+	/**
+	 * Sets the listener that the default sequences report their metrics to, or
+	 * <code>null</code> to turn the metrics off. Only affects sequences that
+	 * are created after this method has been called; sequences set using
+	 * {@link #setSequence(Sequence)} are not affected. In the
+	 * {@link Scope#THREAD} scope, the values that are left in the sequence of
+	 * a thread that dies are reported as discarded when the next thread
+	 * creates its sequence.
+	 */
+	public static void setMetrics(SequenceMetrics metrics) {
+		IdGenerator.metrics = metrics;
+	}
+
+	/**
+	 * Returns the listener that the default sequences report their metrics to,
+	 * or <code>null</code> if the metrics are turned off.
+	 */
+	public static SequenceMetrics getMetrics() {
+		return metrics;
+	}
+
 	/**
 	 * Sets the sequence to use for generating ID values in the current thread
-	 * (must not be <code>null</code>).
+	 * (must not be <code>null</code>). Depending on the {@link Scope}, the
+	 * sequence may also be used by other threads: in the {@link Scope#STRIPED}
+	 * scope, it replaces the sequences of all the stripes and is thus shared
+	 * by all threads.
 	 */
-	public static synchronized void setSequence(Sequence sequence) {
+	public static void setSequence(Sequence sequence) {
 		assert sequence != null : "sequence must not be null";
-		IdGenerator.sequence.set(sequence);
+		holder.set(sequence);
 	}
 
 	/**
 	 * Returns the sequence that is used for generating ID values in the current
 	 * thread (never <code>null</code>).
 	 */
-	public static synchronized Sequence getSequence() {
-		return IdGenerator.sequence.get();
+	public static Sequence getSequence() {
+		return holder.get();
 	}
 }
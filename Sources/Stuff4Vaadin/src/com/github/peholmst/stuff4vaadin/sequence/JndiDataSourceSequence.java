@@ -25,7 +25,8 @@ import javax.sql.DataSource;
 
 /**
  * This is a {@link DataSourceSequence} that uses JNDI to lookup the data
- * source.
+ * source. The data source is looked up once and cached until a reservation
+ * fails, after which it is looked up again.
  * 
  * @author Petter Holmström
  * @since 1.0
@@ -38,6 +39,8 @@ public class JndiDataSourceSequence extends DataSourceSequence {
 
     private final String jndiName;
 
+    private transient volatile DataSource dataSource;
+
     /**
      * Creates a new <code>JndiDataSourceSequence</code>.
      * 
@@ -47,20 +50,53 @@ public class JndiDataSourceSequence extends DataSourceSequence {
      *            the JNDI name of the data source.
      */
     public JndiDataSourceSequence(String sequenceName, String jndiName) {
-        super(sequenceName);
+        this(sequenceName, jndiName, null, null);
+    }
+
+    /**
+     * Creates a new <code>JndiDataSourceSequence</code> that uses the specified
+     * dialect.
+     * 
+     * @param sequenceName
+     *            the name of the database sequence.
+     * @param jndiName
+     *            the JNDI name of the data source.
+     * @param dialect
+     *            the dialect to use for accessing the database sequence, or
+     *            <code>null</code> to use <code>CURRVAL</code> and
+     *            <code>NEXTVAL</code> queries.
+     * @param adaptiveBlockSize
+     *            the adaptive block size, or <code>null</code> to always
+     *            reserve one block at a time. Only used together with a
+     *            dialect.
+     */
+    public JndiDataSourceSequence(String sequenceName, String jndiName,
+            SequenceDialect dialect, AdaptiveBlockSize adaptiveBlockSize) {
+        super(sequenceName, dialect, adaptiveBlockSize);
         assert jndiName != null && !jndiName.isEmpty() : "jndiName must not be null nor empty";
         this.jndiName = jndiName;
     }
 
     @Override
     protected DataSource lookupDataSource() {
-        log.log(Level.INFO, "Looking up data source with JNDI name {0}", getJndiName());
-        try {
-            return (DataSource) new InitialContext().lookup(getJndiName());
-        } catch (NamingException e) {
-            log.log(Level.SEVERE, "Could not find data source", e);
-            throw new IllegalStateException("Could not find data source", e);
+        DataSource result = dataSource;
+        if (result == null) {
+            log.log(Level.INFO, "Looking up data source with JNDI name {0}", getJndiName());
+            try {
+                result = (DataSource) new InitialContext().lookup(getJndiName());
+            } catch (NamingException e) {
+                log.log(Level.SEVERE, "Could not find data source", e);
+                throw new IllegalStateException("Could not find data source", e);
+            }
+            dataSource = result;
         }
+        return result;
+    }
+
+    @Override
+    protected void invalidateDataSource() {
+        log.log(Level.FINE, "Discarding cached data source");
+        dataSource = null;
     }
 
     /**
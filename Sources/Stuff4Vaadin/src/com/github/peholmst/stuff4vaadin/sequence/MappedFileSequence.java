@@ -0,0 +1,171 @@
+/*
+ * Copyright (c) 2011 Petter Holmström
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.github.peholmst.stuff4vaadin.sequence;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+
+import com.github.peholmst.stuff4vaadin.common.LongInterval;
+
+/**
+ * This is a sequence that persists its state in a small memory-mapped file,
+ * making it possible to continue the sequence after a restart without a
+ * database.
+ * <p>
+ * The file only contains the high-water mark, i.e. the first value that has not
+ * been reserved yet. When a new interval is reserved, the high-water mark is
+ * moved past the interval and forced to disk <em>before</em> any of the values
+ * are handed out. Thus, the file is written exactly once per reservation and
+ * if the process is killed, the sequence continues from the next interval. The
+ * values that were left unused in the interval are lost, but no value is ever
+ * returned twice.
+ * <p>
+ * The file must not be shared between processes or between several instances
+ * within the same process.
+ * 
+ * @author Petter Holmström
+ * @since 1.0
+ */
+public class MappedFileSequence extends Sequence {
+
+    private static final long serialVersionUID = -6084209941376573312L;
+
+    public static final long DEFAULT_INCREMENT = 50;
+
+    private static final int MAGIC = 0x53345653;
+
+    private static final int MAGIC_OFFSET = 0;
+
+    private static final int HIGH_WATER_MARK_OFFSET = 8;
+
+    private static final int FILE_SIZE = 16;
+
+    private final File file;
+
+    private final long startWith;
+
+    private final long increment;
+
+    private transient MappedByteBuffer buffer;
+
+    /**
+     * Creates a new <code>MappedFileSequence</code> that starts from 1 and uses
+     * the default increment.
+     * 
+     * @param file
+     *            the file in which to store the high-water mark (must not be
+     *            <code>null</code>).
+     */
+    public MappedFileSequence(File file) {
+        this(file, 1L, DEFAULT_INCREMENT);
+    }
+
+    /**
+     * Creates a new <code>MappedFileSequence</code>. The file is created when
+     * the first interval is reserved. If the file already exists, the sequence
+     * continues from the high-water mark stored in it and <code>startWith</code>
+     * is ignored.
+     * 
+     * @param file
+     *            the file in which to store the high-water mark (must not be
+     *            <code>null</code>).
+     * @param startWith
+     *            the value from which the sequence should start if the file
+     *            does not exist.
+     * @param increment
+     *            the size of the increment (must be greater than zero).
+     */
+    public MappedFileSequence(File file, long startWith, long increment) {
+        assert file != null : "file must not be null";
+        assert increment > 0 : "increment must be greater than zero";
+        this.file = file;
+        this.startWith = startWith;
+        this.increment = increment;
+    }
+
+    /**
+     * Returns the file in which the high-water mark is stored.
+     */
+    public final File getFile() {
+        return file;
+    }
+
+    /**
+     * Returns the increment.
+     */
+    public final long getIncrement() {
+        return increment;
+    }
+
+    /**
+     * Returns the high-water mark, i.e. the first value that has not been
+     * reserved yet.
+     */
+    public final synchronized long getHighWaterMark() {
+        return getBuffer().getLong(HIGH_WATER_MARK_OFFSET);
+    }
+
+    @Override
+    protected synchronized LongInterval reserveSequenceInterval() {
+        final MappedByteBuffer buffer = getBuffer();
+        final long start = buffer.getLong(HIGH_WATER_MARK_OFFSET);
+        final long end = start + increment - 1;
+        buffer.putLong(HIGH_WATER_MARK_OFFSET, end + 1);
+        buffer.force();
+        return LongInterval.createClosedInterval(start, end);
+    }
+
+    private MappedByteBuffer getBuffer() {
+        if (buffer == null) {
+            try {
+                buffer = mapFile();
+            } catch (IOException e) {
+                throw new RuntimeException("Could not map sequence file "
+                        + file, e);
+            }
+        }
+        return buffer;
+    }
+
+    private MappedByteBuffer mapFile() throws IOException {
+        final RandomAccessFile raf = new RandomAccessFile(file, "rw");
+        try {
+            if (raf.length() != 0 && raf.length() != FILE_SIZE) {
+                throw new IllegalStateException("Not a sequence file: " + file);
+            }
+            // The mapping remains valid after the file has been closed
+            final MappedByteBuffer mapped = raf.getChannel().map(
+                    FileChannel.MapMode.READ_WRITE, 0, FILE_SIZE);
+            final int magic = mapped.getInt(MAGIC_OFFSET);
+            if (magic == 0) {
+                // New file, or a crash before the file was initialized. No
+                // values have been handed out in either case.
+                mapped.putLong(HIGH_WATER_MARK_OFFSET, startWith);
+                mapped.force();
+                mapped.putInt(MAGIC_OFFSET, MAGIC);
+                mapped.force();
+            } else if (magic != MAGIC) {
+                throw new IllegalStateException("Not a sequence file: " + file);
+            }
+            return mapped;
+        } finally {
+            raf.close();
+        }
+    }
+}
@@ -0,0 +1,210 @@
+/*
+ * Copyright (c) 2011 Petter Holmström
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.github.peholmst.stuff4vaadin.sequence;
+
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import com.github.peholmst.stuff4vaadin.common.LongInterval;
+
+/**
+ * This is a {@link ConcurrentSequence} that reserves the next interval in the
+ * background before the current one runs out. When the number of remaining
+ * values in the current interval drops to the low-water mark, the next
+ * interval is reserved from the backend using an {@link Executor}. This way,
+ * {@link #getNextValue()} seldom has to wait for e.g. a database round-trip.
+ * <p>
+ * If the prefetched interval is not available when the current interval runs
+ * out, the caller has to wait for it (or reserve it itself if no prefetch was
+ * started). The number of times this happens is available from
+ * {@link #getSynchronousReservationCount()}.
+ * <p>
+ * This class is thread safe.
+ *
+ * @author Petter Holmström
+ * @since 1.0
+ */
+public class PrefetchingSequence extends ConcurrentSequence {
+
+    private static final long serialVersionUID = 5371629815624466407L;
+
+    private static final Logger log = Logger.getLogger(PrefetchingSequence.class.getName());
+
+    private static final ExecutorService defaultExecutor = Executors
+            .newCachedThreadPool(new ThreadFactory() {
+
+                public Thread newThread(Runnable r) {
+                    Thread thread = new Thread(r, "PrefetchingSequence");
+                    thread.setDaemon(true);
+                    return thread;
+                }
+            });
+
+    private final long lowWaterMark;
+
+    private transient Executor executor;
+
+    private transient AtomicReference<Future<LongInterval>> prefetch;
+
+    private final AtomicLong prefetchCount = new AtomicLong();
+
+    private final AtomicLong synchronousReservationCount = new AtomicLong();
+
+    /**
+     * Creates a new <code>PrefetchingSequence</code> that uses a shared daemon
+     * thread pool for prefetching.
+     *
+     * @param backend
+     *            the sequence to reserve intervals from (must not be
+     *            <code>null</code>).
+     * @param lowWaterMark
+     *            the number of remaining values at which the next interval is
+     *            prefetched (must not be negative).
+     */
+    public PrefetchingSequence(Sequence backend, long lowWaterMark) {
+        this(backend, lowWaterMark, null);
+    }
+
+    /**
+     * Creates a new <code>PrefetchingSequence</code>.
+     *
+     * @param backend
+     *            the sequence to reserve intervals from (must not be
+     *            <code>null</code>).
+     * @param lowWaterMark
+     *            the number of remaining values at which the next interval is
+     *            prefetched (must not be negative).
+     * @param executor
+     *            the executor to run the prefetches in, or <code>null</code> to
+     *            use a shared daemon thread pool.
+     */
+    public PrefetchingSequence(Sequence backend, long lowWaterMark,
+            Executor executor) {
+        super(backend);
+        assert lowWaterMark >= 0 : "lowWaterMark must not be negative";
+        this.lowWaterMark = lowWaterMark;
+        this.executor = executor == null ? defaultExecutor : executor;
+        this.prefetch = new AtomicReference<Future<LongInterval>>();
+    }
+
+    /**
+     * Returns the number of remaining values at which the next interval is
+     * prefetched.
+     */
+    public final long getLowWaterMark() {
+        return lowWaterMark;
+    }
+
+    /**
+     * Returns the number of intervals that have been prefetched in the
+     * background.
+     */
+    public long getPrefetchCount() {
+        return prefetchCount.get();
+    }
+
+    /**
+     * Returns the number of times a caller of {@link #getNextValue()} has had
+     * to wait for an interval to be reserved, either because no prefetch had
+     * been started or because the prefetch had not completed yet.
+     */
+    public long getSynchronousReservationCount() {
+        return synchronousReservationCount.get();
+    }
+
+    @Override
+    public long getNextValue() {
+        final long value = super.getNextValue();
+        prefetchIfNeeded();
+        return value;
+    }
+
+    @Override
+    public long[] getNextValues(int count) {
+        final long[] values = super.getNextValues(count);
+        prefetchIfNeeded();
+        return values;
+    }
+
+    private void prefetchIfNeeded() {
+        if (getRemainingValues() <= lowWaterMark && prefetch.get() == null) {
+            startPrefetch();
+        }
+    }
+
+    private void startPrefetch() {
+        final FutureTask<LongInterval> task = new FutureTask<LongInterval>(
+                new Callable<LongInterval>() {
+
+                    public LongInterval call() throws Exception {
+                        log.log(Level.FINE, "Prefetching sequence values");
+                        return PrefetchingSequence.super
+                                .reserveSequenceInterval();
+                    }
+                });
+        if (prefetch.compareAndSet(null, task)) {
+            try {
+                executor.execute(task);
+                prefetchCount.incrementAndGet();
+            } catch (RuntimeException e) {
+                log.log(Level.WARNING, "Could not start prefetch", e);
+                prefetch.compareAndSet(task, null);
+            }
+        }
+    }
+
+    @Override
+    protected LongInterval reserveSequenceInterval() {
+        final Future<LongInterval> pending = prefetch.getAndSet(null);
+        if (pending != null) {
+            final boolean waited = !pending.isDone();
+            try {
+                final LongInterval interval = pending.get();
+                if (waited) {
+                    synchronousReservationCount.incrementAndGet();
+                }
+                return interval;
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new IllegalStateException(
+                        "Interrupted while waiting for sequence values", e);
+            } catch (ExecutionException e) {
+                log.log(Level.WARNING,
+                        "Prefetch failed, reserving sequence values directly",
+                        e.getCause());
+            }
+        }
+        synchronousReservationCount.incrementAndGet();
+        return super.reserveSequenceInterval();
+    }
+
+    private void readObject(java.io.ObjectInputStream in)
+            throws java.io.IOException, ClassNotFoundException {
+        in.defaultReadObject();
+        executor = defaultExecutor;
+        prefetch = new AtomicReference<Future<LongInterval>>();
+    }
+}
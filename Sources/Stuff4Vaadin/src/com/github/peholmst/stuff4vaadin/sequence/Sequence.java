@@ -16,6 +16,7 @@
 package com.github.peholmst.stuff4vaadin.sequence;
 
 import com.github.peholmst.stuff4vaadin.common.Interval;
+import com.github.peholmst.stuff4vaadin.common.LongInterval;
 
 
 /**
@@ -38,26 +39,182 @@ public abstract class Sequence implements java.io.Serializable {
 
     private long currentValue = 0L;
 
+    private transient volatile SequenceMetrics metrics;
+
+    /**
+     * The sequence whose default implementation of
+     * {@link #reserveSequenceValues()} or {@link #reserveSequenceInterval()}
+     * is bridging to the other one in the current thread, used to detect
+     * subclasses that override neither.
+     */
+    private static final ThreadLocal<Sequence> bridging = new ThreadLocal<Sequence>();
+
     private void reserveValues() {
-        Interval<Long> reservedInterval = reserveSequenceValues();
-        currentValue = reservedInterval.getIncludedStartPoint();
-        maxValue = reservedInterval.getIncludedEndPoint();
+        LongInterval reservedInterval = reserveInterval();
+        currentValue = reservedInterval.getStartPoint();
+        maxValue = reservedInterval.getEndPoint();
+    }
+
+    /**
+     * Reserves an interval using {@link #reserveSequenceInterval()} and reports
+     * the outcome to the metrics listener, if any.
+     */
+    final LongInterval reserveInterval() {
+        final SequenceMetrics metrics = this.metrics;
+        if (metrics == null) {
+            return reserveSequenceInterval();
+        }
+        final long start = System.nanoTime();
+        try {
+            final LongInterval interval = reserveSequenceInterval();
+            metrics.reservationCompleted(this, interval.length(),
+                    System.nanoTime() - start);
+            return interval;
+        } catch (RuntimeException e) {
+            metrics.reservationFailed(this, e, System.nanoTime() - start);
+            throw e;
+        }
     }
 
     /**
-     * Reserves a closed interval of sequence values.
+     * Sets the listener that the sequence reports its metrics to, or
+     * <code>null</code> to turn the metrics off. The listener is not
+     * serialized.
      */
-    protected abstract Interval<Long> reserveSequenceValues();
+    public void setMetrics(SequenceMetrics metrics) {
+        this.metrics = metrics;
+    }
+
+    /**
+     * Returns the listener that the sequence reports its metrics to, or
+     * <code>null</code> if the metrics are turned off.
+     */
+    public SequenceMetrics getMetrics() {
+        return metrics;
+    }
+
+    /**
+     * Returns the number of values that are left in the current interval. The
+     * result may be zero or negative when the interval has run out.
+     */
+    protected synchronized long getRemainingValues() {
+        return maxValue - currentValue;
+    }
+
+    /**
+     * Reserves a closed interval of sequence values. The default implementation
+     * converts the result of {@link #reserveSequenceInterval()}. Subclasses
+     * must override at least one of these two methods.
+     * 
+     * @throws IllegalStateException
+     *             if the subclass overrides neither method.
+     */
+    protected Interval<Long> reserveSequenceValues() {
+        final Sequence previous = enterBridge();
+        try {
+            return reserveSequenceInterval().toInterval();
+        } finally {
+            bridging.set(previous);
+        }
+    }
+
+    /**
+     * Reserves an interval of sequence values. This is the method that is
+     * actually used by the sequence when it runs out of values. The default
+     * implementation converts the result of {@link #reserveSequenceValues()}.
+     * Subclasses that can produce the interval without boxing should override
+     * this method.
+     * 
+     * @throws IllegalStateException
+     *             if the subclass overrides neither method.
+     */
+    protected LongInterval reserveSequenceInterval() {
+        final Sequence previous = enterBridge();
+        try {
+            return LongInterval.valueOf(reserveSequenceValues());
+        } finally {
+            bridging.set(previous);
+        }
+    }
+
+    /**
+     * Marks this sequence as bridging between the default implementations in
+     * the current thread, failing if it is already doing so.
+     * 
+     * @return the sequence that was bridging before, to be restored afterwards.
+     */
+    private Sequence enterBridge() {
+        final Sequence previous = bridging.get();
+        if (previous == this) {
+            throw new IllegalStateException(getClass().getName()
+                    + " must override reserveSequenceValues() or reserveSequenceInterval()");
+        }
+        bridging.set(this);
+        return previous;
+    }
 
     /**
      * Returns the next value of the sequence.
+     * <p>
+     * The default implementation is synchronized on the sequence instance.
+     * Subclasses may override it with a non-blocking implementation as long as
+     * the same guarantees are maintained: no value is returned twice and the
+     * values within a reserved interval are handed out without gaps.
+     * Subclasses that override this method must also override
+     * {@link #getNextValues(int)}.
+     * <p>
+     * If a {@link SequenceMetrics} listener has been set, the time spent
+     * waiting for the lock and the reservations of new intervals are reported
+     * to it.
+     * 
+     * @see ConcurrentSequence
+     */
+    public long getNextValue() {
+        final SequenceMetrics metrics = this.metrics;
+        final long start = metrics == null ? 0L : System.nanoTime();
+        synchronized (this) {
+            if (metrics != null) {
+                metrics.callerWaited(this, System.nanoTime() - start);
+            }
+            if (currentValue == maxValue) {
+                reserveValues();
+            } else {
+                ++currentValue;
+            }
+            return currentValue;
+        }
+    }
+
+    /**
+     * Returns the next <code>count</code> values of the sequence in one atomic
+     * step. The values are taken from the current interval and, if needed,
+     * from newly reserved intervals. No other caller can get values in between
+     * them, so the values are consecutive unless they span several intervals.
+     * 
+     * @param count
+     *            the number of values to return (must not be negative).
+     * @return an array of <code>count</code> values in ascending order.
      */
-    public final synchronized long getNextValue() {
-        if (currentValue == maxValue) {
-            reserveValues();
-        } else {
-            ++currentValue;
+    public long[] getNextValues(int count) {
+        assert count >= 0 : "count must not be negative";
+        final long[] values = new long[count];
+        final SequenceMetrics metrics = this.metrics;
+        final long start = metrics == null ? 0L : System.nanoTime();
+        synchronized (this) {
+            if (metrics != null) {
+                metrics.callerWaited(this, System.nanoTime() - start);
+            }
+            int i = 0;
+            while (i < count) {
+                if (currentValue == maxValue) {
+                    reserveValues();
+                    values[i++] = currentValue;
+                }
+                while (i < count && currentValue < maxValue) {
+                    values[i++] = ++currentValue;
+                }
+            }
         }
-        return currentValue;
+        return values;
     }
 }
@@ -0,0 +1,71 @@
+/*
+ * Copyright (c) 2011 Petter Holmström
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.github.peholmst.stuff4vaadin.sequence;
+
+import java.sql.Connection;
+import java.sql.SQLException;
+
+/**
+ * This interface is used by {@link DataSourceSequence} to access a database
+ * sequence in a database specific way. Implementations can be found in the
+ * <code>com.github.peholmst.stuff4vaadin.sequence.dialect</code> package.
+ * <p>
+ * A dialect treats every value <code>v</code> returned by the database sequence
+ * as the start of a block <code>[v, v + increment - 1]</code>, where
+ * <code>increment</code> is the increment of the database sequence. This means
+ * that all the clients of a database sequence must use a dialect; the
+ * <code>CURRVAL</code> based reservation that {@link DataSourceSequence} uses
+ * when no dialect has been specified is not compatible with this.
+ * <p>
+ * Implementations must be thread safe.
+ *
+ * @author Petter Holmström
+ * @since 1.0
+ */
+public interface SequenceDialect extends java.io.Serializable {
+
+    /**
+     * Returns the increment of the specified database sequence, i.e. the
+     * number of values in each block.
+     *
+     * @param connection
+     *            the connection to use (never <code>null</code>).
+     * @param sequenceName
+     *            the name of the database sequence (never <code>null</code>).
+     * @return the increment, always greater than zero.
+     * @throws SQLException
+     *             if the increment could not be retrieved.
+     */
+    long getIncrement(Connection connection, String sequenceName)
+            throws SQLException;
+
+    /**
+     * Fetches the next <code>count</code> values of the specified database
+     * sequence, preferably using a single statement.
+     *
+     * @param connection
+     *            the connection to use (never <code>null</code>).
+     * @param sequenceName
+     *            the name of the database sequence (never <code>null</code>).
+     * @param count
+     *            the number of values to fetch, always greater than zero.
+     * @return an array of <code>count</code> values in ascending order.
+     * @throws SQLException
+     *             if the values could not be fetched.
+     */
+    long[] nextValues(Connection connection, String sequenceName, int count)
+            throws SQLException;
+}
@@ -0,0 +1,87 @@
+/*
+ * Copyright (c) 2011 Petter Holmström
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.github.peholmst.stuff4vaadin.sequence;
+
+/**
+ * Listener interface for metrics reported by a {@link Sequence}. A listener is
+ * installed using {@link Sequence#setMetrics(SequenceMetrics)}.
+ * <p>
+ * The methods may be invoked by several threads at the same time, sometimes
+ * while the sequence is locked, so implementations must be thread safe and
+ * fast. The sequence itself does not allocate any objects to report the
+ * metrics.
+ * 
+ * @see SequenceStatistics
+ * @author Petter Holmström
+ * @since 1.0
+ */
+public interface SequenceMetrics {
+
+    /**
+     * Invoked when the sequence has reserved a new interval of values.
+     * 
+     * @param sequence
+     *            the sequence that reserved the values.
+     * @param valueCount
+     *            the number of reserved values.
+     * @param durationNanos
+     *            the time the reservation took in nanoseconds, including any
+     *            backend round-trip.
+     */
+    void reservationCompleted(Sequence sequence, long valueCount,
+            long durationNanos);
+
+    /**
+     * Invoked when the sequence has failed to reserve a new interval of
+     * values.
+     * 
+     * @param sequence
+     *            the sequence that tried to reserve the values.
+     * @param exception
+     *            the exception that was thrown by the backend.
+     * @param durationNanos
+     *            the time the reservation took before it failed in
+     *            nanoseconds.
+     */
+    void reservationFailed(Sequence sequence, RuntimeException exception,
+            long durationNanos);
+
+    /**
+     * Invoked when a caller of {@link Sequence#getNextValue()} or
+     * {@link Sequence#getNextValues(int)} has waited for another thread before
+     * it could get its values. The locking default implementation reports the
+     * time it took to acquire the lock on every call, whereas
+     * {@link ConcurrentSequence} only reports when a caller actually had to
+     * wait for a new interval.
+     * 
+     * @param sequence
+     *            the sequence.
+     * @param waitNanos
+     *            the time the caller waited in nanoseconds.
+     */
+    void callerWaited(Sequence sequence, long waitNanos);
+
+    /**
+     * Invoked when reserved values of the sequence are thrown away without
+     * ever being handed out, e.g. when the thread owning the sequence dies.
+     * 
+     * @param sequence
+     *            the sequence whose values were discarded.
+     * @param valueCount
+     *            the number of discarded values.
+     */
+    void valuesDiscarded(Sequence sequence, long valueCount);
+}
@@ -0,0 +1,193 @@
+/*
+ * Copyright (c) 2011 Petter Holmström
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.github.peholmst.stuff4vaadin.sequence;
+
+import java.lang.management.ManagementFactory;
+import java.util.concurrent.atomic.AtomicLong;
+
+import javax.management.JMException;
+import javax.management.ObjectName;
+
+import com.github.peholmst.stuff4vaadin.common.LatencyHistogram;
+
+/**
+ * This is a {@link SequenceMetrics}-implementation that collects statistics
+ * in memory and exposes them through JMX. Latencies are kept in
+ * {@link LatencyHistogram}s, so collecting the statistics does not allocate
+ * any objects and can be left on in production. The same instance may be used
+ * as the listener of several sequences, e.g. all the sequences created by
+ * {@link IdGenerator}.
+ * <p>
+ * Example:
+ * 
+ * <pre>
+ * SequenceStatistics statistics = new SequenceStatistics();
+ * statistics.register(&quot;entityIds&quot;);
+ * IdGenerator.setMetrics(statistics);
+ * </pre>
+ * <p>
+ * This class is thread safe.
+ * 
+ * @author Petter Holmström
+ * @since 1.0
+ */
+public class SequenceStatistics implements SequenceMetrics,
+        SequenceStatisticsMBean {
+
+    /**
+     * The JMX domain under which the statistics are registered.
+     */
+    public static final String JMX_DOMAIN = "com.github.peholmst.stuff4vaadin.sequence";
+
+    private final AtomicLong reservationCount = new AtomicLong();
+
+    private final AtomicLong failedReservationCount = new AtomicLong();
+
+    private final AtomicLong reservedValueCount = new AtomicLong();
+
+    private final AtomicLong discardedValueCount = new AtomicLong();
+
+    private final LatencyHistogram reservationLatency = new LatencyHistogram();
+
+    private final LatencyHistogram waitLatency = new LatencyHistogram();
+
+    public void reservationCompleted(Sequence sequence, long valueCount,
+            long durationNanos) {
+        reservationCount.incrementAndGet();
+        reservedValueCount.addAndGet(valueCount);
+        reservationLatency.record(Math.max(0L, durationNanos));
+    }
+
+    public void reservationFailed(Sequence sequence,
+            RuntimeException exception, long durationNanos) {
+        failedReservationCount.incrementAndGet();
+        reservationLatency.record(Math.max(0L, durationNanos));
+    }
+
+    public void callerWaited(Sequence sequence, long waitNanos) {
+        waitLatency.record(Math.max(0L, waitNanos));
+    }
+
+    public void valuesDiscarded(Sequence sequence, long valueCount) {
+        discardedValueCount.addAndGet(valueCount);
+    }
+
+    public long getReservationCount() {
+        return reservationCount.get();
+    }
+
+    public long getFailedReservationCount() {
+        return failedReservationCount.get();
+    }
+
+    public long getReservedValueCount() {
+        return reservedValueCount.get();
+    }
+
+    public long getDiscardedValueCount() {
+        return discardedValueCount.get();
+    }
+
+    public double getBlockUtilization() {
+        final long reserved = reservedValueCount.get();
+        return reserved == 0 ? 1.0 : 1.0 - (double) discardedValueCount.get()
+                / reserved;
+    }
+
+    public double getReservationMeanNanos() {
+        return reservationLatency.getMean();
+    }
+
+    public long getReservation50thPercentileNanos() {
+        return reservationLatency.getValueAtPercentile(50.0);
+    }
+
+    public long getReservation99thPercentileNanos() {
+        return reservationLatency.getValueAtPercentile(99.0);
+    }
+
+    public long getReservationMaxNanos() {
+        return reservationLatency.getMax();
+    }
+
+    public long getWaitCount() {
+        return waitLatency.getCount();
+    }
+
+    public double getWaitMeanNanos() {
+        return waitLatency.getMean();
+    }
+
+    public long getWait50thPercentileNanos() {
+        return waitLatency.getValueAtPercentile(50.0);
+    }
+
+    public long getWait99thPercentileNanos() {
+        return waitLatency.getValueAtPercentile(99.0);
+    }
+
+    public long getWaitMaxNanos() {
+        return waitLatency.getMax();
+    }
+
+    public void reset() {
+        reservationCount.set(0);
+        failedReservationCount.set(0);
+        reservedValueCount.set(0);
+        discardedValueCount.set(0);
+        reservationLatency.reset();
+        waitLatency.reset();
+    }
+
+    /**
+     * Registers the statistics with the platform MBean server under the name
+     * <code>com.github.peholmst.stuff4vaadin.sequence:type=SequenceStatistics,name=<i>name</i></code>
+     * .
+     * 
+     * @param name
+     *            the name of the statistics (must not be <code>null</code>).
+     * @return the object name under which the statistics were registered.
+     * @throws JMException
+     *             if the statistics could not be registered.
+     */
+    public ObjectName register(String name) throws JMException {
+        assert name != null : "name must not be null";
+        final ObjectName objectName = getObjectName(name);
+        ManagementFactory.getPlatformMBeanServer().registerMBean(this,
+                objectName);
+        return objectName;
+    }
+
+    /**
+     * Unregisters the statistics registered using {@link #register(String)}.
+     * 
+     * @param name
+     *            the name of the statistics (must not be <code>null</code>).
+     * @throws JMException
+     *             if the statistics could not be unregistered.
+     */
+    public void unregister(String name) throws JMException {
+        assert name != null : "name must not be null";
+        ManagementFactory.getPlatformMBeanServer().unregisterMBean(
+                getObjectName(name));
+    }
+
+    private static ObjectName getObjectName(String name) throws JMException {
+        return new ObjectName(JMX_DOMAIN + ":type="
+                + SequenceStatistics.class.getSimpleName() + ",name="
+                + ObjectName.quote(name));
+    }
+}
@@ -0,0 +1,79 @@
+/*
+ * Copyright (c) 2011 Petter Holmström
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.github.peholmst.stuff4vaadin.sequence;
+
+/**
+ * JMX management interface of {@link SequenceStatistics}. All durations are
+ * in nanoseconds.
+ * 
+ * @author Petter Holmström
+ * @since 1.0
+ */
+public interface SequenceStatisticsMBean {
+
+    /**
+     * Returns the number of successful reservations.
+     */
+    long getReservationCount();
+
+    /**
+     * Returns the number of failed reservations.
+     */
+    long getFailedReservationCount();
+
+    /**
+     * Returns the total number of reserved values.
+     */
+    long getReservedValueCount();
+
+    /**
+     * Returns the number of reserved values that were thrown away without
+     * being handed out.
+     */
+    long getDiscardedValueCount();
+
+    /**
+     * Returns the ratio of handed out (or still available) values to reserved
+     * values, between 0 and 1.
+     */
+    double getBlockUtilization();
+
+    double getReservationMeanNanos();
+
+    long getReservation50thPercentileNanos();
+
+    long getReservation99thPercentileNanos();
+
+    long getReservationMaxNanos();
+
+    /**
+     * Returns the number of times a caller has waited for its values.
+     */
+    long getWaitCount();
+
+    double getWaitMeanNanos();
+
+    long getWait50thPercentileNanos();
+
+    long getWait99thPercentileNanos();
+
+    long getWaitMaxNanos();
+
+    /**
+     * Clears all statistics.
+     */
+    void reset();
+}
@@ -0,0 +1,244 @@
+/*
+ * Copyright (c) 2011 Petter Holmström
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.github.peholmst.stuff4vaadin.sequence;
+
+import com.github.peholmst.stuff4vaadin.common.LongInterval;
+
+/**
+ * This is a {@link Sequence}-implementation that spreads the callers over
+ * several stripes to avoid a single contended counter on machines with many
+ * cores. Every stripe is a {@link ConcurrentSequence} that hands out values
+ * from a sub-block of its own. The sub-blocks are carved out of the intervals
+ * reserved from the backend sequence with an atomic fetch-and-add on a shared
+ * cursor (a {@link ConcurrentSequence}), so refilling a stripe does not lock
+ * and the backend is not called more often than with a single
+ * {@link ConcurrentSequence}.
+ * <p>
+ * The stripe is chosen by hashing the ID of the current thread. The values
+ * are unique, but unlike the other sequences, they are not handed out in
+ * ascending order across threads, and an interval reserved from the backend
+ * may still have values left in other stripes when the next one is reserved.
+ * <p>
+ * This class is thread safe.
+ * 
+ * @author Petter Holmström
+ * @since 1.0
+ */
+public class StripedSequence extends Sequence {
+
+    private static final long serialVersionUID = 3402416226018466386L;
+
+    /**
+     * The default sub-block size. It is large enough for a stripe to seldom
+     * touch the shared cursor. If the intervals of the backend are smaller, a
+     * sub-block is simply the rest of the current interval.
+     */
+    public static final long DEFAULT_SUB_BLOCK_SIZE = 4096;
+
+    /**
+     * The backend of the stripes, which takes the sub-blocks from the shared
+     * cursor of the owner.
+     */
+    private static final class SubBlockSequence extends Sequence {
+
+        private static final long serialVersionUID = -8217624117633530158L;
+
+        private final StripedSequence owner;
+
+        SubBlockSequence(StripedSequence owner) {
+            this.owner = owner;
+        }
+
+        @Override
+        protected LongInterval reserveSequenceInterval() {
+            return owner.cursor.getNextInterval(owner.subBlockSize);
+        }
+
+        @Override
+        protected long getRemainingValues() {
+            return 0L;
+        }
+    }
+
+    /**
+     * The backend of the shared cursor. The intervals are reserved through
+     * the owner so that they are reported to its metrics listener.
+     */
+    private static final class IntervalSequence extends Sequence {
+
+        private static final long serialVersionUID = 6154927411306117431L;
+
+        private final StripedSequence owner;
+
+        IntervalSequence(StripedSequence owner) {
+            this.owner = owner;
+        }
+
+        @Override
+        protected LongInterval reserveSequenceInterval() {
+            return owner.reserveInterval();
+        }
+    }
+
+    /**
+     * Forwards the waits of a stripe to the metrics listener of the owner.
+     * Sub-block reservations are not forwarded, as they would otherwise be
+     * counted as backend reservations.
+     */
+    private static final class StripeMetrics implements SequenceMetrics {
+
+        private final StripedSequence owner;
+
+        private final SequenceMetrics metrics;
+
+        StripeMetrics(StripedSequence owner, SequenceMetrics metrics) {
+            this.owner = owner;
+            this.metrics = metrics;
+        }
+
+        public void reservationCompleted(Sequence sequence, long valueCount,
+                long durationNanos) {
+        }
+
+        public void reservationFailed(Sequence sequence,
+                RuntimeException exception, long durationNanos) {
+        }
+
+        public void callerWaited(Sequence sequence, long waitNanos) {
+            metrics.callerWaited(owner, waitNanos);
+        }
+
+        public void valuesDiscarded(Sequence sequence, long valueCount) {
+            metrics.valuesDiscarded(owner, valueCount);
+        }
+    }
+
+    private final Sequence backend;
+
+    private final long subBlockSize;
+
+    private final ConcurrentSequence cursor;
+
+    private final ConcurrentSequence[] stripes;
+
+    /**
+     * Creates a new <code>StripedSequence</code> with one stripe per available
+     * processor and the default sub-block size.
+     * 
+     * @param backend
+     *            the sequence to reserve intervals from (must not be
+     *            <code>null</code>).
+     */
+    public StripedSequence(Sequence backend) {
+        this(backend, Runtime.getRuntime().availableProcessors(),
+                DEFAULT_SUB_BLOCK_SIZE);
+    }
+
+    /**
+     * Creates a new <code>StripedSequence</code>.
+     * 
+     * @param backend
+     *            the sequence to reserve intervals from (must not be
+     *            <code>null</code>). Its {@link #getNextValue()} method is
+     *            never invoked.
+     * @param stripeCount
+     *            the number of stripes (must be greater than zero).
+     * @param subBlockSize
+     *            the maximum number of values that a stripe takes from the
+     *            backend interval at a time (must be greater than zero).
+     */
+    public StripedSequence(Sequence backend, int stripeCount, long subBlockSize) {
+        assert backend != null : "backend must not be null";
+        assert stripeCount > 0 : "stripeCount must be greater than zero";
+        assert subBlockSize > 0 : "subBlockSize must be greater than zero";
+        this.backend = backend;
+        this.subBlockSize = subBlockSize;
+        this.cursor = new ConcurrentSequence(new IntervalSequence(this));
+        final SubBlockSequence subBlocks = new SubBlockSequence(this);
+        this.stripes = new ConcurrentSequence[stripeCount];
+        for (int i = 0; i < stripeCount; ++i) {
+            stripes[i] = new ConcurrentSequence(subBlocks);
+        }
+    }
+
+    /**
+     * Returns the backend sequence (never <code>null</code>).
+     */
+    public final Sequence getBackend() {
+        return backend;
+    }
+
+    /**
+     * Returns the number of stripes.
+     */
+    public final int getStripeCount() {
+        return stripes.length;
+    }
+
+    /**
+     * Returns the maximum number of values that a stripe takes from the
+     * backend interval at a time.
+     */
+    public final long getSubBlockSize() {
+        return subBlockSize;
+    }
+
+    private ConcurrentSequence currentStripe() {
+        // Spreads consecutive thread IDs over the stripes
+        final long hash = Thread.currentThread().getId() * 0x9E3779B97F4A7C15L;
+        return stripes[(int) ((hash >>> 32) % stripes.length)];
+    }
+
+    @Override
+    protected LongInterval reserveSequenceInterval() {
+        return backend.reserveInterval();
+    }
+
+    @Override
+    public long getNextValue() {
+        return currentStripe().getNextValue();
+    }
+
+    @Override
+    public long[] getNextValues(int count) {
+        return currentStripe().getNextValues(count);
+    }
+
+    @Override
+    protected long getRemainingValues() {
+        long remaining = Math.max(0L, cursor.getRemainingValues());
+        for (ConcurrentSequence stripe : stripes) {
+            remaining += Math.max(0L, stripe.getRemainingValues());
+        }
+        return remaining;
+    }
+
+    /**
+     * Sets the metrics listener of this sequence. The reservations from the
+     * backend are reported by this sequence, and the times callers wait for
+     * new sub-blocks are forwarded from the stripes.
+     */
+    @Override
+    public void setMetrics(final SequenceMetrics metrics) {
+        super.setMetrics(metrics);
+        final SequenceMetrics stripeMetrics = metrics == null ? null
+                : new StripeMetrics(this, metrics);
+        cursor.setMetrics(stripeMetrics);
+        for (ConcurrentSequence stripe : stripes) {
+            stripe.setMetrics(stripeMetrics);
+        }
+    }
+}
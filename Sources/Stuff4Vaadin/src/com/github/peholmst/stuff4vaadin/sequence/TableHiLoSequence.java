@@ -0,0 +1,284 @@
+/*
+ * Copyright (c) 2011 Petter Holmström
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.github.peholmst.stuff4vaadin.sequence;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import javax.sql.DataSource;
+
+import com.github.peholmst.stuff4vaadin.common.Interval;
+
+/**
+ * This is a {@link Sequence}-implementation for databases without native
+ * sequences. The sequence is stored as a row in a table with the following
+ * structure (the same as used by
+ * {@link com.github.peholmst.stuff4vaadin.sequence.dialect.TableHiLoSequenceDialect}
+ * ):
+ *
+ * <pre>
+ * CREATE TABLE &lt;tableName&gt; (
+ *     SEQUENCE_NAME VARCHAR(255) NOT NULL PRIMARY KEY,
+ *     NEXT_VALUE BIGINT NOT NULL
+ * )
+ * </pre>
+ *
+ * <code>NEXT_VALUE</code> (the hi value) is the first value that has not yet
+ * been reserved. A block is claimed by reading the hi value and updating it
+ * with <code>UPDATE ... WHERE NEXT_VALUE = ?</code>. If another client has
+ * claimed a block in the meantime, no row is updated and the reservation is
+ * retried. This makes it safe to share the sequence between several JVMs
+ * without holding any database locks between the statements. If the row does
+ * not exist, it is created with the value 1.
+ *
+ * @author Petter Holmström
+ * @since 1.0
+ */
+public abstract class TableHiLoSequence extends Sequence {
+
+    private static final long serialVersionUID = -3506384432938520466L;
+
+    private static final Logger log = Logger.getLogger(TableHiLoSequence.class.getName());
+
+    /**
+     * The default maximum number of attempts to claim a block before giving up.
+     */
+    public static final int DEFAULT_MAX_ATTEMPTS = 100;
+
+    private final static String QUERY_NEXT_VALUE = "SELECT NEXT_VALUE FROM %s WHERE SEQUENCE_NAME = ?";
+
+    private final static String UPDATE_NEXT_VALUE = "UPDATE %s SET NEXT_VALUE = ? WHERE SEQUENCE_NAME = ? AND NEXT_VALUE = ?";
+
+    private final static String INSERT_SEQUENCE = "INSERT INTO %s (SEQUENCE_NAME, NEXT_VALUE) VALUES (?, 1)";
+
+    private final String tableName;
+
+    private final String sequenceName;
+
+    private final long blockSize;
+
+    private final int maxAttempts;
+
+    private final String queryNextValue;
+
+    private final String updateNextValue;
+
+    private final String insertSequence;
+
+    /**
+     * Creates a new <code>TableHiLoSequence</code> that uses the default
+     * maximum number of attempts.
+     *
+     * @param tableName
+     *            the name of the sequence table (must not be <code>null</code>
+     *            nor empty).
+     * @param sequenceName
+     *            the name of the sequence, i.e. the value of the
+     *            <code>SEQUENCE_NAME</code> column (must not be
+     *            <code>null</code> nor empty).
+     * @param blockSize
+     *            the number of values to claim at a time (must be greater than
+     *            zero).
+     */
+    public TableHiLoSequence(String tableName, String sequenceName,
+            long blockSize) {
+        this(tableName, sequenceName, blockSize, DEFAULT_MAX_ATTEMPTS);
+    }
+
+    /**
+     * Creates a new <code>TableHiLoSequence</code>.
+     *
+     * @param tableName
+     *            the name of the sequence table (must not be <code>null</code>
+     *            nor empty).
+     * @param sequenceName
+     *            the name of the sequence, i.e. the value of the
+     *            <code>SEQUENCE_NAME</code> column (must not be
+     *            <code>null</code> nor empty).
+     * @param blockSize
+     *            the number of values to claim at a time (must be greater than
+     *            zero).
+     * @param maxAttempts
+     *            the maximum number of attempts to claim a block before giving
+     *            up (must be greater than zero).
+     */
+    public TableHiLoSequence(String tableName, String sequenceName,
+            long blockSize, int maxAttempts) {
+        assert tableName != null && !tableName.isEmpty() : "tableName must not be null nor empty";
+        assert sequenceName != null && !sequenceName.isEmpty() : "sequenceName must not be null nor empty";
+        assert blockSize > 0 : "blockSize must be greater than zero";
+        assert maxAttempts > 0 : "maxAttempts must be greater than zero";
+        this.tableName = tableName;
+        this.sequenceName = sequenceName;
+        this.blockSize = blockSize;
+        this.maxAttempts = maxAttempts;
+        this.queryNextValue = String.format(QUERY_NEXT_VALUE, tableName);
+        this.updateNextValue = String.format(UPDATE_NEXT_VALUE, tableName);
+        this.insertSequence = String.format(INSERT_SEQUENCE, tableName);
+    }
+
+    /**
+     * Returns the name of the sequence table (never <code>null</code>).
+     */
+    public final String getTableName() {
+        return tableName;
+    }
+
+    /**
+     * Returns the name of the sequence (never <code>null</code>).
+     */
+    public final String getSequenceName() {
+        return sequenceName;
+    }
+
+    /**
+     * Returns the number of values that are claimed at a time.
+     */
+    public final long getBlockSize() {
+        return blockSize;
+    }
+
+    /**
+     * Looks up the JDBC data source that is to be used for accessing the
+     * sequence table. If the data source cannot be found, an unchecked
+     * exception is thrown.
+     */
+    protected abstract DataSource lookupDataSource();
+
+    @Override
+    protected Interval<Long> reserveSequenceValues() {
+        log.log(Level.FINE, "Reserving sequence values from {0}.{1}", new Object[] {
+                tableName, sequenceName });
+        try {
+            Connection connection = lookupDataSource().getConnection();
+            try {
+                for (int attempt = 1; attempt <= maxAttempts; ++attempt) {
+                    final Long hi = queryNextValue(connection);
+                    if (hi == null) {
+                        insertSequence(connection);
+                        commitIfNeeded(connection);
+                    } else if (compareAndSetNextValue(connection, hi, hi
+                            + blockSize)) {
+                        commitIfNeeded(connection);
+                        log.log(Level.FINE, "Reserved sequence values [{0}, {1}] after {2} attempt(s)", new Object[] {
+                                hi, hi + blockSize - 1, attempt });
+                        return Interval.createClosedInterval(hi, hi
+                                + blockSize - 1);
+                    } else if (!connection.getAutoCommit()) {
+                        // Start over with a fresh view of the table
+                        connection.rollback();
+                    }
+                }
+            } catch (SQLException e) {
+                rollbackQuietly(connection);
+                throw e;
+            } catch (RuntimeException e) {
+                rollbackQuietly(connection);
+                throw e;
+            } finally {
+                try {
+                    connection.close();
+                } catch (SQLException e) {
+                    log.log(Level.WARNING, "Could not close connection", e);
+                }
+            }
+        } catch (SQLException e) {
+            throw new RuntimeException("Could not reserve sequence values", e);
+        }
+        throw new IllegalStateException("Could not reserve sequence values after "
+                + maxAttempts + " attempts");
+    }
+
+    private static void commitIfNeeded(Connection connection)
+            throws SQLException {
+        if (!connection.getAutoCommit()) {
+            connection.commit();
+        }
+    }
+
+    /**
+     * Rolls back the current transaction, if any, so that the connection is
+     * not returned to the pool with an open transaction.
+     */
+    private static void rollbackQuietly(Connection connection) {
+        try {
+            if (!connection.getAutoCommit()) {
+                connection.rollback();
+            }
+        } catch (SQLException e) {
+            log.log(Level.WARNING, "Could not roll back transaction", e);
+        }
+    }
+
+    private Long queryNextValue(Connection connection) throws SQLException {
+        final PreparedStatement statement = connection
+                .prepareStatement(queryNextValue);
+        try {
+            statement.setString(1, sequenceName);
+            final ResultSet result = statement.executeQuery();
+            try {
+                return result.next() ? result.getLong(1) : null;
+            } finally {
+                result.close();
+            }
+        } finally {
+            statement.close();
+        }
+    }
+
+    private boolean compareAndSetNextValue(Connection connection,
+            long expected, long newValue) throws SQLException {
+        final PreparedStatement statement = connection
+                .prepareStatement(updateNextValue);
+        try {
+            statement.setLong(1, newValue);
+            statement.setString(2, sequenceName);
+            statement.setLong(3, expected);
+            return statement.executeUpdate() == 1;
+        } finally {
+            statement.close();
+        }
+    }
+
+    private void insertSequence(Connection connection) throws SQLException {
+        final PreparedStatement statement = connection
+                .prepareStatement(insertSequence);
+        try {
+            statement.setString(1, sequenceName);
+            statement.executeUpdate();
+            log.log(Level.INFO, "Created sequence {0} in {1}", new Object[] {
+                    sequenceName, tableName });
+        } catch (SQLException e) {
+            /*
+             * Integrity constraint violations are expected if another client
+             * created the row at the same time. The failed statement may have
+             * aborted the transaction, so it is rolled back before retrying.
+             */
+            if (e.getSQLState() == null || !e.getSQLState().startsWith("23")) {
+                throw e;
+            }
+            if (!connection.getAutoCommit()) {
+                connection.rollback();
+            }
+        } finally {
+            statement.close();
+        }
+    }
+}
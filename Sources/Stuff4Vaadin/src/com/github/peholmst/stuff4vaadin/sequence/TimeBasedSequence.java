@@ -0,0 +1,270 @@
+/*
+ * Copyright (c) 2011 Petter Holmström
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.github.peholmst.stuff4vaadin.sequence;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import com.github.peholmst.stuff4vaadin.common.LongInterval;
+
+/**
+ * This is a {@link Sequence}-implementation that generates values without any
+ * coordination with other nodes or a database (a.k.a. Snowflake IDs). Every
+ * value is composed of the following parts, from the most significant bit to
+ * the least significant:
+ * <ul>
+ * <li>a zero sign bit,</li>
+ * <li>{@value #TIMESTAMP_BITS} bits of milliseconds since the epoch given to
+ * the constructor,</li>
+ * <li>{@value #NODE_ID_BITS} bits of node ID and</li>
+ * <li>{@value #COUNTER_BITS} bits of a counter that is reset every
+ * millisecond.</li>
+ * </ul>
+ * As long as every node has a unique node ID, the values are unique within the
+ * cluster. The values generated by a single instance are strictly increasing.
+ * <p>
+ * If more than 2^{@value #COUNTER_BITS} values are requested within the same
+ * millisecond, or if the system clock is turned back, the sequence continues
+ * from the latest timestamp it has used, running ahead of the system clock
+ * until the system clock catches up. The lead is bounded: when the counter
+ * overflows while the sequence is already the maximum lead (by default
+ * {@value #DEFAULT_MAX_LEAD_MILLIS} ms) ahead of the clock, the caller waits
+ * until the clock has caught up. No locks are used.
+ * <p>
+ * This class is thread safe.
+ *
+ * @author Petter Holmström
+ * @since 1.0
+ */
+public class TimeBasedSequence extends Sequence {
+
+    private static final long serialVersionUID = -4915186961006432066L;
+
+    private static final Logger log = Logger.getLogger(TimeBasedSequence.class.getName());
+
+    public static final int TIMESTAMP_BITS = 41;
+
+    public static final int NODE_ID_BITS = 10;
+
+    public static final int COUNTER_BITS = 12;
+
+    public static final long MAX_NODE_ID = (1L << NODE_ID_BITS) - 1;
+
+    private static final long MAX_COUNTER = (1L << COUNTER_BITS) - 1;
+
+    /**
+     * The default epoch, 2011-01-01 00:00:00 UTC.
+     */
+    public static final long DEFAULT_EPOCH = 1293840000000L;
+
+    /**
+     * The default maximum number of milliseconds the timestamps may run ahead
+     * of the system clock.
+     */
+    public static final long DEFAULT_MAX_LEAD_MILLIS = 1000L;
+
+    private final long nodeId;
+
+    private final long epoch;
+
+    private final long maxLeadMillis;
+
+    /**
+     * The latest timestamp (relative to the epoch) shifted left by
+     * {@link #COUNTER_BITS}, combined with the latest counter value.
+     */
+    private final AtomicLong state = new AtomicLong();
+
+    /**
+     * Creates a new <code>TimeBasedSequence</code> that uses the default epoch.
+     *
+     * @param nodeId
+     *            the ID of this node, between 0 and {@link #MAX_NODE_ID}.
+     */
+    public TimeBasedSequence(long nodeId) {
+        this(nodeId, DEFAULT_EPOCH);
+    }
+
+    /**
+     * Creates a new <code>TimeBasedSequence</code>.
+     *
+     * @param nodeId
+     *            the ID of this node, between 0 and {@link #MAX_NODE_ID}.
+     * @param epoch
+     *            the epoch in milliseconds since 1970-01-01 00:00:00 UTC (must
+     *            not be in the future).
+     */
+    public TimeBasedSequence(long nodeId, long epoch) {
+        this(nodeId, epoch, DEFAULT_MAX_LEAD_MILLIS);
+    }
+
+    /**
+     * Creates a new <code>TimeBasedSequence</code>.
+     *
+     * @param nodeId
+     *            the ID of this node, between 0 and {@link #MAX_NODE_ID}.
+     * @param epoch
+     *            the epoch in milliseconds since 1970-01-01 00:00:00 UTC (must
+     *            not be in the future).
+     * @param maxLeadMillis
+     *            the maximum number of milliseconds the timestamps may run
+     *            ahead of the system clock (must not be negative).
+     */
+    public TimeBasedSequence(long nodeId, long epoch, long maxLeadMillis) {
+        assert nodeId >= 0 && nodeId <= MAX_NODE_ID : "nodeId must be between 0 and "
+                + MAX_NODE_ID;
+        assert epoch <= System.currentTimeMillis() : "epoch must not be in the future";
+        assert maxLeadMillis >= 0 : "maxLeadMillis must not be negative";
+        this.nodeId = nodeId;
+        this.epoch = epoch;
+        this.maxLeadMillis = maxLeadMillis;
+    }
+
+    /**
+     * Returns the node ID.
+     */
+    public final long getNodeId() {
+        return nodeId;
+    }
+
+    /**
+     * Returns the epoch in milliseconds since 1970-01-01 00:00:00 UTC.
+     */
+    public final long getEpoch() {
+        return epoch;
+    }
+
+    /**
+     * Returns the maximum number of milliseconds the timestamps may run ahead
+     * of the system clock.
+     */
+    public final long getMaxLeadMillis() {
+        return maxLeadMillis;
+    }
+
+    /**
+     * Returns the timestamp of the specified value in milliseconds since
+     * 1970-01-01 00:00:00 UTC.
+     */
+    public final long getTimestamp(long value) {
+        return (value >>> (NODE_ID_BITS + COUNTER_BITS)) + epoch;
+    }
+
+    /**
+     * Returns the current time in milliseconds since 1970-01-01 00:00:00 UTC.
+     * Subclasses may override for testing purposes.
+     */
+    protected long currentTimeMillis() {
+        return System.currentTimeMillis();
+    }
+
+    @Override
+    public long getNextValue() {
+        while (true) {
+            final long previous = state.get();
+            final long previousTimestamp = previous >>> COUNTER_BITS;
+            final long now = currentTimeMillis() - epoch;
+            final long next;
+            if (now > previousTimestamp) {
+                next = now << COUNTER_BITS;
+            } else if ((previous & MAX_COUNTER) < MAX_COUNTER) {
+                next = previous + 1;
+            } else if (previousTimestamp + 1 - now <= maxLeadMillis) {
+                // Counter overflow, borrow the next millisecond
+                next = (previousTimestamp + 1) << COUNTER_BITS;
+            } else {
+                awaitClock(previousTimestamp + 1 - maxLeadMillis);
+                continue;
+            }
+            if (state.compareAndSet(previous, next)) {
+                return compose(next);
+            }
+        }
+    }
+
+    /**
+     * Returns the next <code>count</code> values of the sequence. The values are
+     * claimed in runs of consecutive counter values, one atomic operation per
+     * run, so they are consecutive unless they span several milliseconds.
+     */
+    @Override
+    public long[] getNextValues(int count) {
+        assert count >= 0 : "count must not be negative";
+        final long[] values = new long[count];
+        int i = 0;
+        while (i < count) {
+            final long previous = state.get();
+            final long previousTimestamp = previous >>> COUNTER_BITS;
+            final long now = currentTimeMillis() - epoch;
+            final long first;
+            if (now > previousTimestamp) {
+                first = now << COUNTER_BITS;
+            } else if ((previous & MAX_COUNTER) < MAX_COUNTER) {
+                first = previous + 1;
+            } else if (previousTimestamp + 1 - now <= maxLeadMillis) {
+                first = (previousTimestamp + 1) << COUNTER_BITS;
+            } else {
+                awaitClock(previousTimestamp + 1 - maxLeadMillis);
+                continue;
+            }
+            final long run = Math.min(count - i, MAX_COUNTER
+                    - (first & MAX_COUNTER) + 1);
+            if (state.compareAndSet(previous, first + run - 1)) {
+                for (long next = first; next < first + run; ++next) {
+                    values[i++] = compose(next);
+                }
+            }
+        }
+        return values;
+    }
+
+    /**
+     * Waits until the system clock (relative to the epoch) has reached the
+     * specified timestamp, so that the sequence stays within the maximum lead.
+     */
+    private void awaitClock(long timestamp) {
+        long now = currentTimeMillis() - epoch;
+        if (now < timestamp && log.isLoggable(Level.FINE)) {
+            log.log(Level.FINE,
+                    "Counter overflow, waiting {0} ms for the system clock",
+                    timestamp - now);
+        }
+        while (now < timestamp) {
+            LockSupport.parkNanos(100000L);
+            now = currentTimeMillis() - epoch;
+        }
+    }
+
+    private long compose(long state) {
+        final long timestamp = state >>> COUNTER_BITS;
+        final long counter = state & MAX_COUNTER;
+        return (timestamp << (NODE_ID_BITS + COUNTER_BITS))
+                | (nodeId << COUNTER_BITS) | counter;
+    }
+
+    /**
+     * Returns an interval containing a single value from
+     * {@link #getNextValue()}. Values from different milliseconds are not
+     * contiguous, so larger intervals cannot be reserved.
+     */
+    @Override
+    protected LongInterval reserveSequenceInterval() {
+        final long value = getNextValue();
+        return LongInterval.createClosedInterval(value, value);
+    }
+}
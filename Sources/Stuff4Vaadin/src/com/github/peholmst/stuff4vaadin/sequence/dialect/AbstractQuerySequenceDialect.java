@@ -0,0 +1,105 @@
+/*
+ * Copyright (c) 2011 Petter Holmström
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.github.peholmst.stuff4vaadin.sequence.dialect;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.Arrays;
+
+import com.github.peholmst.stuff4vaadin.sequence.SequenceDialect;
+
+/**
+ * Base class for {@link SequenceDialect}s that fetch several sequence values
+ * with a single query that returns one row per value.
+ * <p>
+ * The statements are prepared for every reservation and closed afterwards,
+ * as the dialect gets a different connection each time (the connections are
+ * returned to the pool of the data source between reservations) and a
+ * prepared statement cannot outlive its connection. Connection pools and
+ * drivers that cache prepared statements reuse them across reservations, as
+ * the SQL text of a sequence does not change.
+ *
+ * @author Petter Holmström
+ * @since 1.0
+ */
+public abstract class AbstractQuerySequenceDialect implements SequenceDialect {
+
+    private static final long serialVersionUID = -4286012402367151437L;
+
+    /**
+     * Returns a query that takes the sequence name as its only parameter and
+     * returns the increment of the sequence.
+     */
+    protected abstract String getIncrementQuery();
+
+    /**
+     * Returns a query that takes the number of values as its only parameter and
+     * returns one row with a sequence value per value.
+     *
+     * @param sequenceName
+     *            the name of the sequence (never <code>null</code>).
+     */
+    protected abstract String getNextValuesQuery(String sequenceName);
+
+    public long getIncrement(Connection connection, String sequenceName)
+            throws SQLException {
+        final PreparedStatement statement = connection
+                .prepareStatement(getIncrementQuery());
+        try {
+            statement.setString(1, sequenceName);
+            final ResultSet result = statement.executeQuery();
+            try {
+                if (!result.next()) {
+                    throw new SQLException("Sequence " + sequenceName
+                            + " does not exist");
+                }
+                return result.getLong(1);
+            } finally {
+                result.close();
+            }
+        } finally {
+            statement.close();
+        }
+    }
+
+    public long[] nextValues(Connection connection, String sequenceName,
+            int count) throws SQLException {
+        final long[] values = new long[count];
+        final PreparedStatement statement = connection
+                .prepareStatement(getNextValuesQuery(sequenceName));
+        try {
+            statement.setInt(1, count);
+            final ResultSet result = statement.executeQuery();
+            try {
+                for (int i = 0; i < count; ++i) {
+                    if (!result.next()) {
+                        throw new SQLException("Expected " + count
+                                + " sequence values but got " + i);
+                    }
+                    values[i] = result.getLong(1);
+                }
+            } finally {
+                result.close();
+            }
+        } finally {
+            statement.close();
+        }
+        Arrays.sort(values);
+        return values;
+    }
+}
@@ -0,0 +1,42 @@
+/*
+ * Copyright (c) 2011 Petter Holmström
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.github.peholmst.stuff4vaadin.sequence.dialect;
+
+/**
+ * Sequence dialect for Oracle. The sequence values are fetched using a
+ * hierarchical query on <code>DUAL</code>.
+ *
+ * @author Petter Holmström
+ * @since 1.0
+ */
+public class OracleSequenceDialect extends AbstractQuerySequenceDialect {
+
+    private static final long serialVersionUID = 8410928730294468307L;
+
+    private static final String QUERY_INCREMENT = "SELECT INCREMENT_BY FROM USER_SEQUENCES WHERE SEQUENCE_NAME = UPPER(?)";
+
+    private static final String QUERY_NEXT_VALUES = "SELECT %s.NEXTVAL FROM DUAL CONNECT BY LEVEL <= ?";
+
+    @Override
+    protected String getIncrementQuery() {
+        return QUERY_INCREMENT;
+    }
+
+    @Override
+    protected String getNextValuesQuery(String sequenceName) {
+        return String.format(QUERY_NEXT_VALUES, sequenceName);
+    }
+}
@@ -0,0 +1,42 @@
+/*
+ * Copyright (c) 2011 Petter Holmström
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.github.peholmst.stuff4vaadin.sequence.dialect;
+
+/**
+ * Sequence dialect for PostgreSQL. The sequence values are fetched using
+ * <code>generate_series</code>.
+ *
+ * @author Petter Holmström
+ * @since 1.0
+ */
+public class PostgreSqlSequenceDialect extends AbstractQuerySequenceDialect {
+
+    private static final long serialVersionUID = -2193372380153394726L;
+
+    private static final String QUERY_INCREMENT = "SELECT CAST(increment AS BIGINT) FROM information_schema.sequences WHERE sequence_name = LOWER(?)";
+
+    private static final String QUERY_NEXT_VALUES = "SELECT nextval('%s') FROM generate_series(1, ?)";
+
+    @Override
+    protected String getIncrementQuery() {
+        return QUERY_INCREMENT;
+    }
+
+    @Override
+    protected String getNextValuesQuery(String sequenceName) {
+        return String.format(QUERY_NEXT_VALUES, sequenceName);
+    }
+}
@@ -0,0 +1,93 @@
+/*
+ * Copyright (c) 2011 Petter Holmström
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.github.peholmst.stuff4vaadin.sequence.dialect;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+
+import com.github.peholmst.stuff4vaadin.sequence.SequenceDialect;
+
+/**
+ * Sequence dialect for Microsoft SQL Server 2012 or later. The sequence values
+ * are reserved as one contiguous range using
+ * <code>sys.sp_sequence_get_range</code>.
+ *
+ * @author Petter Holmström
+ * @since 1.0
+ */
+public class SqlServerSequenceDialect implements SequenceDialect {
+
+    private static final long serialVersionUID = -6716404718296394585L;
+
+    private static final String QUERY_INCREMENT = "SELECT CAST(increment AS BIGINT) FROM sys.sequences WHERE object_id = OBJECT_ID(?)";
+
+    private static final String QUERY_NEXT_VALUES = "SET NOCOUNT ON; "
+            + "DECLARE @first SQL_VARIANT; "
+            + "EXEC sys.sp_sequence_get_range @sequence_name = ?, @range_size = ?, @range_first_value = @first OUTPUT; "
+            + "SELECT CAST(@first AS BIGINT), CAST(increment AS BIGINT) FROM sys.sequences WHERE object_id = OBJECT_ID(?)";
+
+    public long getIncrement(Connection connection, String sequenceName)
+            throws SQLException {
+        final PreparedStatement statement = connection
+                .prepareStatement(QUERY_INCREMENT);
+        try {
+            statement.setString(1, sequenceName);
+            final ResultSet result = statement.executeQuery();
+            try {
+                if (!result.next()) {
+                    throw new SQLException("Sequence " + sequenceName
+                            + " does not exist");
+                }
+                return result.getLong(1);
+            } finally {
+                result.close();
+            }
+        } finally {
+            statement.close();
+        }
+    }
+
+    public long[] nextValues(Connection connection, String sequenceName,
+            int count) throws SQLException {
+        final PreparedStatement statement = connection
+                .prepareStatement(QUERY_NEXT_VALUES);
+        try {
+            statement.setString(1, sequenceName);
+            statement.setLong(2, count);
+            statement.setString(3, sequenceName);
+            final ResultSet result = statement.executeQuery();
+            try {
+                if (!result.next()) {
+                    throw new SQLException("Sequence " + sequenceName
+                            + " does not exist");
+                }
+                final long firstValue = result.getLong(1);
+                final long increment = result.getLong(2);
+                final long[] values = new long[count];
+                for (int i = 0; i < count; ++i) {
+                    values[i] = firstValue + i * increment;
+                }
+                return values;
+            } finally {
+                result.close();
+            }
+        } finally {
+            statement.close();
+        }
+    }
+}
@@ -0,0 +1,140 @@
+/*
+ * Copyright (c) 2011 Petter Holmström
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.github.peholmst.stuff4vaadin.sequence.dialect;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+
+import com.github.peholmst.stuff4vaadin.sequence.SequenceDialect;
+
+/**
+ * Portable sequence dialect for databases without native sequences. The
+ * sequences are stored as rows in a table with the following structure:
+ *
+ * <pre>
+ * CREATE TABLE &lt;tableName&gt; (
+ *     SEQUENCE_NAME VARCHAR(255) NOT NULL PRIMARY KEY,
+ *     NEXT_VALUE BIGINT NOT NULL
+ * )
+ * </pre>
+ *
+ * <code>NEXT_VALUE</code> is the first value that has not yet been reserved.
+ * The values are reserved by incrementing <code>NEXT_VALUE</code> inside a
+ * transaction, which locks the row until the new value has been read. The
+ * increment (block size) is given to the constructor, as the table has no
+ * notion of it.
+ * <p>
+ * Unlike the dialects of native sequences, a reservation needs two statements
+ * (the <code>UPDATE</code> and a <code>SELECT</code> of the new value) as
+ * there is no portable way of reading the updated value in the same
+ * statement. Together with the transaction handling, that is two to five
+ * round-trips to the database server depending on the driver. Use an
+ * {@link com.github.peholmst.stuff4vaadin.sequence.AdaptiveBlockSize} to
+ * reserve several blocks with the same round-trips.
+ *
+ * @author Petter Holmström
+ * @since 1.0
+ */
+public class TableHiLoSequenceDialect implements SequenceDialect {
+
+    private static final long serialVersionUID = 2430307851932557082L;
+
+    private static final String UPDATE_NEXT_VALUE = "UPDATE %s SET NEXT_VALUE = NEXT_VALUE + ? WHERE SEQUENCE_NAME = ?";
+
+    private static final String QUERY_NEXT_VALUE = "SELECT NEXT_VALUE FROM %s WHERE SEQUENCE_NAME = ?";
+
+    private final long increment;
+
+    private final String updateNextValue;
+
+    private final String queryNextValue;
+
+    /**
+     * Creates a new <code>TableHiLoSequenceDialect</code>.
+     *
+     * @param tableName
+     *            the name of the sequence table (must not be <code>null</code>
+     *            nor empty).
+     * @param increment
+     *            the number of values in each block (must be greater than
+     *            zero).
+     */
+    public TableHiLoSequenceDialect(String tableName, long increment) {
+        assert tableName != null && !tableName.isEmpty() : "tableName must not be null nor empty";
+        assert increment > 0 : "increment must be greater than zero";
+        this.increment = increment;
+        this.updateNextValue = String.format(UPDATE_NEXT_VALUE, tableName);
+        this.queryNextValue = String.format(QUERY_NEXT_VALUE, tableName);
+    }
+
+    public long getIncrement(Connection connection, String sequenceName) {
+        return increment;
+    }
+
+    public long[] nextValues(Connection connection, String sequenceName,
+            int count) throws SQLException {
+        final boolean oldAutoCommit = connection.getAutoCommit();
+        connection.setAutoCommit(false);
+        try {
+            final long nextValue = reserve(connection, sequenceName, count
+                    * increment);
+            connection.commit();
+            final long firstValue = nextValue - count * increment;
+            final long[] values = new long[count];
+            for (int i = 0; i < count; ++i) {
+                values[i] = firstValue + i * increment;
+            }
+            return values;
+        } catch (SQLException e) {
+            connection.rollback();
+            throw e;
+        } finally {
+            connection.setAutoCommit(oldAutoCommit);
+        }
+    }
+
+    private long reserve(Connection connection, String sequenceName,
+            long amount) throws SQLException {
+        final PreparedStatement update = connection
+                .prepareStatement(updateNextValue);
+        try {
+            update.setLong(1, amount);
+            update.setString(2, sequenceName);
+            if (update.executeUpdate() != 1) {
+                throw new SQLException("Sequence " + sequenceName
+                        + " does not exist");
+            }
+        } finally {
+            update.close();
+        }
+        final PreparedStatement query = connection
+                .prepareStatement(queryNextValue);
+        try {
+            query.setString(1, sequenceName);
+            final ResultSet result = query.executeQuery();
+            try {
+                result.next();
+                return result.getLong(1);
+            } finally {
+                result.close();
+            }
+        } finally {
+            query.close();
+        }
+    }
+}
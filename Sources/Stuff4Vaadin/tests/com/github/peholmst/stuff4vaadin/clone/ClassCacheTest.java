@@ -0,0 +1,90 @@
+/*
+ * Copyright (c) 2011 Petter Holmström
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.github.peholmst.stuff4vaadin.clone;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.Test;
+
+/**
+ * Test case for {@link ClassCache}.
+ * 
+ * @author Petter Holmström
+ * @since 1.0
+ */
+public class ClassCacheTest {
+
+    @Test
+    public void valueIsCreatedOncePerClass() {
+        final AtomicInteger creations = new AtomicInteger();
+        final ClassCache<String> cache = new ClassCache<String>() {
+            @Override
+            protected String create(Class<?> type) {
+                creations.incrementAndGet();
+                return type.getName();
+            }
+        };
+        final String value = cache.get(String.class);
+        assertEquals("java.lang.String", value);
+        assertSame(value, cache.get(String.class));
+        assertEquals("java.lang.Integer", cache.get(Integer.class));
+        assertEquals(2, creations.get());
+    }
+
+    @Test
+    public void slowCreationDoesNotBlockOtherLookups() throws Exception {
+        final CountDownLatch creating = new CountDownLatch(1);
+        final CountDownLatch release = new CountDownLatch(1);
+        final ClassCache<String> cache = new ClassCache<String>() {
+            @Override
+            protected String create(Class<?> type) {
+                if (type == Integer.class) {
+                    creating.countDown();
+                    try {
+                        release.await();
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                    }
+                }
+                return type.getName();
+            }
+        };
+        cache.get(String.class);
+        final Thread slow = new Thread() {
+            @Override
+            public void run() {
+                cache.get(Integer.class);
+            }
+        };
+        slow.start();
+        try {
+            assertTrue(creating.await(10, TimeUnit.SECONDS));
+            // Would deadlock if create() was invoked while holding a lock
+            assertEquals("java.lang.String", cache.get(String.class));
+            assertEquals("java.lang.Long", cache.get(Long.class));
+        } finally {
+            release.countDown();
+            slow.join();
+        }
+        assertEquals("java.lang.Integer", cache.get(Integer.class));
+    }
+}
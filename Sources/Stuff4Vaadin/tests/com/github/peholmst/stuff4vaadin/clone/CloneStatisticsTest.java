@@ -0,0 +1,159 @@
+/*
+ * Copyright (c) 2011 Petter Holmström
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.github.peholmst.stuff4vaadin.clone;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.List;
+
+import javax.management.ObjectName;
+
+import org.junit.After;
+import org.junit.Test;
+
+import com.github.peholmst.stuff4vaadin.clone.CloneStatistics.Entry;
+import com.github.peholmst.stuff4vaadin.common.ThreadAllocation;
+
+/**
+ * Test case for {@link CloneStatistics}.
+ * 
+ * @author Petter Holmström
+ * @since 1.0
+ */
+public class CloneStatisticsTest {
+
+    static class Item implements Cloneable {
+
+        @Override
+        public Item clone() throws CloneNotSupportedException {
+            return (Item) super.clone();
+        }
+    }
+
+    static class Bean implements Cloneable {
+
+        @CloneThis(deepClone = true)
+        List<Item> items = new ArrayList<Item>();
+
+        @CloneThis
+        int[] numbers = new int[10];
+
+        @CloneThis
+        Item item = new Item();
+
+        @CloneThis
+        Item nullItem;
+
+        @Override
+        public Bean clone() throws CloneNotSupportedException {
+            return CloneUtil.deepClone((Bean) super.clone());
+        }
+    }
+
+    @After
+    public void tearDown() {
+        CloneUtil.setMetrics(null);
+    }
+
+    private static Entry findEntry(List<Entry> entries, String name) {
+        for (Entry entry : entries) {
+            if (entry.getName().equals(name)) {
+                return entry;
+            }
+        }
+        return null;
+    }
+
+    @Test
+    public void rootClonesAndFieldsAreRecorded() throws Exception {
+        final CloneStatistics statistics = new CloneStatistics();
+        CloneUtil.setMetrics(statistics);
+        final Bean bean = new Bean();
+        for (int i = 0; i < 3; ++i) {
+            bean.items.add(new Item());
+        }
+        assertNotSame(bean.item, bean.clone().item);
+        assertNotSame(bean.item, CloneUtil.deepCloneGraph(bean, false).item);
+
+        assertEquals(2L, statistics.getRootCloneCount());
+        final Entry beanEntry = findEntry(statistics.getClassSnapshot(),
+                Bean.class.getName());
+        assertEquals(2L, beanEntry.getCount());
+        assertEquals(statistics.getRootCloneNanos(), beanEntry.getTotalNanos());
+
+        final List<Entry> fields = statistics.getFieldSnapshot();
+        assertEquals(3, fields.size());
+        final String prefix = Bean.class.getName() + ".";
+        assertEquals(6L, findEntry(fields, prefix + "items").getElementCount());
+        assertEquals(20L, findEntry(fields, prefix + "numbers")
+                .getElementCount());
+        assertEquals(2L, findEntry(fields, prefix + "item").getCount());
+        assertEquals(0L, findEntry(fields, prefix + "item").getElementCount());
+        assertNull(findEntry(fields, prefix + "nullItem"));
+        assertTrue(fields.get(0).getTotalNanos() >= fields.get(2)
+                .getTotalNanos());
+
+        statistics.reset();
+        assertEquals(0L, statistics.getRootCloneCount());
+        assertTrue(statistics.getFieldSnapshot().isEmpty());
+    }
+
+    @Test
+    public void allocationsAreRecordedWhenSupported() throws Exception {
+        final CloneStatistics statistics = new CloneStatistics();
+        CloneUtil.setMetrics(statistics);
+        final Bean bean = new Bean();
+        bean.numbers = new int[100000];
+        bean.clone();
+        final long allocated = statistics.getAllocatedBytes();
+        if (ThreadAllocation.currentThreadAllocatedBytes() >= 0) {
+            assertTrue("Allocated only " + allocated, allocated >= 400000);
+        } else {
+            assertEquals(0L, allocated);
+        }
+    }
+
+    @Test
+    public void nothingIsRecordedWhenDisabled() throws Exception {
+        final CloneStatistics statistics = new CloneStatistics();
+        CloneUtil.setMetrics(statistics);
+        CloneUtil.setMetrics(null);
+        new Bean().clone();
+        assertEquals(0L, statistics.getRootCloneCount());
+        assertTrue(statistics.getClassSnapshot().isEmpty());
+    }
+
+    @Test
+    public void registerWithJmx() throws Exception {
+        final CloneStatistics statistics = new CloneStatistics();
+        final ObjectName name = statistics.register("test");
+        try {
+            statistics.rootCloned(Bean.class, 1000L, 64L);
+            assertEquals(1L, ManagementFactory.getPlatformMBeanServer()
+                    .getAttribute(name, "RootCloneCount"));
+            assertEquals(1, ((String[]) ManagementFactory
+                    .getPlatformMBeanServer().getAttribute(name,
+                            "ClassSummary")).length);
+        } finally {
+            statistics.unregister("test");
+        }
+    }
+}
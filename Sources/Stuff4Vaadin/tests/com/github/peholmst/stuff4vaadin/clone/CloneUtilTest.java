@@ -15,13 +15,32 @@
  */
 package com.github.peholmst.stuff4vaadin.clone;
 
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
 import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertNull;
 import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
 
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
 import java.util.HashMap;
 import java.util.HashSet;
+import java.util.IdentityHashMap;
+import java.util.LinkedHashMap;
+import java.util.LinkedList;
+import java.util.List;
 import java.util.Map;
 import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
 
 import org.junit.After;
 import org.junit.Before;
@@ -68,6 +87,173 @@ public class CloneUtilTest {
         }
     }
 
+    static class CloneTestSubclass extends CloneTestClass {
+
+        @CloneThis
+        private CloneTestClass privateMutableThatWillBeCloned;
+
+        @Override
+        public CloneTestSubclass clone() throws CloneNotSupportedException {
+            return (CloneTestSubclass) super.clone();
+        }
+    }
+
+    static class ListCloneTestClass implements Cloneable {
+
+        @CloneThis(deepClone = true)
+        List<Object> listThatWillBeClonedDeeply;
+
+        @Override
+        public ListCloneTestClass clone() throws CloneNotSupportedException {
+            return CloneUtil.deepClone((ListCloneTestClass) super.clone());
+        }
+    }
+
+    static class ShallowCloneTestClass implements Cloneable {
+
+        @CloneThis
+        CloneTestClass mutableThatWillBeClonedRecursively;
+
+        @Override
+        public ShallowCloneTestClass clone() throws CloneNotSupportedException {
+            return (ShallowCloneTestClass) super.clone();
+        }
+    }
+
+    static class ArrayCloneTestClass implements Cloneable {
+
+        @CloneThis
+        int[] intArrayThatWillBeCloned;
+
+        @CloneThis
+        byte[] byteArrayThatWillBeCloned;
+
+        @CloneThis
+        boolean[] booleanArrayThatWillBeCloned;
+
+        @CloneThis
+        double[][] matrixThatWillBeCloned;
+
+        @CloneThis(deepClone = true)
+        CloneTestClass[][] matrixThatWillBeClonedDeeply;
+
+        @Override
+        public ArrayCloneTestClass clone() throws CloneNotSupportedException {
+            return CloneUtil.deepClone((ArrayCloneTestClass) super.clone());
+        }
+    }
+
+    static class LazyCloneTestClass implements Cloneable {
+
+        @CloneThis(lazy = true)
+        List<String> listThatWillBeClonedLazily;
+
+        @CloneThis(lazy = true)
+        Map<String, String> mapThatWillBeClonedLazily;
+
+        @CloneThis(lazy = true)
+        ArrayList<String> arrayListThatWillBeCloned;
+
+        @Override
+        public LazyCloneTestClass clone() throws CloneNotSupportedException {
+            return CloneUtil.deepClone((LazyCloneTestClass) super.clone());
+        }
+    }
+
+    static class UncopyableTestClass {
+
+        UncopyableTestClass(int value) {
+        }
+    }
+
+    static class InvokerLookupTestClass implements Cloneable {
+
+        @Override
+        public InvokerLookupTestClass clone() throws CloneNotSupportedException {
+            return (InvokerLookupTestClass) super.clone();
+        }
+    }
+
+    static class NodeTestClass implements Cloneable {
+
+        final String name;
+
+        NodeTestClass childThatWillBeClonedByCloneMethod;
+
+        @CloneThis(deepClone = true)
+        List<NodeTestClass> listThatWillBeClonedDeeply;
+
+        NodeTestClass(String name) {
+            this.name = name;
+        }
+
+        @Override
+        public NodeTestClass clone() throws CloneNotSupportedException {
+            final NodeTestClass copy = (NodeTestClass) super.clone();
+            if (childThatWillBeClonedByCloneMethod != null) {
+                copy.childThatWillBeClonedByCloneMethod = childThatWillBeClonedByCloneMethod
+                        .clone();
+            }
+            return CloneUtil.deepClone(copy);
+        }
+    }
+
+    static class StructuralTestClass {
+
+        private final long finalPrimitiveThatWillBeCopied;
+
+        char primitiveThatWillBeCopied;
+
+        CloneTestClass mutableThatWillBeCopied;
+
+        @CloneThis(deepClone = true)
+        List<StructuralTestClass> listThatWillBeClonedDeeply;
+
+        private StructuralTestClass() {
+            this(0);
+        }
+
+        StructuralTestClass(long finalPrimitive) {
+            finalPrimitiveThatWillBeCopied = finalPrimitive;
+        }
+    }
+
+    static class CustomCopyTestClass {
+
+        String value;
+    }
+
+    static class StructuralHolderTestClass implements Cloneable {
+
+        @CloneThis
+        StructuralTestClass valueThatWillBeCopied;
+
+        @CloneThis
+        String stringThatWillBeShared;
+
+        @CloneThis
+        Integer numberThatWillBeShared;
+
+        @CloneThis
+        Thread.State enumThatWillBeShared;
+
+        @CloneThis
+        CustomCopyTestClass valueThatWillBeCopiedByStrategy;
+
+        @CloneThis
+        List<String> platformListThatCannotBeCopied;
+
+        @CloneThis(deepClone = true)
+        Map<String, StructuralTestClass> platformMapThatCannotBeCopied;
+
+        @Override
+        public StructuralHolderTestClass clone()
+                throws CloneNotSupportedException {
+            return CloneUtil.deepClone((StructuralHolderTestClass) super
+                    .clone());
+        }
+    }
+
     CloneTestClass original;
     CloneTestClass clone;
 
@@ -162,4 +348,648 @@ public class CloneUtilTest {
         assertNotSame(original.mapThatWillBeClonedDeeply.get("key"),
                 clone.mapThatWillBeClonedDeeply.get("key"));
     }
+
+    @Test
+    public void fieldsOfSubclassAndSuperclassAreCloned() throws Exception {
+        CloneTestSubclass subclassOriginal = new CloneTestSubclass();
+        subclassOriginal.privateMutableThatWillBeCloned = new CloneTestClass();
+        subclassOriginal.mutableThatWillBeCloned = new CloneTestClass();
+        original = subclassOriginal;
+        CloneTestSubclass subclassClone = subclassOriginal.clone();
+        clone = subclassClone;
+        assertNotSame(subclassOriginal.privateMutableThatWillBeCloned,
+                subclassClone.privateMutableThatWillBeCloned);
+        assertNotSame(subclassOriginal.mutableThatWillBeCloned,
+                subclassClone.mutableThatWillBeCloned);
+    }
+
+    @Test
+    public void clonePlanIsCached() throws Exception {
+        ClonePlan plan = ClonePlan.forClass(CloneTestSubclass.class);
+        assertSame(plan, ClonePlan.forClass(CloneTestSubclass.class));
+        assertEquals(CloneTestSubclass.class, plan.getType());
+        assertEquals(8, plan.getFieldCount());
+        clone = original.clone();
+    }
+
+    @Test
+    public void largeListIsClonedDeeply() throws Exception {
+        ListCloneTestClass listOriginal = new ListCloneTestClass();
+        listOriginal.listThatWillBeClonedDeeply = new ArrayList<Object>();
+        for (int i = 0; i < 10000; ++i) {
+            listOriginal.listThatWillBeClonedDeeply.add(new CloneTestClass());
+        }
+        listOriginal.listThatWillBeClonedDeeply.add(null);
+        ListCloneTestClass listClone = listOriginal.clone();
+        assertEquals(10001, listClone.listThatWillBeClonedDeeply.size());
+        for (int i = 0; i < 10000; ++i) {
+            assertNotSame(listOriginal.listThatWillBeClonedDeeply.get(i),
+                    listClone.listThatWillBeClonedDeeply.get(i));
+        }
+        clone = original.clone();
+    }
+
+    @Test
+    public void failureToCloneItemKeepsCause() throws Exception {
+        ListCloneTestClass listOriginal = new ListCloneTestClass();
+        listOriginal.listThatWillBeClonedDeeply = new ArrayList<Object>();
+        listOriginal.listThatWillBeClonedDeeply.add(new UncopyableTestClass(1));
+        try {
+            listOriginal.clone();
+            fail("No exception thrown");
+        } catch (CloneNotSupportedException e) {
+            assertNotNull(e.getCause());
+        }
+        clone = original.clone();
+    }
+
+    @Test
+    public void cloneInvokersAreCached() throws Exception {
+        CloneInvoker invoker = CloneInvoker.forClass(CloneTestClass.class);
+        assertSame(invoker, CloneInvoker.forClass(CloneTestClass.class));
+        assertSame(invoker, CloneInvoker.forObject(original, null));
+        CloneInvoker unsupported = CloneInvoker.forClass(Object.class);
+        assertSame(unsupported, CloneInvoker.forClass(Object.class));
+        clone = (CloneTestClass) invoker.invoke(original);
+    }
+
+    @Test
+    public void concurrentlyLookedUpInvokersAreShared() throws Exception {
+        // Not looked up by any other test
+        final Class<?> type = InvokerLookupTestClass.class;
+        final CloneInvoker[] invokers = new CloneInvoker[8];
+        final CountDownLatch start = new CountDownLatch(1);
+        final Thread[] threads = new Thread[invokers.length];
+        for (int i = 0; i < threads.length; ++i) {
+            final int index = i;
+            threads[i] = new Thread() {
+                @Override
+                public void run() {
+                    try {
+                        start.await();
+                    } catch (InterruptedException e) {
+                        return;
+                    }
+                    invokers[index] = CloneInvoker.forObject(
+                            new InvokerLookupTestClass(),
+                            CloneInvoker.forClass(CloneTestClass.class));
+                }
+            };
+            threads[i].start();
+        }
+        start.countDown();
+        for (Thread thread : threads) {
+            thread.join();
+        }
+        for (CloneInvoker invoker : invokers) {
+            assertSame(type, invoker.getType());
+            assertSame(invokers[0], invoker);
+        }
+    }
+
+    @Test
+    public void sharedReferenceIsClonedOnce() throws Exception {
+        final CloneTestClass shared = new CloneTestClass();
+        original.mutableThatWillBeCloned = shared;
+        original.arrayThatWillBeClonedDeeply = new CloneTestClass[] { shared,
+                shared };
+        original.collectionThatWillBeClonedDeeply = new HashSet<CloneTestClass>();
+        original.collectionThatWillBeClonedDeeply.add(shared);
+        clone = original.clone();
+        assertNotSame(shared, clone.mutableThatWillBeCloned);
+        assertSame(clone.mutableThatWillBeCloned,
+                clone.arrayThatWillBeClonedDeeply[0]);
+        assertSame(clone.mutableThatWillBeCloned,
+                clone.arrayThatWillBeClonedDeeply[1]);
+        assertSame(clone.mutableThatWillBeCloned,
+                clone.collectionThatWillBeClonedDeeply.iterator().next());
+        assertNull(CloneContext.getCurrent());
+    }
+
+    @Test
+    public void cycleIsClonedOnce() throws Exception {
+        final CloneTestClass child = new CloneTestClass();
+        child.mutableThatWillBeCloned = original;
+        original.collectionThatWillBeClonedDeeply = new HashSet<CloneTestClass>();
+        original.collectionThatWillBeClonedDeeply.add(child);
+        clone = original.clone();
+        final CloneTestClass clonedChild = clone.collectionThatWillBeClonedDeeply
+                .iterator().next();
+        assertNotSame(child, clonedChild);
+        // The original is only known by its shallow clone, so it is cloned
+        // once more, but the cycle ends there
+        final CloneTestClass clonedParent = clonedChild.mutableThatWillBeCloned;
+        assertNotSame(original, clonedParent);
+        assertSame(clonedChild, clonedParent.collectionThatWillBeClonedDeeply
+                .iterator().next());
+    }
+
+    @Test
+    public void cycleIsClonedOnceAsGraph() throws Exception {
+        final CloneTestClass child = new CloneTestClass();
+        child.mutableThatWillBeCloned = original;
+        original.collectionThatWillBeClonedDeeply = new HashSet<CloneTestClass>();
+        original.collectionThatWillBeClonedDeeply.add(child);
+        clone = CloneUtil.deepCloneGraph(original, false);
+        final CloneTestClass clonedChild = clone.collectionThatWillBeClonedDeeply
+                .iterator().next();
+        assertNotSame(child, clonedChild);
+        assertSame(clone, clonedChild.mutableThatWillBeCloned);
+        assertNull(CloneContext.getCurrent());
+    }
+
+    @Test
+    public void repeatedItemIsClonedOnce() throws Exception {
+        final ListCloneTestClass listOriginal = new ListCloneTestClass();
+        listOriginal.listThatWillBeClonedDeeply = new ArrayList<Object>();
+        listOriginal.listThatWillBeClonedDeeply.add(original);
+        listOriginal.listThatWillBeClonedDeeply.add(original);
+        final ListCloneTestClass listClone = listOriginal.clone();
+        assertNotSame(original, listClone.listThatWillBeClonedDeeply.get(0));
+        assertSame(listClone.listThatWillBeClonedDeeply.get(0),
+                listClone.listThatWillBeClonedDeeply.get(1));
+        clone = (CloneTestClass) listClone.listThatWillBeClonedDeeply.get(0);
+    }
+
+    @Test
+    public void recursiveGraphCloneClonesFieldsOfShallowClones()
+            throws Exception {
+        final ShallowCloneTestClass shallowOriginal = new ShallowCloneTestClass();
+        shallowOriginal.mutableThatWillBeClonedRecursively = original;
+
+        final ShallowCloneTestClass nonRecursiveClone = CloneUtil
+                .deepCloneGraph(shallowOriginal, false);
+        assertSame(original,
+                nonRecursiveClone.mutableThatWillBeClonedRecursively);
+
+        final ShallowCloneTestClass recursiveClone = CloneUtil.deepCloneGraph(
+                shallowOriginal, true);
+        assertNotSame(shallowOriginal, recursiveClone);
+        clone = recursiveClone.mutableThatWillBeClonedRecursively;
+        assertNotNull(clone);
+    }
+
+    @Test
+    public void deepCopyOfAccessOrderedLinkedHashMapKeepsAccessOrder()
+            throws Exception {
+        final LinkedHashMap<String, CloneTestClass> map = new LinkedHashMap<String, CloneTestClass>(
+                16, 0.75f, true);
+        map.put("a", new CloneTestClass());
+        map.put("b", new CloneTestClass());
+        map.put("c", new CloneTestClass());
+        map.get("a");
+        original.mapThatWillBeClonedDeeply = map;
+        clone = original.clone();
+        final Map<String, CloneTestClass> clonedMap = clone.mapThatWillBeClonedDeeply;
+        assertEquals(LinkedHashMap.class, clonedMap.getClass());
+        assertEquals(Arrays.asList("b", "c", "a"), new ArrayList<String>(
+                clonedMap.keySet()));
+        clonedMap.get("b");
+        assertEquals(Arrays.asList("c", "a", "b"), new ArrayList<String>(
+                clonedMap.keySet()));
+        // The source is not reordered by the copy
+        assertEquals(Arrays.asList("b", "c", "a"),
+                new ArrayList<String>(map.keySet()));
+    }
+
+    @Test
+    public void deepCopyOfLinkedHashMapKeepsInsertionOrder() throws Exception {
+        final LinkedHashMap<String, CloneTestClass> map = new LinkedHashMap<String, CloneTestClass>();
+        map.put("b", new CloneTestClass());
+        map.put("a", new CloneTestClass());
+        original.mapThatWillBeClonedDeeply = map;
+        clone = original.clone();
+        final Map<String, CloneTestClass> clonedMap = clone.mapThatWillBeClonedDeeply;
+        clonedMap.get("b");
+        assertEquals(Arrays.asList("b", "a"), new ArrayList<String>(
+                clonedMap.keySet()));
+    }
+
+    @Test
+    public void deepCopyOfTreeMapKeepsComparator() throws Exception {
+        final TreeMap<String, CloneTestClass> map = new TreeMap<String, CloneTestClass>(
+                Collections.reverseOrder());
+        map.put("a", new CloneTestClass());
+        map.put("b", new CloneTestClass());
+        original.mapThatWillBeClonedDeeply = map;
+        clone = original.clone();
+        final Map<String, CloneTestClass> clonedMap = clone.mapThatWillBeClonedDeeply;
+        assertEquals(TreeMap.class, clonedMap.getClass());
+        assertSame(map.comparator(),
+                ((TreeMap<String, CloneTestClass>) clonedMap).comparator());
+        assertEquals(Arrays.asList("b", "a"),
+                new ArrayList<String>(clonedMap.keySet()));
+        assertNotSame(map.get("a"), clonedMap.get("a"));
+    }
+
+    @Test
+    public void deepCopyOfLinkedListKeepsClassAndOrder() throws Exception {
+        final ListCloneTestClass listOriginal = new ListCloneTestClass();
+        listOriginal.listThatWillBeClonedDeeply = new LinkedList<Object>();
+        for (int i = 0; i < 3; ++i) {
+            listOriginal.listThatWillBeClonedDeeply.add(new CloneTestClass());
+        }
+        listOriginal.listThatWillBeClonedDeeply.add(null);
+        final ListCloneTestClass listClone = listOriginal.clone();
+        assertEquals(LinkedList.class,
+                listClone.listThatWillBeClonedDeeply.getClass());
+        assertEquals(4, listClone.listThatWillBeClonedDeeply.size());
+        for (int i = 0; i < 3; ++i) {
+            assertNotSame(listOriginal.listThatWillBeClonedDeeply.get(i),
+                    listClone.listThatWillBeClonedDeeply.get(i));
+        }
+        assertNull(listClone.listThatWillBeClonedDeeply.get(3));
+        clone = (CloneTestClass) listClone.listThatWillBeClonedDeeply.get(0);
+    }
+
+    @SuppressWarnings("serial")
+    static class CustomList extends ArrayList<Object> {
+    }
+
+    @Test
+    public void registeredCollectionCopierIsUsed() throws Exception {
+        final int[] copies = new int[1];
+        CloneUtil.registerCollectionCopier(CustomList.class,
+                new CollectionCopier<CustomList>() {
+                    @Override
+                    public CustomList createCopy(CustomList source) {
+                        ++copies[0];
+                        return new CustomList();
+                    }
+                });
+        try {
+            final ListCloneTestClass listOriginal = new ListCloneTestClass();
+            listOriginal.listThatWillBeClonedDeeply = new CustomList();
+            listOriginal.listThatWillBeClonedDeeply.add(original);
+            final ListCloneTestClass listClone = listOriginal.clone();
+            assertEquals(1, copies[0]);
+            assertEquals(CustomList.class,
+                    listClone.listThatWillBeClonedDeeply.getClass());
+            clone = (CloneTestClass) listClone.listThatWillBeClonedDeeply
+                    .get(0);
+        } finally {
+            CloneUtil.registerCollectionCopier(CustomList.class, null);
+        }
+    }
+
+    @Test
+    public void primitiveArraysAreCloned() throws Exception {
+        final ArrayCloneTestClass arrayOriginal = new ArrayCloneTestClass();
+        arrayOriginal.intArrayThatWillBeCloned = new int[] { 1, 2, 3 };
+        arrayOriginal.byteArrayThatWillBeCloned = new byte[] { 4, 5 };
+        arrayOriginal.booleanArrayThatWillBeCloned = new boolean[] { true };
+        final ArrayCloneTestClass arrayClone = arrayOriginal.clone();
+        assertNotSame(arrayOriginal.intArrayThatWillBeCloned,
+                arrayClone.intArrayThatWillBeCloned);
+        assertArrayEquals(arrayOriginal.intArrayThatWillBeCloned,
+                arrayClone.intArrayThatWillBeCloned);
+        assertNotSame(arrayOriginal.byteArrayThatWillBeCloned,
+                arrayClone.byteArrayThatWillBeCloned);
+        assertArrayEquals(arrayOriginal.byteArrayThatWillBeCloned,
+                arrayClone.byteArrayThatWillBeCloned);
+        assertNotSame(arrayOriginal.booleanArrayThatWillBeCloned,
+                arrayClone.booleanArrayThatWillBeCloned);
+        assertTrue(arrayClone.booleanArrayThatWillBeCloned[0]);
+        clone = original.clone();
+    }
+
+    @Test
+    public void multiDimensionalArraysAreClonedRecursively() throws Exception {
+        final ArrayCloneTestClass arrayOriginal = new ArrayCloneTestClass();
+        final double[] sharedRow = new double[] { 1.0, 2.0 };
+        arrayOriginal.matrixThatWillBeCloned = new double[][] { sharedRow,
+                sharedRow, null };
+        arrayOriginal.matrixThatWillBeClonedDeeply = new CloneTestClass[][] { new CloneTestClass[] { original } };
+        final ArrayCloneTestClass arrayClone = arrayOriginal.clone();
+        final double[][] matrix = arrayClone.matrixThatWillBeCloned;
+        assertNotSame(sharedRow, matrix[0]);
+        assertSame(matrix[0], matrix[1]);
+        assertNull(matrix[2]);
+        assertArrayEquals(sharedRow, matrix[0], 0.0);
+        assertNotSame(arrayOriginal.matrixThatWillBeClonedDeeply[0],
+                arrayClone.matrixThatWillBeClonedDeeply[0]);
+        clone = arrayClone.matrixThatWillBeClonedDeeply[0][0];
+    }
+
+    private static List<Object> createParallelTestItems(int count) {
+        final List<Object> items = new ArrayList<Object>();
+        for (int i = 0; i < count; ++i) {
+            final CloneTestClass item = new CloneTestClass();
+            item.immutableThatWillBeCopied = Integer.toString(i);
+            item.mutableThatWillBeCloned = new CloneTestClass();
+            items.add(item);
+        }
+        // Items shared across chunks
+        for (int i = 0; i < count; i += 100) {
+            items.add(items.get(i));
+        }
+        return items;
+    }
+
+    private static void assertParallelTestItemsCloned(List<Object> items,
+            List<Object> clones) {
+        assertEquals(items.size(), clones.size());
+        final IdentityHashMap<Object, Object> seen = new IdentityHashMap<Object, Object>();
+        for (int i = 0; i < items.size(); ++i) {
+            final CloneTestClass item = (CloneTestClass) items.get(i);
+            final CloneTestClass itemClone = (CloneTestClass) clones.get(i);
+            assertNotSame(item, itemClone);
+            assertEquals(item.immutableThatWillBeCopied,
+                    itemClone.immutableThatWillBeCopied);
+            assertNotSame(item.mutableThatWillBeCloned,
+                    itemClone.mutableThatWillBeCloned);
+            final Object previous = seen.put(item, itemClone);
+            if (previous != null) {
+                assertSame(previous, itemClone);
+            }
+        }
+    }
+
+    @Test
+    public void parallelCloneEqualsSequentialClone() throws Exception {
+        final ExecutorService executor = Executors.newFixedThreadPool(4);
+        CloneUtil.setParallelCloning(executor, 1000);
+        try {
+            final ListCloneTestClass listOriginal = new ListCloneTestClass();
+            listOriginal.listThatWillBeClonedDeeply = createParallelTestItems(10000);
+            final ListCloneTestClass listClone = listOriginal.clone();
+            assertParallelTestItemsCloned(
+                    listOriginal.listThatWillBeClonedDeeply,
+                    listClone.listThatWillBeClonedDeeply);
+
+            final List<Object> items = createParallelTestItems(5000);
+            original.arrayThatWillBeClonedDeeply = items
+                    .toArray(new CloneTestClass[items.size()]);
+            original.mapThatWillBeClonedDeeply = new LinkedHashMap<String, CloneTestClass>();
+            for (int i = 0; i < items.size(); ++i) {
+                original.mapThatWillBeClonedDeeply.put(Integer.toString(i),
+                        (CloneTestClass) items.get(i));
+            }
+            clone = original.clone();
+            assertParallelTestItemsCloned(items, Arrays
+                    .<Object> asList(clone.arrayThatWillBeClonedDeeply));
+            assertParallelTestItemsCloned(items, new ArrayList<Object>(
+                    clone.mapThatWillBeClonedDeeply.values()));
+            // The same items in the array and the map are cloned once
+            assertSame(clone.arrayThatWillBeClonedDeeply[0],
+                    clone.mapThatWillBeClonedDeeply.get("0"));
+        } finally {
+            CloneUtil.setParallelCloning(null, 1);
+            executor.shutdown();
+        }
+    }
+
+    @Test
+    public void parallelCloneFailureIsThrown() throws Exception {
+        final ExecutorService executor = Executors.newFixedThreadPool(2);
+        CloneUtil.setParallelCloning(executor, 1000);
+        try {
+            final ListCloneTestClass listOriginal = new ListCloneTestClass();
+            listOriginal.listThatWillBeClonedDeeply = createParallelTestItems(2000);
+            listOriginal.listThatWillBeClonedDeeply.set(1500,
+                    new UncopyableTestClass(1));
+            listOriginal.clone();
+            fail("No exception thrown");
+        } catch (CloneNotSupportedException e) {
+            assertNotNull(e.getCause());
+        } finally {
+            CloneUtil.setParallelCloning(null, 1);
+            executor.shutdown();
+        }
+        clone = original.clone();
+    }
+
+    @Test
+    public void parallelCloneCompletesWithShutDownExecutor() throws Exception {
+        final ExecutorService executor = Executors.newFixedThreadPool(2);
+        executor.shutdown();
+        CloneUtil.setParallelCloning(executor, 1000);
+        try {
+            final ListCloneTestClass listOriginal = new ListCloneTestClass();
+            listOriginal.listThatWillBeClonedDeeply = createParallelTestItems(2000);
+            final ListCloneTestClass listClone = listOriginal.clone();
+            assertParallelTestItemsCloned(
+                    listOriginal.listThatWillBeClonedDeeply,
+                    listClone.listThatWillBeClonedDeeply);
+        } finally {
+            CloneUtil.setParallelCloning(null, 1);
+        }
+        clone = original.clone();
+    }
+
+    @Test
+    public void lazyFieldsAreCopiedOnWrite() throws Exception {
+        final LazyCloneTestClass lazyOriginal = new LazyCloneTestClass();
+        lazyOriginal.listThatWillBeClonedLazily = new ArrayList<String>(
+                Arrays.asList("a", "b"));
+        lazyOriginal.mapThatWillBeClonedLazily = new HashMap<String, String>();
+        lazyOriginal.mapThatWillBeClonedLazily.put("a", "b");
+        lazyOriginal.arrayListThatWillBeCloned = new ArrayList<String>();
+
+        final LazyCloneTestClass firstClone = lazyOriginal.clone();
+        assertTrue(CopyOnWriteCollections
+                .isCopyOnWrite(firstClone.listThatWillBeClonedLazily));
+        assertTrue(CopyOnWriteCollections
+                .isCopyOnWrite(firstClone.mapThatWillBeClonedLazily));
+        // Cannot hold a wrapper
+        assertEquals(ArrayList.class,
+                firstClone.arrayListThatWillBeCloned.getClass());
+        assertNotSame(lazyOriginal.arrayListThatWillBeCloned,
+                firstClone.arrayListThatWillBeCloned);
+
+        final LazyCloneTestClass secondClone = firstClone.clone();
+        secondClone.listThatWillBeClonedLazily.add("c");
+        secondClone.mapThatWillBeClonedLazily.put("a", "c");
+        assertEquals(Arrays.asList("a", "b"),
+                firstClone.listThatWillBeClonedLazily);
+        assertEquals("b", firstClone.mapThatWillBeClonedLazily.get("a"));
+        assertEquals(Arrays.asList("a", "b", "c"),
+                secondClone.listThatWillBeClonedLazily);
+        assertEquals("c", secondClone.mapThatWillBeClonedLazily.get("a"));
+        assertEquals(Arrays.asList("a", "b"),
+                lazyOriginal.listThatWillBeClonedLazily);
+        clone = original.clone();
+    }
+
+    @Test
+    public void valueWithoutCloneMethodIsCopiedStructurally() throws Exception {
+        final StructuralHolderTestClass holder = new StructuralHolderTestClass();
+        holder.valueThatWillBeCopied = new StructuralTestClass(42);
+        holder.valueThatWillBeCopied.primitiveThatWillBeCopied = 'x';
+        holder.valueThatWillBeCopied.mutableThatWillBeCopied = new CloneTestClass();
+        holder.valueThatWillBeCopied.listThatWillBeClonedDeeply = new ArrayList<StructuralTestClass>();
+        holder.valueThatWillBeCopied.listThatWillBeClonedDeeply
+                .add(holder.valueThatWillBeCopied);
+        holder.valueThatWillBeCopied.listThatWillBeClonedDeeply
+                .add(new StructuralTestClass(7));
+
+        final StructuralTestClass copy = holder.clone().valueThatWillBeCopied;
+        final StructuralTestClass value = holder.valueThatWillBeCopied;
+        assertNotSame(value, copy);
+        assertEquals(42, copy.finalPrimitiveThatWillBeCopied);
+        assertEquals('x', copy.primitiveThatWillBeCopied);
+        assertSame(value.mutableThatWillBeCopied, copy.mutableThatWillBeCopied);
+        assertNotSame(value.listThatWillBeClonedDeeply,
+                copy.listThatWillBeClonedDeeply);
+        // The cycle back to the value resolves to the copy
+        assertSame(copy, copy.listThatWillBeClonedDeeply.get(0));
+        assertNotSame(value.listThatWillBeClonedDeeply.get(1),
+                copy.listThatWillBeClonedDeeply.get(1));
+        assertEquals(7,
+                copy.listThatWillBeClonedDeeply.get(1).finalPrimitiveThatWillBeCopied);
+        clone = original.clone();
+    }
+
+    @Test
+    public void platformClassesWithoutCloneMethodAreNotCopiedStructurally()
+            throws Exception {
+        final StructuralHolderTestClass holder = new StructuralHolderTestClass();
+        holder.platformListThatCannotBeCopied = Collections
+                .unmodifiableList(new ArrayList<String>());
+        try {
+            holder.clone();
+            fail("No exception thrown");
+        } catch (CloneNotSupportedException e) {
+            assertTrue(e.getMessage().contains("CopyStrategy"));
+        }
+        holder.platformListThatCannotBeCopied = Arrays.asList("a", "b");
+        try {
+            holder.clone();
+            fail("No exception thrown");
+        } catch (CloneNotSupportedException e) {
+            // Expected, the copy would share the array
+        }
+        holder.platformListThatCannotBeCopied = null;
+        holder.platformMapThatCannotBeCopied = new ConcurrentHashMap<String, StructuralTestClass>();
+        holder.platformMapThatCannotBeCopied.put("a", new StructuralTestClass(1));
+        try {
+            holder.clone();
+            fail("No exception thrown");
+        } catch (CloneNotSupportedException e) {
+            // Expected, the copy would share the table
+        }
+        clone = original.clone();
+    }
+
+    @SuppressWarnings("rawtypes")
+    @Test
+    public void platformClassesCanBeCopiedUsingRegisteredStrategy()
+            throws Exception {
+        final StructuralHolderTestClass holder = new StructuralHolderTestClass();
+        holder.platformMapThatCannotBeCopied = new ConcurrentHashMap<String, StructuralTestClass>();
+        holder.platformMapThatCannotBeCopied.put("a", new StructuralTestClass(1));
+        CloneUtil.registerCopyStrategy(ConcurrentHashMap.class,
+                new CopyStrategy<ConcurrentHashMap>() {
+                    @Override
+                    public ConcurrentHashMap copy(ConcurrentHashMap original,
+                            CloneContext context) {
+                        return new ConcurrentHashMap();
+                    }
+                });
+        try {
+            final Map<String, StructuralTestClass> map = holder.clone().platformMapThatCannotBeCopied;
+            assertEquals(ConcurrentHashMap.class, map.getClass());
+            assertEquals(1, map.size());
+            // The value was cloned deeply and copied structurally
+            assertNotSame(holder.platformMapThatCannotBeCopied.get("a"),
+                    map.get("a"));
+            assertEquals(1, map.get("a").finalPrimitiveThatWillBeCopied);
+        } finally {
+            CloneUtil.registerCopyStrategy(ConcurrentHashMap.class, null);
+        }
+        clone = original.clone();
+    }
+
+    @Test
+    public void platformClassesAreRecognized() {
+        assertTrue(CopyStrategies.isPlatformClass(ConcurrentHashMap.class));
+        assertTrue(CopyStrategies.isPlatformClass(Arrays.asList().getClass()));
+        assertFalse(CopyStrategies.isPlatformClass(StructuralTestClass.class));
+        clone = new CloneTestClass();
+    }
+
+    @Test
+    public void immutableValuesAreShared() throws Exception {
+        final StructuralHolderTestClass holder = new StructuralHolderTestClass();
+        holder.stringThatWillBeShared = new String("Hello World");
+        holder.numberThatWillBeShared = new Integer(123456);
+        holder.enumThatWillBeShared = Thread.State.RUNNABLE;
+        final StructuralHolderTestClass holderClone = holder.clone();
+        assertSame(holder.stringThatWillBeShared,
+                holderClone.stringThatWillBeShared);
+        assertSame(holder.numberThatWillBeShared,
+                holderClone.numberThatWillBeShared);
+        assertSame(holder.enumThatWillBeShared,
+                holderClone.enumThatWillBeShared);
+        clone = original.clone();
+    }
+
+    @Test
+    public void enumsAndJavaTimeClassesAreImmutable() {
+        assertTrue(CopyStrategies.isImmutable(Thread.State.class));
+        assertFalse(CopyStrategies.isImmutable(StructuralTestClass.class));
+        try {
+            assertTrue(CopyStrategies.isImmutable(Class
+                    .forName("java.time.Instant")));
+        } catch (ClassNotFoundException e) {
+            // Not available on this platform
+        }
+        clone = new CloneTestClass();
+    }
+
+    @Test
+    public void registeredCopyStrategyIsUsed() throws Exception {
+        final StructuralHolderTestClass holder = new StructuralHolderTestClass();
+        holder.valueThatWillBeCopiedByStrategy = new CustomCopyTestClass();
+        holder.valueThatWillBeCopiedByStrategy.value = "original";
+        CloneUtil.registerCopyStrategy(CustomCopyTestClass.class,
+                new CopyStrategy<CustomCopyTestClass>() {
+                    @Override
+                    public CustomCopyTestClass copy(
+                            CustomCopyTestClass original, CloneContext context) {
+                        final CustomCopyTestClass copy = new CustomCopyTestClass();
+                        copy.value = "copy of " + original.value;
+                        return copy;
+                    }
+                });
+        try {
+            assertEquals("copy of original",
+                    holder.clone().valueThatWillBeCopiedByStrategy.value);
+            CloneUtil.registerCopyStrategy(CustomCopyTestClass.class,
+                    CopyStrategy.IMMUTABLE);
+            assertSame(holder.valueThatWillBeCopiedByStrategy,
+                    holder.clone().valueThatWillBeCopiedByStrategy);
+        } finally {
+            CloneUtil.registerCopyStrategy(CustomCopyTestClass.class, null);
+        }
+        assertNotSame(holder.valueThatWillBeCopiedByStrategy,
+                holder.clone().valueThatWillBeCopiedByStrategy);
+        clone = original.clone();
+    }
+
+    @Test
+    public void nestedCloneOfSameClassDoesNotClaimOriginal() throws Exception {
+        final NodeTestClass root = new NodeTestClass("root");
+        final NodeTestClass child = new NodeTestClass("child");
+        root.childThatWillBeClonedByCloneMethod = child;
+        root.listThatWillBeClonedDeeply = new ArrayList<NodeTestClass>();
+        root.listThatWillBeClonedDeeply.add(root);
+        final ListCloneTestClass holder = new ListCloneTestClass();
+        holder.listThatWillBeClonedDeeply = new ArrayList<Object>();
+        holder.listThatWillBeClonedDeeply.add(root);
+        holder.listThatWillBeClonedDeeply.add(root);
+        holder.listThatWillBeClonedDeeply.add(child);
+
+        final List<Object> refs = holder.clone().listThatWillBeClonedDeeply;
+        final NodeTestClass rootClone = (NodeTestClass) refs.get(0);
+        assertNotSame(root, rootClone);
+        assertEquals("root", rootClone.name);
+        assertSame(rootClone, refs.get(1));
+        assertSame(rootClone, rootClone.listThatWillBeClonedDeeply.get(0));
+        assertEquals("child",
+                rootClone.childThatWillBeClonedByCloneMethod.name);
+        assertNotSame(child, refs.get(2));
+        assertEquals("child", ((NodeTestClass) refs.get(2)).name);
+        clone = original.clone();
+    }
 }
@@ -0,0 +1,138 @@
+/*
+ * Copyright (c) 2011 Petter Holmström
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.github.peholmst.stuff4vaadin.clone;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import org.junit.Test;
+
+/**
+ * Test case for {@link CopyOnWriteCollections}.
+ * 
+ * @author Petter Holmström
+ * @since 1.0
+ */
+public class CopyOnWriteCollectionsTest {
+
+    @SuppressWarnings("unchecked")
+    private static <T> T share(T wrapper) {
+        return (T) CopyOnWriteCollections.wrap(wrapper);
+    }
+
+    @Test
+    public void sharedListIsCopiedOnWrite() {
+        final List<String> original = CopyOnWriteCollections
+                .list(new ArrayList<String>(Arrays.asList("a", "b")));
+        final List<String> clone = share(original);
+        assertEquals(original, clone);
+
+        clone.add("c");
+        assertEquals(Arrays.asList("a", "b"), original);
+        assertEquals(Arrays.asList("a", "b", "c"), clone);
+
+        original.set(0, "x");
+        assertEquals(Arrays.asList("x", "b"), original);
+        assertEquals(Arrays.asList("a", "b", "c"), clone);
+    }
+
+    @Test
+    public void originalIsCopiedOnWriteToo() {
+        final List<String> original = CopyOnWriteCollections
+                .list(new ArrayList<String>(Arrays.asList("a", "b")));
+        final List<String> clone = share(original);
+        original.remove(0);
+        assertEquals(Arrays.asList("b"), original);
+        assertEquals(Arrays.asList("a", "b"), clone);
+    }
+
+    @Test
+    public void removeThroughIteratorOfSharedSet() {
+        final Set<String> original = CopyOnWriteCollections
+                .set(new HashSet<String>(Arrays.asList("a", "b", "c")));
+        final Set<String> clone = share(original);
+        for (Iterator<String> it = clone.iterator(); it.hasNext();) {
+            if (!it.next().equals("b")) {
+                it.remove();
+            }
+        }
+        assertEquals(new HashSet<String>(Arrays.asList("b")), clone);
+        assertEquals(3, original.size());
+    }
+
+    @Test
+    public void setValueAndRemoveThroughEntriesOfSharedMap() {
+        final Map<String, Integer> source = new HashMap<String, Integer>();
+        source.put("a", 1);
+        source.put("b", 2);
+        final Map<String, Integer> original = CopyOnWriteCollections
+                .map(source);
+        final Map<String, Integer> clone = share(original);
+        for (Iterator<Map.Entry<String, Integer>> it = clone.entrySet()
+                .iterator(); it.hasNext();) {
+            final Map.Entry<String, Integer> entry = it.next();
+            if (entry.getKey().equals("a")) {
+                entry.setValue(10);
+            } else {
+                it.remove();
+            }
+        }
+        assertEquals(1, clone.size());
+        assertEquals(Integer.valueOf(10), clone.get("a"));
+        assertEquals(Integer.valueOf(1), original.get("a"));
+        assertEquals(Integer.valueOf(2), original.get("b"));
+    }
+
+    @Test
+    @SuppressWarnings("unchecked")
+    public void sharingSurvivesSerialization() throws Exception {
+        final List<String> original = CopyOnWriteCollections
+                .list(new ArrayList<String>(Arrays.asList("a")));
+        final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        final ObjectOutputStream out = new ObjectOutputStream(bytes);
+        out.writeObject(new Object[] { original, share(original) });
+        out.close();
+        final Object[] lists = (Object[]) new ObjectInputStream(
+                new ByteArrayInputStream(bytes.toByteArray())).readObject();
+        final List<String> first = (List<String>) lists[0];
+        final List<String> second = (List<String>) lists[1];
+        first.add("b");
+        assertEquals(Arrays.asList("a", "b"), first);
+        assertEquals(Arrays.asList("a"), second);
+    }
+
+    @Test
+    public void wrappersAreRecognized() {
+        assertTrue(CopyOnWriteCollections.isCopyOnWrite(CopyOnWriteCollections
+                .list(new ArrayList<String>())));
+        assertFalse(CopyOnWriteCollections
+                .isCopyOnWrite(new ArrayList<String>()));
+    }
+}
@@ -0,0 +1,191 @@
+/*
+ * Copyright (c) 2011 Petter Holmström
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.github.peholmst.stuff4vaadin.clone.processor;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.File;
+import java.lang.reflect.Field;
+import java.net.URI;
+import java.net.URL;
+import java.net.URLClassLoader;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import javax.tools.Diagnostic;
+import javax.tools.DiagnosticCollector;
+import javax.tools.JavaCompiler;
+import javax.tools.JavaFileObject;
+import javax.tools.SimpleJavaFileObject;
+import javax.tools.StandardJavaFileManager;
+import javax.tools.StandardLocation;
+import javax.tools.ToolProvider;
+
+import org.junit.After;
+import org.junit.Assume;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.github.peholmst.stuff4vaadin.clone.CloneUtil;
+import com.github.peholmst.stuff4vaadin.clone.CopyOnWriteCollections;
+
+/**
+ * Test case for {@link ClonerProcessor}. The test compiles a class with the
+ * processor enabled and clones instances of it.
+ * 
+ * @author Petter Holmström
+ * @since 1.0
+ */
+public class ClonerProcessorTest {
+
+    private static final String SOURCE = "package test.generated;\n"
+            + "import com.github.peholmst.stuff4vaadin.clone.*;\n"
+            + "import java.util.*;\n"
+            + "public class Bean implements Cloneable {\n"
+            + "    @CloneThis(deepClone = true) List<Bean> children;\n"
+            + "    @CloneThis Bean[] array;\n"
+            + "    @CloneThis double[][] matrix;\n"
+            + "    @CloneThis(lazy = true) List<String> names;\n"
+            + "    @CloneThis(deepClone = true) Map<String, Bean> map;\n"
+            + "    @CloneThis Object other;\n"
+            + "    public Bean clone() throws CloneNotSupportedException {\n"
+            + "        return CloneUtil.deepClone((Bean) super.clone());\n"
+            + "    }\n"
+            + "    public static class PrivateField implements Cloneable {\n"
+            + "        @CloneThis private Bean bean;\n"
+            + "    }\n" + "}\n";
+
+    private File outputDirectory;
+
+    private ClassLoader classLoader;
+
+    @Before
+    public void setUp() throws Exception {
+        final JavaCompiler compiler = ToolProvider.getSystemJavaCompiler();
+        Assume.assumeTrue(compiler != null);
+        outputDirectory = File.createTempFile("cloners", "");
+        outputDirectory.delete();
+        outputDirectory.mkdir();
+
+        final DiagnosticCollector<JavaFileObject> diagnostics = new DiagnosticCollector<JavaFileObject>();
+        final StandardJavaFileManager fileManager = compiler
+                .getStandardFileManager(diagnostics, null, null);
+        fileManager.setLocation(StandardLocation.CLASS_OUTPUT,
+                Arrays.asList(outputDirectory));
+        fileManager.setLocation(StandardLocation.SOURCE_OUTPUT,
+                Arrays.asList(outputDirectory));
+        final JavaFileObject source = new SimpleJavaFileObject(
+                URI.create("string:///test/generated/Bean.java"),
+                JavaFileObject.Kind.SOURCE) {
+            @Override
+            public CharSequence getCharContent(boolean ignoreEncodingErrors) {
+                return SOURCE;
+            }
+        };
+        final JavaCompiler.CompilationTask task = compiler.getTask(null,
+                fileManager, diagnostics, Arrays.asList("-classpath",
+                        System.getProperty("java.class.path")), null,
+                Arrays.asList(source));
+        task.setProcessors(Arrays.asList(new ClonerProcessor()));
+        final boolean success = task.call();
+        fileManager.close();
+        for (Diagnostic<? extends JavaFileObject> diagnostic : diagnostics
+                .getDiagnostics()) {
+            if (diagnostic.getKind() == Diagnostic.Kind.ERROR) {
+                fail(diagnostic.toString());
+            }
+        }
+        assertTrue(success);
+        classLoader = new URLClassLoader(new URL[] { outputDirectory.toURI()
+                .toURL() }, getClass().getClassLoader());
+    }
+
+    @After
+    public void tearDown() {
+        CloneUtil.setGeneratedClonersEnabled(true);
+        if (outputDirectory != null) {
+            delete(outputDirectory);
+        }
+    }
+
+    private static void delete(File file) {
+        final File[] children = file.listFiles();
+        if (children != null) {
+            for (File child : children) {
+                delete(child);
+            }
+        }
+        file.delete();
+    }
+
+    private static Field field(Class<?> type, String name) throws Exception {
+        final Field field = type.getDeclaredField(name);
+        field.setAccessible(true);
+        return field;
+    }
+
+    @Test
+    public void clonerIsGeneratedForEligibleClassesOnly() throws Exception {
+        assertTrue(Class.forName("test.generated.Bean$$Cloner", false,
+                classLoader) != null);
+        try {
+            Class.forName("test.generated.Bean$PrivateField$$Cloner", false,
+                    classLoader);
+            fail("Cloner generated for class with private field");
+        } catch (ClassNotFoundException e) {
+            // Expected
+        }
+    }
+
+    @Test
+    public void generatedAndReflectiveClonesAreEqual() throws Exception {
+        final Class<?> beanClass = Class.forName("test.generated.Bean", true,
+                classLoader);
+        final Object child = beanClass.newInstance();
+        final Object original = beanClass.newInstance();
+        final List<Object> children = new ArrayList<Object>();
+        children.add(child);
+        field(beanClass, "children").set(original, children);
+        final Object[] array = (Object[]) java.lang.reflect.Array.newInstance(
+                beanClass, 1);
+        array[0] = child;
+        field(beanClass, "array").set(original, array);
+        field(beanClass, "names").set(original, new ArrayList<String>());
+        final java.lang.reflect.Method cloneMethod = beanClass
+                .getMethod("clone");
+
+        for (boolean generated : new boolean[] { true, false }) {
+            CloneUtil.setGeneratedClonersEnabled(generated);
+            final Object clone = cloneMethod.invoke(original);
+            final List<?> clonedChildren = (List<?>) field(beanClass,
+                    "children").get(clone);
+            assertNotSame(children, clonedChildren);
+            assertEquals(1, clonedChildren.size());
+            assertNotSame(child, clonedChildren.get(0));
+            final Object[] clonedArray = (Object[]) field(beanClass, "array")
+                    .get(clone);
+            assertNotSame(array, clonedArray);
+            assertSame(child, clonedArray[0]);
+            assertTrue(CopyOnWriteCollections.isCopyOnWrite(field(beanClass,
+                    "names").get(clone)));
+        }
+    }
+}
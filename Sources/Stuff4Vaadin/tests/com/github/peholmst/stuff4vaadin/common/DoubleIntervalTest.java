@@ -0,0 +1,70 @@
+/*
+ * Copyright (c) 2011 Petter Holmström
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.github.peholmst.stuff4vaadin.common;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+/**
+ * Test case for {@link DoubleInterval}.
+ *
+ * @author Petter Holmström
+ * @since 1.0
+ */
+public class DoubleIntervalTest {
+
+    @Test
+    public void contains() {
+        DoubleInterval closed = DoubleInterval.createClosedInterval(1, 10);
+        assertTrue(closed.contains(1));
+        assertTrue(closed.contains(10));
+        DoubleInterval open = DoubleInterval.createOpenInterval(1, 10);
+        assertFalse(open.contains(1));
+        assertFalse(open.contains(10));
+        assertTrue(open.contains(9.99));
+        assertEquals(9.0, open.length(), 0.0);
+    }
+
+    @Test
+    public void intersect() {
+        DoubleInterval interval = DoubleInterval
+                .createHalfClosedIntervalEndPointExcluded(1, 10);
+        assertEquals(DoubleInterval.createHalfClosedIntervalEndPointExcluded(
+                5, 10), interval.intersect(DoubleInterval
+                .createClosedInterval(5, 20)));
+        assertNull(interval.intersect(DoubleInterval.createClosedInterval(10,
+                20)));
+    }
+
+    @Test
+    public void span() {
+        DoubleInterval interval = DoubleInterval.createOpenInterval(1, 10);
+        assertEquals(DoubleInterval.createHalfClosedIntervalEndPointExcluded(
+                1, 20), interval.span(DoubleInterval
+                .createHalfClosedIntervalEndPointExcluded(1, 20)));
+    }
+
+    @Test
+    public void convertToAndFromInterval() {
+        DoubleInterval interval = DoubleInterval
+                .createHalfClosedIntervalStartPointExcluded(1, 10);
+        assertEquals(interval, DoubleInterval.valueOf(interval.toInterval()));
+    }
+}
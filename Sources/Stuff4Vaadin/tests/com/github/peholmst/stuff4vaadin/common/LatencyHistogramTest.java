@@ -0,0 +1,85 @@
+/*
+ * Copyright (c) 2011 Petter Holmström
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.github.peholmst.stuff4vaadin.common;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+/**
+ * Test case for {@link LatencyHistogram}.
+ * 
+ * @author Petter Holmström
+ * @since 1.0
+ */
+public class LatencyHistogramTest {
+
+    @Test
+    public void bucketsCoverWholeRange() {
+        assertEquals(0, LatencyHistogram.bucketIndex(0));
+        assertEquals(15, LatencyHistogram.bucketIndex(15));
+        assertEquals(16, LatencyHistogram.bucketIndex(16));
+        assertEquals(LatencyHistogram.BUCKET_COUNT - 1,
+                LatencyHistogram.bucketIndex(Long.MAX_VALUE));
+        assertEquals(Long.MAX_VALUE, LatencyHistogram
+                .bucketUpperBound(LatencyHistogram.BUCKET_COUNT - 1));
+        for (int i = 1; i < LatencyHistogram.BUCKET_COUNT; ++i) {
+            long lowerBound = LatencyHistogram.bucketUpperBound(i - 1) + 1;
+            assertEquals(i, LatencyHistogram.bucketIndex(lowerBound));
+            assertEquals(i, LatencyHistogram.bucketIndex(LatencyHistogram
+                    .bucketUpperBound(i)));
+        }
+    }
+
+    @Test
+    public void percentilesAreWithinPrecision() {
+        LatencyHistogram histogram = new LatencyHistogram();
+        for (long value = 1; value <= 1000; ++value) {
+            histogram.record(value * 1000);
+        }
+        assertEquals(1000, histogram.getCount());
+        assertEquals(1000000L, histogram.getMax());
+        assertEquals(500500.0, histogram.getMean(), 0.0);
+        long median = histogram.getValueAtPercentile(50.0);
+        assertTrue("Median was " + median, median >= 500000
+                && median <= 500000 + 500000 / LatencyHistogram.SUB_BUCKET_COUNT);
+        assertEquals(1000000L, histogram.getValueAtPercentile(100.0));
+    }
+
+    @Test
+    public void add() {
+        LatencyHistogram first = new LatencyHistogram();
+        first.record(10);
+        LatencyHistogram second = new LatencyHistogram();
+        second.record(20);
+        second.record(30);
+        first.add(second);
+        assertEquals(3, first.getCount());
+        assertEquals(30, first.getMax());
+        assertEquals(20.0, first.getMean(), 0.0);
+    }
+
+    @Test
+    public void reset() {
+        LatencyHistogram histogram = new LatencyHistogram();
+        histogram.record(123);
+        histogram.reset();
+        assertEquals(0, histogram.getCount());
+        assertEquals(0, histogram.getMax());
+        assertEquals(0, histogram.getValueAtPercentile(99.0));
+    }
+}
@@ -0,0 +1,110 @@
+/*
+ * Copyright (c) 2011 Petter Holmström
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.github.peholmst.stuff4vaadin.common;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+/**
+ * Test case for {@link LongInterval}.
+ *
+ * @author Petter Holmström
+ * @since 1.0
+ */
+public class LongIntervalTest {
+
+    @Test
+    public void createClosedInterval() {
+        LongInterval interval = LongInterval.createClosedInterval(1, 10);
+        assertEquals(1L, interval.getStartPoint());
+        assertEquals(10L, interval.getEndPoint());
+        assertEquals(10L, interval.length());
+    }
+
+    @Test
+    public void createHalfClosedIntervalEndPointExcluded() {
+        LongInterval interval = LongInterval
+                .createHalfClosedIntervalEndPointExcluded(1, 10);
+        assertEquals(9L, interval.getEndPoint());
+        assertEquals(9L, interval.length());
+    }
+
+    @Test
+    public void contains() {
+        LongInterval interval = LongInterval.createClosedInterval(1, 10);
+        assertTrue(interval.contains(1));
+        assertTrue(interval.contains(10));
+        assertFalse(interval.contains(0));
+        assertFalse(interval.contains(11));
+        assertTrue(interval.contains(LongInterval.createClosedInterval(2, 10)));
+        assertFalse(interval.contains(LongInterval.createClosedInterval(2, 11)));
+    }
+
+    @Test
+    public void intersect() {
+        LongInterval interval = LongInterval.createClosedInterval(1, 10);
+        assertEquals(LongInterval.createClosedInterval(5, 10),
+                interval.intersect(LongInterval.createClosedInterval(5, 20)));
+        assertEquals(LongInterval.createClosedInterval(10, 10),
+                interval.intersect(LongInterval.createClosedInterval(10, 20)));
+        assertNull(interval.intersect(LongInterval.createClosedInterval(11, 20)));
+    }
+
+    @Test
+    public void span() {
+        LongInterval interval = LongInterval.createClosedInterval(1, 10);
+        assertEquals(LongInterval.createClosedInterval(1, 30),
+                interval.span(LongInterval.createClosedInterval(20, 30)));
+    }
+
+    @Test
+    public void visitValues() {
+        final long[] sum = new long[1];
+        LongInterval.createClosedInterval(1, 10).visitValues(
+                new LongInterval.Visitor() {
+                    public void visit(long value) {
+                        sum[0] += value;
+                    }
+                });
+        assertEquals(55L, sum[0]);
+    }
+
+    @Test
+    public void visitValuesUpToMaxValue() {
+        final int[] count = new int[1];
+        LongInterval.createClosedInterval(Long.MAX_VALUE - 1, Long.MAX_VALUE)
+                .visitValues(new LongInterval.Visitor() {
+                    public void visit(long value) {
+                        count[0]++;
+                    }
+                });
+        assertEquals(2, count[0]);
+    }
+
+    @Test
+    public void convertToAndFromInterval() {
+        Interval<Long> interval = LongInterval.createClosedInterval(1, 10)
+                .toInterval();
+        assertEquals(1L, interval.getIncludedStartPoint().longValue());
+        assertEquals(10L, interval.getIncludedEndPoint().longValue());
+        assertEquals(LongInterval.createClosedInterval(2, 9),
+                LongInterval.valueOf(Interval.createOpenInterval(1L, 10L)));
+    }
+}
@@ -0,0 +1,84 @@
+/*
+ * Copyright (c) 2011 Petter Holmström
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.github.peholmst.stuff4vaadin.sequence;
+
+import static org.junit.Assert.assertEquals;
+
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Test case for {@link AdaptiveBlockSize}.
+ *
+ * @author Petter Holmström
+ * @since 1.0
+ */
+public class AdaptiveBlockSizeTest {
+
+    static final long MILLIS = 1000000L;
+
+    long now;
+
+    AdaptiveBlockSize blockSize;
+
+    @SuppressWarnings("serial")
+    @Before
+    public void setUp() {
+        now = 0L;
+        blockSize = new AdaptiveBlockSize(1, 8, 100L) {
+            @Override
+            protected long currentTimeNanos() {
+                return now;
+            }
+        };
+    }
+
+    @Test
+    public void firstReservationUsesMinimum() {
+        assertEquals(1, blockSize.nextBlockCount());
+    }
+
+    @Test
+    public void growsUpToMaximumWhenConsumedQuickly() {
+        blockSize.nextBlockCount();
+        for (int expected : new int[] { 2, 4, 8, 8 }) {
+            now += 10 * MILLIS;
+            assertEquals(expected, blockSize.nextBlockCount());
+        }
+    }
+
+    @Test
+    public void shrinksDownToMinimumWhenConsumedSlowly() {
+        blockSize.nextBlockCount();
+        for (int i = 0; i < 3; ++i) {
+            now += 10 * MILLIS;
+            blockSize.nextBlockCount();
+        }
+        for (int expected : new int[] { 4, 2, 1, 1 }) {
+            now += 1000 * MILLIS;
+            assertEquals(expected, blockSize.nextBlockCount());
+        }
+    }
+
+    @Test
+    public void staysTheSameWithinTarget() {
+        blockSize.nextBlockCount();
+        now += 10 * MILLIS;
+        blockSize.nextBlockCount();
+        now += 100 * MILLIS;
+        assertEquals(2, blockSize.nextBlockCount());
+    }
+}
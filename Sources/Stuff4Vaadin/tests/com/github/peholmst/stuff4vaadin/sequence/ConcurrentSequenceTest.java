@@ -0,0 +1,278 @@
+/*
+ * Copyright (c) 2011 Petter Holmström
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.github.peholmst.stuff4vaadin.sequence;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+
+import org.junit.Test;
+
+import com.github.peholmst.stuff4vaadin.common.Interval;
+import com.github.peholmst.stuff4vaadin.common.LongInterval;
+
+/**
+ * Test case for {@link ConcurrentSequence}.
+ *
+ * @author Petter Holmström
+ * @since 1.0
+ */
+public class ConcurrentSequenceTest {
+
+    @Test
+    public void initialReservationByFirstCall() {
+        ConcurrentSequence seq = new ConcurrentSequence(new InMemorySequence());
+        assertEquals(1L, seq.getNextValue());
+    }
+
+    @Test
+    public void loopThroughNextValuesAcrossRanges() {
+        ConcurrentSequence seq = new ConcurrentSequence(new InMemorySequence(1L,
+                10L));
+        for (long i = 1; i <= 35; ++i) {
+            assertEquals(i, seq.getNextValue());
+        }
+    }
+
+    @Test
+    public void failedReservationIsRetried() {
+        final boolean[] fail = new boolean[] { true };
+        @SuppressWarnings("serial")
+        Sequence backend = new InMemorySequence() {
+            @Override
+            protected synchronized Interval<Long> reserveSequenceValues() {
+                if (fail[0]) {
+                    throw new IllegalStateException("Backend is down");
+                }
+                return super.reserveSequenceValues();
+            }
+        };
+        ConcurrentSequence seq = new ConcurrentSequence(backend);
+        try {
+            seq.getNextValue();
+            fail("No exception thrown");
+        } catch (IllegalStateException e) {
+            // Expected
+        }
+        fail[0] = false;
+        assertEquals(1L, seq.getNextValue());
+    }
+
+    @Test
+    public void concurrentCallersGetUniqueValuesWithoutGaps() throws Exception {
+        final ConcurrentSequence seq = new ConcurrentSequence(
+                new InMemorySequence(1L, 7L));
+        final int threadCount = 8;
+        final int valuesPerThread = 10000;
+        final List<long[]> results = Collections
+                .synchronizedList(new ArrayList<long[]>());
+        List<Thread> threads = new ArrayList<Thread>();
+        for (int t = 0; t < threadCount; ++t) {
+            threads.add(new Thread() {
+                @Override
+                public void run() {
+                    long[] values = new long[valuesPerThread];
+                    for (int i = 0; i < valuesPerThread; ++i) {
+                        values[i] = seq.getNextValue();
+                    }
+                    results.add(values);
+                }
+            });
+        }
+        for (Thread thread : threads) {
+            thread.start();
+        }
+        for (Thread thread : threads) {
+            thread.join();
+        }
+        assertEquals(threadCount, results.size());
+        boolean[] seen = new boolean[threadCount * valuesPerThread + 1];
+        for (long[] values : results) {
+            for (long value : values) {
+                assertTrue("Value out of range: " + value, value > 0
+                        && value < seen.length);
+                assertTrue("Duplicate value: " + value, !seen[(int) value]);
+                seen[(int) value] = true;
+            }
+        }
+    }
+
+    @Test
+    public void getNextValuesAcrossRanges() {
+        ConcurrentSequence seq = new ConcurrentSequence(new InMemorySequence(1L,
+                10L));
+        assertEquals(1L, seq.getNextValue());
+        long[] values = seq.getNextValues(25);
+        for (int i = 0; i < values.length; ++i) {
+            assertEquals(i + 2L, values[i]);
+        }
+        assertEquals(27L, seq.getNextValue());
+    }
+
+    @Test
+    public void getNextIntervalTakesAtMostMaxCountValues() {
+        ConcurrentSequence seq = new ConcurrentSequence(new InMemorySequence(1L,
+                10L));
+        assertEquals(LongInterval.createClosedInterval(1L, 4L),
+                seq.getNextInterval(4L));
+        assertEquals(LongInterval.createClosedInterval(5L, 8L),
+                seq.getNextInterval(4L));
+        // The rest of the interval, the next one is reserved at the same time
+        assertEquals(LongInterval.createClosedInterval(9L, 10L),
+                seq.getNextInterval(4L));
+        assertEquals(11L, seq.getNextValue());
+        assertEquals(LongInterval.createClosedInterval(12L, 20L),
+                seq.getNextInterval(100L));
+        assertEquals(LongInterval.createClosedInterval(21L, 23L),
+                seq.getNextInterval(3L));
+    }
+
+    @Test
+    public void concurrentIntervalCallersGetUniqueValuesWithoutGaps()
+            throws Exception {
+        final ConcurrentSequence seq = new ConcurrentSequence(
+                new InMemorySequence(1L, 7L));
+        final int threadCount = 8;
+        final int callsPerThread = 1000;
+        final List<LongInterval> results = Collections
+                .synchronizedList(new ArrayList<LongInterval>());
+        List<Thread> threads = new ArrayList<Thread>();
+        for (int t = 0; t < threadCount; ++t) {
+            threads.add(new Thread() {
+                @Override
+                public void run() {
+                    for (int i = 0; i < callsPerThread; ++i) {
+                        results.add(seq.getNextInterval(3L));
+                        final long value = seq.getNextValue();
+                        results.add(LongInterval.createClosedInterval(value,
+                                value));
+                    }
+                }
+            });
+        }
+        for (Thread thread : threads) {
+            thread.start();
+        }
+        for (Thread thread : threads) {
+            thread.join();
+        }
+        boolean[] seen = new boolean[threadCount * callsPerThread * 4 + 1];
+        int count = 0;
+        for (LongInterval interval : results) {
+            for (long value = interval.getStartPoint(); value <= interval
+                    .getEndPoint(); ++value) {
+                assertTrue("Value out of range: " + value, value > 0
+                        && value < seen.length);
+                assertTrue("Duplicate value: " + value, !seen[(int) value]);
+                seen[(int) value] = true;
+                ++count;
+            }
+        }
+        // No gaps: the values handed out are 1..count
+        for (int value = 1; value <= count; ++value) {
+            assertTrue("Gap at " + value, seen[value]);
+        }
+    }
+
+    @Test
+    public void concurrentBatchCallersGetUniqueValuesWithoutGaps()
+            throws Exception {
+        final ConcurrentSequence seq = new ConcurrentSequence(
+                new InMemorySequence(1L, 7L));
+        final int threadCount = 8;
+        final int batchesPerThread = 1000;
+        final int batchSize = 5;
+        final List<long[]> results = Collections
+                .synchronizedList(new ArrayList<long[]>());
+        List<Thread> threads = new ArrayList<Thread>();
+        for (int t = 0; t < threadCount; ++t) {
+            threads.add(new Thread() {
+                @Override
+                public void run() {
+                    for (int i = 0; i < batchesPerThread; ++i) {
+                        results.add(seq.getNextValues(batchSize));
+                    }
+                }
+            });
+        }
+        for (Thread thread : threads) {
+            thread.start();
+        }
+        for (Thread thread : threads) {
+            thread.join();
+        }
+        boolean[] seen = new boolean[threadCount * batchesPerThread
+                * batchSize + 1];
+        for (long[] values : results) {
+            for (long value : values) {
+                assertTrue("Value out of range: " + value, value > 0
+                        && value < seen.length);
+                assertTrue("Duplicate value: " + value, !seen[(int) value]);
+                seen[(int) value] = true;
+            }
+        }
+    }
+
+    @Test
+    public void waitingCallersBlockDuringSlowReservation() throws Exception {
+        final CountDownLatch reserving = new CountDownLatch(1);
+        final CountDownLatch release = new CountDownLatch(1);
+        @SuppressWarnings("serial")
+        Sequence backend = new InMemorySequence() {
+            @Override
+            protected synchronized Interval<Long> reserveSequenceValues() {
+                reserving.countDown();
+                try {
+                    release.await();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+                return super.reserveSequenceValues();
+            }
+        };
+        final ConcurrentSequence seq = new ConcurrentSequence(backend);
+        final long[] values = new long[2];
+        Thread reserver = new Thread() {
+            @Override
+            public void run() {
+                values[0] = seq.getNextValue();
+            }
+        };
+        reserver.start();
+        reserving.await();
+        Thread waiter = new Thread() {
+            @Override
+            public void run() {
+                values[1] = seq.getNextValue();
+            }
+        };
+        waiter.start();
+        for (int i = 0; i < 500 && waiter.getState() != Thread.State.WAITING; ++i) {
+            Thread.sleep(10);
+        }
+        assertEquals(Thread.State.WAITING, waiter.getState());
+        release.countDown();
+        reserver.join();
+        waiter.join();
+        assertEquals(1L, values[0]);
+        assertEquals(2L, values[1]);
+    }
+}
@@ -16,9 +16,16 @@
 package com.github.peholmst.stuff4vaadin.sequence;
 
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
 
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
 import java.sql.Connection;
 import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.List;
 import java.util.logging.ConsoleHandler;
 import java.util.logging.Level;
 import java.util.logging.Logger;
@@ -26,9 +33,13 @@ import java.util.logging.Logger;
 import javax.sql.DataSource;
 
 import org.h2.jdbcx.JdbcDataSource;
+import org.junit.Before;
 import org.junit.BeforeClass;
 import org.junit.Test;
 
+import com.github.peholmst.stuff4vaadin.common.Interval;
+import com.github.peholmst.stuff4vaadin.sequence.dialect.H2SequenceDialect;
+
 /**
  * Test case for {@link DataSourceSequence}.
  * 
@@ -51,6 +62,10 @@ public class DataSourceSequenceTest {
 
     	dataSource = new JdbcDataSource();
         dataSource.setURL("jdbc:h2:mem:test;DB_CLOSE_DELAY=-1");
+    }
+
+    @Before
+    public void setUpSequence() throws Exception {
         Connection connection = dataSource.getConnection();
         Statement statement = connection.createStatement();
         statement.execute("DROP SEQUENCE IF EXISTS " + SEQUENCE_NAME);
@@ -67,6 +82,10 @@ public class DataSourceSequenceTest {
             super("mySequence");
         }
 
+        public SequenceUnderTest(AdaptiveBlockSize adaptiveBlockSize) {
+            super("mySequence", null, adaptiveBlockSize);
+        }
+
         @Override
         protected DataSource lookupDataSource() {
             return dataSource;
@@ -90,4 +109,160 @@ public class DataSourceSequenceTest {
         }
     }
 
+    @SuppressWarnings("serial")
+    @Test
+    public void reserveSeveralBlocksAtATime() {
+        DataSourceSequence seq = new DataSourceSequence(SEQUENCE_NAME,
+                new H2SequenceDialect(), new AdaptiveBlockSize(3, 3, 1000L)) {
+            @Override
+            protected DataSource lookupDataSource() {
+                return dataSource;
+            }
+        };
+        long oldValue = seq.getNextValue();
+        for (int i = 0; i < 29; ++i) {
+            long newValue = seq.getNextValue();
+            assertEquals(oldValue + 1, newValue);
+            oldValue = newValue;
+        }
+        assertEquals(3, seq.getAdaptiveBlockSize().getCurrentBlockCount());
+    }
+
+    @Test
+    public void adaptiveBlockSizeIsIgnoredWithoutDialect() {
+        SequenceUnderTest seq = new SequenceUnderTest(new AdaptiveBlockSize(3,
+                3, 1000L));
+        final Interval<Long> interval = seq.reserveSequenceValues();
+        assertEquals(9L, interval.getEndPoint() - interval.getStartPoint());
+    }
+
+    @SuppressWarnings("serial")
+    @Test
+    public void interleavedConnectionsDoNotGetOverlappingValues() {
+        final SequenceUnderTest other = new SequenceUnderTest(
+                new AdaptiveBlockSize(3, 3, 1000L));
+        final List<Interval<Long>> intervals = new ArrayList<Interval<Long>>();
+        final boolean[] interleaving = new boolean[1];
+        SequenceUnderTest seq = new SequenceUnderTest(new AdaptiveBlockSize(3,
+                3, 1000L)) {
+            @Override
+            protected DataSource lookupDataSource() {
+                if (!interleaving[0]) {
+                    return dataSource;
+                }
+                return (DataSource) Proxy.newProxyInstance(getClass()
+                        .getClassLoader(), new Class<?>[] { DataSource.class },
+                        new InvocationHandler() {
+                            @Override
+                            public Object invoke(Object proxy, Method method,
+                                    Object[] args) throws Throwable {
+                                if (method.getName().equals("getConnection")) {
+                                    return createInterleavingConnection(
+                                            dataSource.getConnection(), other,
+                                            intervals);
+                                }
+                                return method.invoke(dataSource, args);
+                            }
+                        });
+            }
+        };
+        // Let both sequences make their initial reservations first
+        intervals.add(seq.reserveSequenceValues());
+        intervals.add(other.reserveSequenceValues());
+        interleaving[0] = true;
+        for (int i = 0; i < 5; ++i) {
+            intervals.add(seq.reserveSequenceValues());
+        }
+        for (int i = 0; i < intervals.size(); ++i) {
+            for (int j = i + 1; j < intervals.size(); ++j) {
+                final Interval<Long> a = intervals.get(i);
+                final Interval<Long> b = intervals.get(j);
+                assertTrue("[" + a.getStartPoint() + ", " + a.getEndPoint()
+                        + "] overlaps [" + b.getStartPoint() + ", "
+                        + b.getEndPoint() + "]",
+                        a.getEndPoint() < b.getStartPoint()
+                                || b.getEndPoint() < a.getStartPoint());
+            }
+        }
+    }
+
+    /**
+     * Creates a connection that lets <code>other</code> reserve values on
+     * another connection right after each <code>NEXTVAL</code> query, and
+     * records the intervals reserved by <code>other</code>.
+     */
+    private static Connection createInterleavingConnection(
+            final Connection target, final DataSourceSequence other,
+            final List<Interval<Long>> intervals) {
+        return (Connection) Proxy.newProxyInstance(
+                DataSourceSequenceTest.class.getClassLoader(),
+                new Class<?>[] { Connection.class }, new InvocationHandler() {
+                    @Override
+                    public Object invoke(Object proxy, Method method,
+                            Object[] args) throws Throwable {
+                        try {
+                            final Object result = method.invoke(target, args);
+                            if (method.getName().equals("createStatement")) {
+                                return createInterleavingStatement(
+                                        (Statement) result, other, intervals);
+                            }
+                            return result;
+                        } catch (InvocationTargetException e) {
+                            throw e.getCause();
+                        }
+                    }
+                });
+    }
+
+    private static Statement createInterleavingStatement(
+            final Statement target, final DataSourceSequence other,
+            final List<Interval<Long>> intervals) {
+        return (Statement) Proxy.newProxyInstance(
+                DataSourceSequenceTest.class.getClassLoader(),
+                new Class<?>[] { Statement.class }, new InvocationHandler() {
+                    @Override
+                    public Object invoke(Object proxy, Method method,
+                            Object[] args) throws Throwable {
+                        try {
+                            final Object result = method.invoke(target, args);
+                            if (method.getName().equals("executeQuery")
+                                    && ((String) args[0]).contains("NEXTVAL")) {
+                                intervals.add(other.reserveSequenceValues());
+                            }
+                            return result;
+                        } catch (InvocationTargetException e) {
+                            throw e.getCause();
+                        }
+                    }
+                });
+    }
+
+    @SuppressWarnings("serial")
+    @Test
+    public void nonContiguousBlocksAreHandedOutInOrder() {
+        SequenceDialect dialect = new SequenceDialect() {
+            public long getIncrement(Connection connection, String sequenceName) {
+                return 10L;
+            }
+
+            public long[] nextValues(Connection connection,
+                    String sequenceName, int count) {
+                return new long[] { 1L, 11L, 41L };
+            }
+        };
+        DataSourceSequence seq = new DataSourceSequence(SEQUENCE_NAME,
+                dialect, new AdaptiveBlockSize(3, 3, 1000L)) {
+            @Override
+            protected DataSource lookupDataSource() {
+                return dataSource;
+            }
+        };
+        for (long i = 1; i <= 20; ++i) {
+            assertEquals(i, seq.getNextValue());
+        }
+        for (long i = 41; i <= 50; ++i) {
+            assertEquals(i, seq.getNextValue());
+        }
+    }
+
 }
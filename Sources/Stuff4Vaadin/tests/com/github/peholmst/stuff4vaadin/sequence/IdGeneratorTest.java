@@ -16,9 +16,15 @@
 package com.github.peholmst.stuff4vaadin.sequence;
 
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
 
+import org.junit.After;
 import org.junit.Test;
 
+import com.github.peholmst.stuff4vaadin.sequence.IdGenerator.Scope;
+
 /**
  * Test case for {@link IdGenerator}.
  * 
@@ -27,9 +33,150 @@ import org.junit.Test;
  */
 public class IdGeneratorTest {
 
+    @After
+    public void tearDown() {
+        IdGenerator.setScope(Scope.THREAD);
+        IdGenerator.setMetrics(null);
+    }
+
+    private static Sequence getSequenceInNewThread() throws Exception {
+        final Sequence[] result = new Sequence[1];
+        Thread thread = new Thread() {
+            @Override
+            public void run() {
+                result[0] = IdGenerator.getSequence();
+            }
+        };
+        thread.start();
+        thread.join();
+        return result[0];
+    }
+
     @Test
     public void getNextValue() {
         IdGenerator.setSequence(new InMemorySequence());
         assertEquals(1L, IdGenerator.getNextValue());
     }
+
+    @Test
+    public void threadScope() throws Exception {
+        IdGenerator.setScope(Scope.THREAD);
+        Sequence sequence = new InMemorySequence();
+        IdGenerator.setSequence(sequence);
+        assertSame(sequence, IdGenerator.getSequence());
+        assertNotSame(sequence, getSequenceInNewThread());
+    }
+
+    @Test
+    public void sharedScope() throws Exception {
+        IdGenerator.setScope(Scope.SHARED);
+        Sequence sequence = new InMemorySequence();
+        IdGenerator.setSequence(sequence);
+        assertSame(sequence, IdGenerator.getSequence());
+        assertSame(sequence, getSequenceInNewThread());
+    }
+
+    @Test
+    public void stripedScopeWithSingleStripe() throws Exception {
+        IdGenerator.setScope(Scope.STRIPED, 1);
+        Sequence sequence = new InMemorySequence();
+        IdGenerator.setSequence(sequence);
+        assertSame(sequence, IdGenerator.getSequence());
+        assertSame(sequence, getSequenceInNewThread());
+    }
+
+    @Test
+    public void stripedScopeSetSequenceReplacesAllStripes() throws Exception {
+        IdGenerator.setScope(Scope.STRIPED, 8);
+        Sequence sequence = new InMemorySequence();
+        IdGenerator.setSequence(sequence);
+        assertSame(sequence, IdGenerator.getSequence());
+        for (int i = 0; i < 16; ++i) {
+            assertSame(sequence, getSequenceInNewThread());
+        }
+    }
+
+    @Test
+    public void defaultSharedSequenceIsConcurrent() throws Exception {
+        System.setProperty(
+                IdGenerator.ENTITY_IDENTIFIER_SEQUENCE_NAME_SYSTEM_PROPERTY,
+                "mySequence");
+        System.setProperty(
+                IdGenerator.JDBC_DATASOURCE_JNDI_NAME_SYSTEM_PROPERTY,
+                "java:/comp/env/jdbc/testDataSource");
+        try {
+            IdGenerator.setScope(Scope.SHARED);
+            assertEquals(ConcurrentSequence.class, IdGenerator.getSequence()
+                    .getClass());
+        } finally {
+            System.clearProperty(IdGenerator.ENTITY_IDENTIFIER_SEQUENCE_NAME_SYSTEM_PROPERTY);
+            System.clearProperty(IdGenerator.JDBC_DATASOURCE_JNDI_NAME_SYSTEM_PROPERTY);
+        }
+    }
+
+    @Test
+    public void defaultSharedStripedSequenceIsStriped() throws Exception {
+        System.setProperty(
+                IdGenerator.ENTITY_IDENTIFIER_SEQUENCE_NAME_SYSTEM_PROPERTY,
+                "mySequence");
+        System.setProperty(
+                IdGenerator.JDBC_DATASOURCE_JNDI_NAME_SYSTEM_PROPERTY,
+                "java:/comp/env/jdbc/testDataSource");
+        try {
+            IdGenerator.setScope(Scope.SHARED_STRIPED, 4);
+            Sequence sequence = IdGenerator.getSequence();
+            assertEquals(StripedSequence.class, sequence.getClass());
+            assertEquals(4, ((StripedSequence) sequence).getStripeCount());
+            assertSame(sequence, getSequenceInNewThread());
+        } finally {
+            System.clearProperty(IdGenerator.ENTITY_IDENTIFIER_SEQUENCE_NAME_SYSTEM_PROPERTY);
+            System.clearProperty(IdGenerator.JDBC_DATASOURCE_JNDI_NAME_SYSTEM_PROPERTY);
+        }
+    }
+
+    @Test
+    public void getNextValues() {
+        IdGenerator.setSequence(new InMemorySequence());
+        long[] values = IdGenerator.getNextValues(3);
+        assertEquals(1L, values[0]);
+        assertEquals(3L, values[2]);
+        assertEquals(4L, IdGenerator.getNextValue());
+    }
+
+    @Test
+    public void valuesOfDeadThreadAreReportedAsDiscarded() throws Exception {
+        IdGenerator.setScope(Scope.THREAD);
+        final SequenceStatistics statistics = new SequenceStatistics();
+        Thread thread = new Thread() {
+            @Override
+            public void run() {
+                Sequence sequence = new InMemorySequence(1L, 10L);
+                sequence.setMetrics(statistics);
+                IdGenerator.setSequence(sequence);
+                IdGenerator.getNextValue();
+            }
+        };
+        thread.start();
+        thread.join();
+        thread = null;
+        for (int i = 0; i < 50 && statistics.getDiscardedValueCount() == 0; ++i) {
+            System.gc();
+            // The dead threads are checked when the next thread registers
+            getSequenceInNewThreadWithoutDefault();
+        }
+        assertEquals(9L, statistics.getDiscardedValueCount());
+        assertTrue(statistics.getBlockUtilization() < 1.0);
+    }
+
+    private static void getSequenceInNewThreadWithoutDefault()
+            throws Exception {
+        Thread thread = new Thread() {
+            @Override
+            public void run() {
+                IdGenerator.setSequence(new InMemorySequence());
+            }
+        };
+        thread.start();
+        thread.join();
+    }
 }
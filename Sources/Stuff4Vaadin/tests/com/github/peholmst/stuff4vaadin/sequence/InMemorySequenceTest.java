@@ -50,4 +50,16 @@ public class InMemorySequenceTest {
         assertEquals(250L, seq.getSequenceValue());
     }
 
+    @Test
+    public void getNextValuesAcrossRanges() {
+        InMemorySequence seq = new InMemorySequence(1L, 10L);
+        assertEquals(1L, seq.getNextValue());
+        long[] values = seq.getNextValues(25);
+        assertEquals(25, values.length);
+        for (int i = 0; i < values.length; ++i) {
+            assertEquals(i + 2L, values[i]);
+        }
+        assertEquals(27L, seq.getNextValue());
+        assertEquals(0, seq.getNextValues(0).length);
+    }
 }
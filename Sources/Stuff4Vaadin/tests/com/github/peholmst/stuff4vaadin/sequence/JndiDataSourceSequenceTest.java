@@ -16,12 +16,17 @@
 package com.github.peholmst.stuff4vaadin.sequence;
 
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
 
 import java.sql.Connection;
+import java.sql.SQLException;
 import java.sql.Statement;
 
 import javax.naming.Context;
 import javax.naming.InitialContext;
+import javax.sql.DataSource;
 
 import org.h2.jdbcx.JdbcDataSource;
 import org.junit.BeforeClass;
@@ -90,4 +95,47 @@ public class JndiDataSourceSequenceTest {
         }
     }
 
+    @Test
+    public void dataSourceIsCachedUntilInvalidated() throws Exception {
+        JndiDataSourceSequence seq = new JndiDataSourceSequence(SEQUENCE_NAME,
+                DATASOURCE_JNDI_NAME);
+        DataSource dataSource = seq.lookupDataSource();
+        InitialContext ic = new InitialContext();
+        ic.unbind(DATASOURCE_JNDI_NAME);
+        try {
+            assertSame(dataSource, seq.lookupDataSource());
+            seq.invalidateDataSource();
+            seq.lookupDataSource();
+            fail("No exception thrown");
+        } catch (IllegalStateException e) {
+            // Expected
+        } finally {
+            ic.bind(DATASOURCE_JNDI_NAME, dataSource);
+        }
+    }
+
+    @Test
+    public void failedReservationInvalidatesDataSource() throws Exception {
+        JndiDataSourceSequence seq = new JndiDataSourceSequence(
+                "nonExistentSequence", DATASOURCE_JNDI_NAME);
+        DataSource dataSource = seq.lookupDataSource();
+        InitialContext ic = new InitialContext();
+        ic.unbind(DATASOURCE_JNDI_NAME);
+        try {
+            seq.getNextValue();
+            fail("No exception thrown");
+        } catch (RuntimeException e) {
+            // Reservation used the cached data source
+            assertTrue(e.getCause() instanceof SQLException);
+        }
+        try {
+            seq.lookupDataSource();
+            fail("No exception thrown");
+        } catch (IllegalStateException e) {
+            // Expected
+        } finally {
+            ic.bind(DATASOURCE_JNDI_NAME, dataSource);
+        }
+    }
+
 }
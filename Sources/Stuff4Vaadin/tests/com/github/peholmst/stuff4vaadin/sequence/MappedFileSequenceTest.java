@@ -0,0 +1,102 @@
+/*
+ * Copyright (c) 2011 Petter Holmström
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.github.peholmst.stuff4vaadin.sequence;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.fail;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Test case for {@link MappedFileSequence}.
+ * 
+ * @author Petter Holmström
+ * @since 1.0
+ */
+public class MappedFileSequenceTest {
+
+    private File file;
+
+    @Before
+    public void setUp() throws Exception {
+        file = File.createTempFile("sequence", ".dat");
+        file.delete();
+    }
+
+    @After
+    public void tearDown() {
+        file.delete();
+    }
+
+    @Test
+    public void initialReservationByFirstCall() {
+        MappedFileSequence seq = new MappedFileSequence(file, 100L, 10L);
+        assertEquals(100L, seq.getNextValue());
+        assertEquals(110L, seq.getHighWaterMark());
+        for (long i = 101; i <= 125; ++i) {
+            assertEquals(i, seq.getNextValue());
+        }
+        assertEquals(130L, seq.getHighWaterMark());
+    }
+
+    @Test
+    public void restartContinuesFromNextInterval() {
+        MappedFileSequence seq = new MappedFileSequence(file, 1L, 10L);
+        assertEquals(1L, seq.getNextValue());
+        assertEquals(2L, seq.getNextValue());
+        // Simulates a crash: the rest of the first interval is never used
+        seq = new MappedFileSequence(file, 1L, 10L);
+        assertEquals(11L, seq.getNextValue());
+    }
+
+    @Test
+    public void serializedSequenceRemapsFile() throws Exception {
+        MappedFileSequence seq = new MappedFileSequence(file, 1L, 10L);
+        assertEquals(1L, seq.getNextValue());
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        ObjectOutputStream out = new ObjectOutputStream(bytes);
+        out.writeObject(seq);
+        out.close();
+        ObjectInputStream in = new ObjectInputStream(new ByteArrayInputStream(
+                bytes.toByteArray()));
+        MappedFileSequence copy = (MappedFileSequence) in.readObject();
+        // The copy continues the in-memory interval
+        assertEquals(2L, copy.getNextValue());
+        assertEquals(11L, copy.getHighWaterMark());
+    }
+
+    @Test
+    public void foreignFileIsRejected() throws Exception {
+        FileOutputStream out = new FileOutputStream(file);
+        out.write("Not a sequence".getBytes("UTF-8"));
+        out.close();
+        try {
+            new MappedFileSequence(file).getNextValue();
+            fail("No exception thrown");
+        } catch (IllegalStateException e) {
+            // Expected
+        }
+    }
+}
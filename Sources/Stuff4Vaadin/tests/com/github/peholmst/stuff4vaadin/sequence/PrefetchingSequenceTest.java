@@ -0,0 +1,98 @@
+/*
+ * Copyright (c) 2011 Petter Holmström
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.github.peholmst.stuff4vaadin.sequence;
+
+import static org.junit.Assert.assertEquals;
+
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+
+import org.junit.Test;
+
+import com.github.peholmst.stuff4vaadin.common.Interval;
+
+/**
+ * Test case for {@link PrefetchingSequence}.
+ *
+ * @author Petter Holmström
+ * @since 1.0
+ */
+public class PrefetchingSequenceTest {
+
+    static final Executor CALLER_RUNS = new Executor() {
+
+        public void execute(Runnable command) {
+            command.run();
+        }
+    };
+
+    @Test
+    public void onlyInitialReservationIsSynchronous() {
+        PrefetchingSequence seq = new PrefetchingSequence(new InMemorySequence(
+                1L, 10L), 3L, CALLER_RUNS);
+        for (long i = 1; i <= 35; ++i) {
+            assertEquals(i, seq.getNextValue());
+        }
+        assertEquals(1L, seq.getSynchronousReservationCount());
+        assertEquals(3L, seq.getPrefetchCount());
+    }
+
+    @Test
+    public void failedPrefetchFallsBackToSynchronousReservation() {
+        final int[] calls = new int[1];
+        @SuppressWarnings("serial")
+        Sequence backend = new InMemorySequence(1L, 10L) {
+            @Override
+            protected synchronized Interval<Long> reserveSequenceValues() {
+                if (++calls[0] == 2) {
+                    throw new IllegalStateException("Backend is down");
+                }
+                return super.reserveSequenceValues();
+            }
+        };
+        PrefetchingSequence seq = new PrefetchingSequence(backend, 3L,
+                CALLER_RUNS);
+        for (long i = 1; i <= 20; ++i) {
+            assertEquals(i, seq.getNextValue());
+        }
+        assertEquals(2L, seq.getSynchronousReservationCount());
+    }
+
+    @Test
+    public void rejectedPrefetchIsNotCounted() {
+        PrefetchingSequence seq = new PrefetchingSequence(new InMemorySequence(
+                1L, 10L), 3L, new Executor() {
+
+            public void execute(Runnable command) {
+                throw new RejectedExecutionException("Executor is shut down");
+            }
+        });
+        for (long i = 1; i <= 35; ++i) {
+            assertEquals(i, seq.getNextValue());
+        }
+        assertEquals(4L, seq.getSynchronousReservationCount());
+        assertEquals(0L, seq.getPrefetchCount());
+    }
+
+    @Test
+    public void loopThroughNextValuesWithBackgroundPrefetch() {
+        PrefetchingSequence seq = new PrefetchingSequence(new InMemorySequence(
+                1L, 10L), 5L);
+        for (long i = 1; i <= 100; ++i) {
+            assertEquals(i, seq.getNextValue());
+        }
+    }
+}
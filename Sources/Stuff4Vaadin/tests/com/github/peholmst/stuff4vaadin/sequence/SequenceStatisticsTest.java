@@ -0,0 +1,104 @@
+/*
+ * Copyright (c) 2011 Petter Holmström
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.github.peholmst.stuff4vaadin.sequence;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.lang.management.ManagementFactory;
+
+import javax.management.ObjectName;
+
+import org.junit.Test;
+
+import com.github.peholmst.stuff4vaadin.common.Interval;
+
+/**
+ * Test case for {@link SequenceStatistics}.
+ * 
+ * @author Petter Holmström
+ * @since 1.0
+ */
+public class SequenceStatisticsTest {
+
+    @Test
+    public void reservationsAndWaitsAreRecorded() {
+        SequenceStatistics statistics = new SequenceStatistics();
+        Sequence seq = new InMemorySequence(1L, 10L);
+        seq.setMetrics(statistics);
+        for (int i = 0; i < 25; ++i) {
+            seq.getNextValue();
+        }
+        assertEquals(3L, statistics.getReservationCount());
+        assertEquals(30L, statistics.getReservedValueCount());
+        assertEquals(25L, statistics.getWaitCount());
+        assertTrue(statistics.getReservationMaxNanos() >= statistics
+                .getReservation50thPercentileNanos());
+        statistics.reset();
+        assertEquals(0L, statistics.getReservationCount());
+    }
+
+    @Test
+    public void failedReservationsAreRecorded() {
+        SequenceStatistics statistics = new SequenceStatistics();
+        @SuppressWarnings("serial")
+        Sequence seq = new InMemorySequence() {
+            @Override
+            protected synchronized Interval<Long> reserveSequenceValues() {
+                throw new IllegalStateException("Backend is down");
+            }
+        };
+        seq.setMetrics(statistics);
+        try {
+            seq.getNextValue();
+            fail("No exception thrown");
+        } catch (IllegalStateException e) {
+            // Expected
+        }
+        assertEquals(1L, statistics.getFailedReservationCount());
+        assertEquals(0L, statistics.getReservationCount());
+    }
+
+    @Test
+    public void concurrentSequenceReportsBackendAndCallerReservations() {
+        SequenceStatistics backendStatistics = new SequenceStatistics();
+        SequenceStatistics statistics = new SequenceStatistics();
+        Sequence backend = new InMemorySequence(1L, 10L);
+        backend.setMetrics(backendStatistics);
+        ConcurrentSequence seq = new ConcurrentSequence(backend);
+        seq.setMetrics(statistics);
+        for (int i = 0; i < 25; ++i) {
+            seq.getNextValue();
+        }
+        assertEquals(3L, backendStatistics.getReservationCount());
+        assertEquals(3L, statistics.getReservationCount());
+        assertEquals(0L, statistics.getWaitCount());
+    }
+
+    @Test
+    public void registerWithJmx() throws Exception {
+        SequenceStatistics statistics = new SequenceStatistics();
+        ObjectName name = statistics.register("test");
+        try {
+            statistics.reservationCompleted(null, 50L, 1000L);
+            assertEquals(1L, ManagementFactory.getPlatformMBeanServer()
+                    .getAttribute(name, "ReservationCount"));
+        } finally {
+            statistics.unregister("test");
+        }
+    }
+}
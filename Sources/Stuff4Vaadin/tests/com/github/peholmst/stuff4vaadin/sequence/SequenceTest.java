@@ -0,0 +1,89 @@
+/*
+ * Copyright (c) 2011 Petter Holmström
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.github.peholmst.stuff4vaadin.sequence;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.fail;
+
+import org.junit.Test;
+
+import com.github.peholmst.stuff4vaadin.common.Interval;
+import com.github.peholmst.stuff4vaadin.common.LongInterval;
+
+/**
+ * Test case for {@link Sequence}.
+ * 
+ * @author Petter Holmström
+ * @since 1.0
+ */
+public class SequenceTest {
+
+    @SuppressWarnings("serial")
+    static class IncompleteSequence extends Sequence {
+    }
+
+    @Test
+    public void subclassOverridingNeitherReservationMethodFails() {
+        final Sequence seq = new IncompleteSequence();
+        try {
+            seq.getNextValue();
+            fail("No exception thrown");
+        } catch (IllegalStateException e) {
+            // Expected
+        }
+        try {
+            seq.reserveSequenceValues();
+            fail("No exception thrown");
+        } catch (IllegalStateException e) {
+            // Expected
+        }
+    }
+
+    @Test
+    public void subclassOverridingEitherReservationMethodWorks() {
+        @SuppressWarnings("serial")
+        final Sequence values = new Sequence() {
+            @Override
+            protected Interval<Long> reserveSequenceValues() {
+                return Interval.createClosedInterval(1L, 10L);
+            }
+        };
+        @SuppressWarnings("serial")
+        final Sequence interval = new Sequence() {
+            @Override
+            protected LongInterval reserveSequenceInterval() {
+                return LongInterval.createClosedInterval(1L, 10L);
+            }
+        };
+        assertEquals(1L, values.getNextValue());
+        assertEquals(10L, interval.reserveSequenceValues().getEndPoint()
+                .longValue());
+    }
+
+    @Test
+    public void nestedSequencesDoNotTriggerRecursionCheck() {
+        @SuppressWarnings("serial")
+        final Sequence outer = new Sequence() {
+            private final Sequence inner = new InMemorySequence(1L, 10L);
+
+            @Override
+            protected Interval<Long> reserveSequenceValues() {
+                return inner.reserveSequenceInterval().toInterval();
+            }
+        };
+        assertEquals(1L, outer.reserveSequenceInterval().getStartPoint());
+    }
+}
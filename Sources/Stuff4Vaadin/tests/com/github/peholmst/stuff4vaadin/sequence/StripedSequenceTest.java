@@ -0,0 +1,108 @@
+/*
+ * Copyright (c) 2011 Petter Holmström
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.github.peholmst.stuff4vaadin.sequence;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import org.junit.Test;
+
+/**
+ * Test case for {@link StripedSequence}.
+ * 
+ * @author Petter Holmström
+ * @since 1.0
+ */
+public class StripedSequenceTest {
+
+    @Test
+    public void singleThreadGetsSubBlocksInOrder() {
+        StripedSequence seq = new StripedSequence(new InMemorySequence(1L,
+                10L), 4, 3L);
+        for (long i = 1; i <= 35; ++i) {
+            assertEquals(i, seq.getNextValue());
+        }
+    }
+
+    @Test
+    public void getNextValuesAcrossSubBlocks() {
+        StripedSequence seq = new StripedSequence(new InMemorySequence(1L,
+                10L), 2, 4L);
+        long[] values = seq.getNextValues(12);
+        for (int i = 0; i < values.length; ++i) {
+            assertEquals(i + 1L, values[i]);
+        }
+    }
+
+    @Test
+    public void backendIsOnlyCalledWhenIntervalRunsOut() {
+        SequenceStatistics statistics = new SequenceStatistics();
+        Sequence backend = new InMemorySequence(1L, 100L);
+        backend.setMetrics(statistics);
+        StripedSequence seq = new StripedSequence(backend, 4, 10L);
+        for (int i = 0; i < 100; ++i) {
+            seq.getNextValue();
+        }
+        assertEquals(1L, statistics.getReservationCount());
+    }
+
+    @Test
+    public void concurrentCallersGetUniqueValues() throws Exception {
+        final StripedSequence seq = new StripedSequence(new InMemorySequence(
+                1L, 50L), 4, 7L);
+        final int threadCount = 16;
+        final int valuesPerThread = 10000;
+        final List<long[]> results = Collections
+                .synchronizedList(new ArrayList<long[]>());
+        List<Thread> threads = new ArrayList<Thread>();
+        for (int t = 0; t < threadCount; ++t) {
+            threads.add(new Thread() {
+                @Override
+                public void run() {
+                    long[] values = new long[valuesPerThread];
+                    for (int i = 0; i < valuesPerThread; i += 2) {
+                        values[i] = seq.getNextValue();
+                        System.arraycopy(seq.getNextValues(1), 0, values,
+                                i + 1, 1);
+                    }
+                    results.add(values);
+                }
+            });
+        }
+        for (Thread thread : threads) {
+            thread.start();
+        }
+        for (Thread thread : threads) {
+            thread.join();
+        }
+        assertEquals(threadCount, results.size());
+        // Values may be left in other stripes, but none is returned twice
+        boolean[] seen = new boolean[threadCount * valuesPerThread + 4 * 7
+                * 2 + 50 + 1];
+        for (long[] values : results) {
+            for (long value : values) {
+                assertTrue("Value out of range: " + value, value > 0
+                        && value < seen.length);
+                assertTrue("Duplicate value: " + value, !seen[(int) value]);
+                seen[(int) value] = true;
+            }
+        }
+    }
+}
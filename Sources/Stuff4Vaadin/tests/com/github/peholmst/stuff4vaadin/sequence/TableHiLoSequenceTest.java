@@ -0,0 +1,231 @@
+/*
+ * Copyright (c) 2011 Petter Holmström
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.github.peholmst.stuff4vaadin.sequence;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.sql.Connection;
+import java.sql.ResultSet;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import javax.sql.DataSource;
+
+import org.h2.jdbcx.JdbcDataSource;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Test case for {@link TableHiLoSequence}.
+ *
+ * @author Petter Holmström
+ * @since 1.0
+ */
+public class TableHiLoSequenceTest {
+
+    static final String TABLE_NAME = "HILO_SEQUENCES";
+
+    static final String SEQUENCE_NAME = "mySequence";
+
+    static JdbcDataSource dataSource;
+
+    @SuppressWarnings("serial")
+    static class SequenceUnderTest extends TableHiLoSequence {
+
+        public SequenceUnderTest(long blockSize) {
+            super(TABLE_NAME, SEQUENCE_NAME, blockSize, 10000);
+        }
+
+        @Override
+        protected DataSource lookupDataSource() {
+            return dataSource;
+        }
+    }
+
+    @Before
+    public void setUp() throws Exception {
+        dataSource = new JdbcDataSource();
+        dataSource.setURL("jdbc:h2:mem:hiloTest;DB_CLOSE_DELAY=-1");
+        Connection connection = dataSource.getConnection();
+        Statement statement = connection.createStatement();
+        statement.execute("DROP TABLE IF EXISTS " + TABLE_NAME);
+        statement.execute("CREATE TABLE " + TABLE_NAME
+                + " (SEQUENCE_NAME VARCHAR(255) NOT NULL PRIMARY KEY,"
+                + " NEXT_VALUE BIGINT NOT NULL)");
+        statement.close();
+        connection.close();
+    }
+
+    @After
+    public void tearDown() {
+        // Discards the sequences installed in IdGenerator
+        IdGenerator.setScope(IdGenerator.Scope.THREAD);
+    }
+
+    private long queryNextValue() throws Exception {
+        Connection connection = dataSource.getConnection();
+        Statement statement = connection.createStatement();
+        ResultSet result = statement.executeQuery("SELECT NEXT_VALUE FROM "
+                + TABLE_NAME + " WHERE SEQUENCE_NAME = '" + SEQUENCE_NAME
+                + "'");
+        result.next();
+        long value = result.getLong(1);
+        statement.close();
+        connection.close();
+        return value;
+    }
+
+    @Test
+    public void rowIsCreatedByFirstReservation() throws Exception {
+        SequenceUnderTest seq = new SequenceUnderTest(10L);
+        assertEquals(1L, seq.getNextValue());
+        assertEquals(11L, queryNextValue());
+    }
+
+    @Test
+    public void loopThroughNextValuesUntilRangeRunsOut() throws Exception {
+        SequenceUnderTest seq = new SequenceUnderTest(10L);
+        for (long i = 1; i <= 25; ++i) {
+            assertEquals(i, seq.getNextValue());
+        }
+        assertEquals(31L, queryNextValue());
+    }
+
+    @Test
+    public void usableThroughIdGenerator() {
+        IdGenerator.setSequence(new SequenceUnderTest(10L));
+        assertEquals(1L, IdGenerator.getNextValue());
+    }
+
+    @Test
+    public void concurrentSequencesNeverReturnDuplicates() throws Exception {
+        final int threadCount = 8;
+        final int valuesPerThread = 2000;
+        final List<long[]> results = Collections
+                .synchronizedList(new ArrayList<long[]>());
+        List<Thread> threads = new ArrayList<Thread>();
+        for (int t = 0; t < threadCount; ++t) {
+            threads.add(new Thread() {
+                @Override
+                public void run() {
+                    // Every thread uses its own sequence and connections
+                    SequenceUnderTest seq = new SequenceUnderTest(7L);
+                    long[] values = new long[valuesPerThread];
+                    for (int i = 0; i < valuesPerThread; ++i) {
+                        values[i] = seq.getNextValue();
+                    }
+                    results.add(values);
+                }
+            });
+        }
+        for (Thread thread : threads) {
+            thread.start();
+        }
+        for (Thread thread : threads) {
+            thread.join();
+        }
+        assertEquals(threadCount, results.size());
+        long maxValue = queryNextValue() - 1;
+        boolean[] seen = new boolean[(int) maxValue + 1];
+        for (long[] values : results) {
+            for (long value : values) {
+                assertTrue("Value out of range: " + value, value > 0
+                        && value <= maxValue);
+                assertTrue("Duplicate value: " + value, !seen[(int) value]);
+                seen[(int) value] = true;
+            }
+        }
+    }
+
+    @Test
+    public void duplicateRowIsRolledBack() throws Exception {
+        final List<String> transactionCalls = Collections
+                .synchronizedList(new ArrayList<String>());
+        @SuppressWarnings("serial")
+        SequenceUnderTest seq = new SequenceUnderTest(10L) {
+            @Override
+            protected DataSource lookupDataSource() {
+                final DataSource target = super.lookupDataSource();
+                return (DataSource) Proxy.newProxyInstance(getClass()
+                        .getClassLoader(), new Class<?>[] { DataSource.class },
+                        new InvocationHandler() {
+                            @Override
+                            public Object invoke(Object proxy, Method method,
+                                    Object[] args) throws Throwable {
+                                if (method.getName().equals("getConnection")) {
+                                    final Connection connection = target
+                                            .getConnection();
+                                    connection.setAutoCommit(false);
+                                    return createConnectionProxy(connection,
+                                            transactionCalls);
+                                }
+                                return method.invoke(target, args);
+                            }
+                        });
+            }
+        };
+        assertEquals(1L, seq.getNextValue());
+        // The row was created by "another client" before our INSERT
+        assertEquals(Arrays.asList("rollback", "commit", "commit", "close"),
+                transactionCalls);
+        assertEquals(11L, queryNextValue());
+    }
+
+    /**
+     * Creates a connection that lets another connection insert the sequence
+     * row just before the sequence tries to insert it, and records the
+     * transaction handling.
+     */
+    private static Connection createConnectionProxy(final Connection target,
+            final List<String> transactionCalls) {
+        return (Connection) Proxy.newProxyInstance(
+                TableHiLoSequenceTest.class.getClassLoader(),
+                new Class<?>[] { Connection.class }, new InvocationHandler() {
+                    @Override
+                    public Object invoke(Object proxy, Method method,
+                            Object[] args) throws Throwable {
+                        final String name = method.getName();
+                        if (name.equals("prepareStatement")
+                                && ((String) args[0]).startsWith("INSERT")) {
+                            Connection other = dataSource.getConnection();
+                            Statement statement = other.createStatement();
+                            statement.execute("INSERT INTO " + TABLE_NAME
+                                    + " VALUES ('" + SEQUENCE_NAME + "', 1)");
+                            statement.close();
+                            other.close();
+                        } else if (name.equals("commit")
+                                || name.equals("rollback")
+                                || name.equals("close")) {
+                            transactionCalls.add(name);
+                        }
+                        try {
+                            return method.invoke(target, args);
+                        } catch (InvocationTargetException e) {
+                            throw e.getCause();
+                        }
+                    }
+                });
+    }
+}
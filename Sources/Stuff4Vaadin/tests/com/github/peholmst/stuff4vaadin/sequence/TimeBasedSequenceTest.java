@@ -0,0 +1,213 @@
+/*
+ * Copyright (c) 2011 Petter Holmström
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.github.peholmst.stuff4vaadin.sequence;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Test case for {@link TimeBasedSequence}.
+ *
+ * @author Petter Holmström
+ * @since 1.0
+ */
+public class TimeBasedSequenceTest {
+
+    static final long EPOCH = TimeBasedSequence.DEFAULT_EPOCH;
+
+    volatile long now;
+
+    TimeBasedSequence seq;
+
+    @SuppressWarnings("serial")
+    @Before
+    public void setUp() {
+        now = EPOCH + 1000L;
+        seq = new TimeBasedSequence(5L) {
+            @Override
+            protected long currentTimeMillis() {
+                return now;
+            }
+        };
+    }
+
+    @After
+    public void tearDown() {
+        // Discards the sequences installed in IdGenerator
+        IdGenerator.setScope(IdGenerator.Scope.THREAD);
+    }
+
+    @Test
+    public void valueIsComposedOfTimestampNodeIdAndCounter() {
+        long value = seq.getNextValue();
+        assertEquals(now, seq.getTimestamp(value));
+        assertEquals(5L, (value >>> TimeBasedSequence.COUNTER_BITS)
+                & TimeBasedSequence.MAX_NODE_ID);
+        assertEquals(value + 1, seq.getNextValue());
+    }
+
+    @Test
+    public void counterIsResetWhenClockAdvances() {
+        long first = seq.getNextValue();
+        seq.getNextValue();
+        now += 1;
+        long value = seq.getNextValue();
+        assertEquals(now, seq.getTimestamp(value));
+        assertEquals(first + (1L << (TimeBasedSequence.NODE_ID_BITS + TimeBasedSequence.COUNTER_BITS)),
+                value);
+    }
+
+    @Test
+    public void counterOverflowBorrowsNextMillisecond() {
+        long previous = seq.getNextValue();
+        for (int i = 0; i < (1 << TimeBasedSequence.COUNTER_BITS) * 3; ++i) {
+            long value = seq.getNextValue();
+            assertTrue(value > previous);
+            previous = value;
+        }
+        assertEquals(now + 3, seq.getTimestamp(previous));
+    }
+
+    @Test
+    public void clockRegressionDoesNotProduceDuplicates() {
+        long previous = seq.getNextValue();
+        now -= 5000L;
+        for (int i = 0; i < 100; ++i) {
+            long value = seq.getNextValue();
+            assertTrue(value > previous);
+            previous = value;
+        }
+    }
+
+    @Test
+    public void usableThroughIdGenerator() {
+        IdGenerator.setSequence(new TimeBasedSequence(1L));
+        long value = IdGenerator.getNextValue();
+        assertTrue(value > 0);
+        assertTrue(IdGenerator.getNextValue() > value);
+    }
+
+    @Test
+    public void concurrentCallersGetUniqueValues() throws Exception {
+        final TimeBasedSequence seq = new TimeBasedSequence(1L);
+        final int threadCount = 8;
+        final int valuesPerThread = 10000;
+        final List<long[]> results = Collections
+                .synchronizedList(new ArrayList<long[]>());
+        List<Thread> threads = new ArrayList<Thread>();
+        for (int t = 0; t < threadCount; ++t) {
+            threads.add(new Thread() {
+                @Override
+                public void run() {
+                    long[] values = new long[valuesPerThread];
+                    for (int i = 0; i < valuesPerThread; ++i) {
+                        values[i] = seq.getNextValue();
+                    }
+                    results.add(values);
+                }
+            });
+        }
+        for (Thread thread : threads) {
+            thread.start();
+        }
+        for (Thread thread : threads) {
+            thread.join();
+        }
+        Set<Long> seen = new HashSet<Long>();
+        for (long[] values : results) {
+            for (long value : values) {
+                assertTrue("Duplicate value: " + value, seen.add(value));
+            }
+        }
+        assertEquals(threadCount * valuesPerThread, seen.size());
+    }
+
+    @Test
+    public void getNextValuesAcrossMilliseconds() {
+        long previous = seq.getNextValue();
+        long[] values = seq.getNextValues(10000);
+        for (long value : values) {
+            assertTrue(value > previous);
+            previous = value;
+        }
+        assertTrue(seq.getNextValue() > previous);
+    }
+
+    @Test
+    public void leadOverClockIsBounded() throws Exception {
+        @SuppressWarnings("serial")
+        final TimeBasedSequence bounded = new TimeBasedSequence(5L, EPOCH, 2L) {
+            @Override
+            protected long currentTimeMillis() {
+                return now;
+            }
+        };
+        final long[] last = new long[1];
+        Thread thread = new Thread() {
+            @Override
+            public void run() {
+                for (int i = 0; i < (1 << TimeBasedSequence.COUNTER_BITS) * 5; ++i) {
+                    last[0] = bounded.getNextValue();
+                }
+            }
+        };
+        thread.start();
+        for (int i = 0; i < 500 && thread.getState() != Thread.State.TIMED_WAITING; ++i) {
+            Thread.sleep(10);
+        }
+        // Three milliseconds (now, now + 1 and now + 2) used up, waiting
+        assertEquals(Thread.State.TIMED_WAITING, thread.getState());
+        now += 10;
+        thread.join();
+        assertTrue(bounded.getTimestamp(last[0]) <= now + 2);
+    }
+
+    @Test
+    public void batchLeadOverClockIsBounded() throws Exception {
+        @SuppressWarnings("serial")
+        final TimeBasedSequence bounded = new TimeBasedSequence(5L, EPOCH, 0L) {
+            @Override
+            protected long currentTimeMillis() {
+                return now;
+            }
+        };
+        final long[][] values = new long[1][];
+        Thread thread = new Thread() {
+            @Override
+            public void run() {
+                values[0] = bounded.getNextValues((1 << TimeBasedSequence.COUNTER_BITS) + 1);
+            }
+        };
+        thread.start();
+        for (int i = 0; i < 500 && thread.getState() != Thread.State.TIMED_WAITING; ++i) {
+            Thread.sleep(10);
+        }
+        assertEquals(Thread.State.TIMED_WAITING, thread.getState());
+        now += 1;
+        thread.join();
+        assertEquals(now, bounded.getTimestamp(values[0][values[0].length - 1]));
+    }
+}
@@ -0,0 +1,96 @@
+/*
+ * Copyright (c) 2011 Petter Holmström
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.github.peholmst.stuff4vaadin.sequence.dialect;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+
+import java.sql.Connection;
+import java.sql.Statement;
+
+import javax.sql.DataSource;
+
+import org.h2.jdbcx.JdbcDataSource;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.github.peholmst.stuff4vaadin.sequence.AdaptiveBlockSize;
+import com.github.peholmst.stuff4vaadin.sequence.DataSourceSequence;
+
+/**
+ * Test case for {@link H2SequenceDialect}.
+ *
+ * @author Petter Holmström
+ * @since 1.0
+ */
+public class H2SequenceDialectTest {
+
+    static final String SEQUENCE_NAME = "dialectSequence";
+
+    JdbcDataSource dataSource;
+
+    Connection connection;
+
+    H2SequenceDialect dialect = new H2SequenceDialect();
+
+    @Before
+    public void setUp() throws Exception {
+        dataSource = new JdbcDataSource();
+        dataSource.setURL("jdbc:h2:mem:dialectTest;DB_CLOSE_DELAY=-1");
+        connection = dataSource.getConnection();
+        Statement statement = connection.createStatement();
+        statement.execute("DROP SEQUENCE IF EXISTS " + SEQUENCE_NAME);
+        statement.execute("CREATE SEQUENCE " + SEQUENCE_NAME
+                + " START WITH 1 INCREMENT BY 10");
+        statement.close();
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        connection.close();
+    }
+
+    @Test
+    public void getIncrement() throws Exception {
+        assertEquals(10L, dialect.getIncrement(connection, SEQUENCE_NAME));
+    }
+
+    @Test
+    public void nextValues() throws Exception {
+        assertArrayEquals(new long[] { 1L, 11L, 21L },
+                dialect.nextValues(connection, SEQUENCE_NAME, 3));
+        assertArrayEquals(new long[] { 31L },
+                dialect.nextValues(connection, SEQUENCE_NAME, 1));
+    }
+
+    @Test
+    public void dataSourceSequenceWithDialect() throws Exception {
+        @SuppressWarnings("serial")
+        DataSourceSequence seq = new DataSourceSequence(SEQUENCE_NAME, dialect,
+                new AdaptiveBlockSize(3, 3, 1000L)) {
+            @Override
+            protected DataSource lookupDataSource() {
+                return dataSource;
+            }
+        };
+        for (long i = 1; i <= 30; ++i) {
+            assertEquals(i, seq.getNextValue());
+        }
+        assertArrayEquals(new long[] { 31L },
+                dialect.nextValues(connection, SEQUENCE_NAME, 1));
+    }
+}
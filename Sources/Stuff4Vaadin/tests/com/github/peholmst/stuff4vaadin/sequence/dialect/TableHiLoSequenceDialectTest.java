@@ -0,0 +1,101 @@
+/*
+ * Copyright (c) 2011 Petter Holmström
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.github.peholmst.stuff4vaadin.sequence.dialect;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.sql.Connection;
+import java.sql.Statement;
+
+import javax.sql.DataSource;
+
+import org.h2.jdbcx.JdbcDataSource;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.github.peholmst.stuff4vaadin.sequence.DataSourceSequence;
+
+/**
+ * Test case for {@link TableHiLoSequenceDialect}.
+ *
+ * @author Petter Holmström
+ * @since 1.0
+ */
+public class TableHiLoSequenceDialectTest {
+
+    static final String TABLE_NAME = "SEQUENCE_TABLE";
+
+    static final String SEQUENCE_NAME = "mySequence";
+
+    JdbcDataSource dataSource;
+
+    Connection connection;
+
+    TableHiLoSequenceDialect dialect = new TableHiLoSequenceDialect(
+            TABLE_NAME, 10L);
+
+    @Before
+    public void setUp() throws Exception {
+        dataSource = new JdbcDataSource();
+        dataSource.setURL("jdbc:h2:mem:dialectTest;DB_CLOSE_DELAY=-1");
+        connection = dataSource.getConnection();
+        Statement statement = connection.createStatement();
+        statement.execute("DROP TABLE IF EXISTS " + TABLE_NAME);
+        statement.execute("CREATE TABLE " + TABLE_NAME
+                + " (SEQUENCE_NAME VARCHAR(255) NOT NULL PRIMARY KEY,"
+                + " NEXT_VALUE BIGINT NOT NULL)");
+        statement.execute("INSERT INTO " + TABLE_NAME + " VALUES ('"
+                + SEQUENCE_NAME + "', 1)");
+        statement.close();
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        connection.close();
+    }
+
+    @Test
+    public void getIncrement() throws Exception {
+        assertEquals(10L, dialect.getIncrement(connection, SEQUENCE_NAME));
+    }
+
+    @Test
+    public void nextValues() throws Exception {
+        assertArrayEquals(new long[] { 1L, 11L, 21L },
+                dialect.nextValues(connection, SEQUENCE_NAME, 3));
+        assertArrayEquals(new long[] { 31L },
+                dialect.nextValues(connection, SEQUENCE_NAME, 1));
+        assertTrue(connection.getAutoCommit());
+    }
+
+    @Test
+    public void dataSourceSequenceWithDialect() throws Exception {
+        @SuppressWarnings("serial")
+        DataSourceSequence seq = new DataSourceSequence(SEQUENCE_NAME, dialect,
+                null) {
+            @Override
+            protected DataSource lookupDataSource() {
+                return dataSource;
+            }
+        };
+        for (long i = 1; i <= 25; ++i) {
+            assertEquals(i, seq.getNextValue());
+        }
+    }
+}